@@ -0,0 +1,122 @@
+package com.redvelvet.aicompanion;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.redvelvet.aicompanion.protocol.GuestApiClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads companion portraits into ImageViews.
+ *
+ * Lookups go memory LRU (decoded bitmaps, sized in bytes), then the disk cache of
+ * encoded bytes, then the network. Decoding happens on the executor and is
+ * downsampled to the target size, so a full-resolution bitmap is never
+ * allocated. Concurrent requests for the same image at the same size share one
+ * fetch and decode. Views are tagged with the image they expect, so a recycled
+ * row never shows an older request's result. Call {@link #load} on the main thread.
+ */
+public class AvatarLoader {
+    private static final String TAG = "RedVelvet";
+
+    private final GuestApiClient client;
+    private final AvatarDiskCache diskCache;
+    private final Executor executor;
+    private final Handler mainHandler;
+    private final LruCache<String, Bitmap> memoryCache;
+    private final Map<String, List<ImageView>> inFlight = new HashMap<>(); // Main thread only
+
+    public AvatarLoader(GuestApiClient client, AvatarDiskCache diskCache, Executor executor, Handler mainHandler) {
+        this.client = client;
+        this.diskCache = diskCache;
+        this.executor = executor;
+        this.mainHandler = mainHandler;
+        // An eighth of the heap, measured in KB
+        int maxKb = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+        this.memoryCache = new LruCache<String, Bitmap>(maxKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount() / 1024;
+            }
+        };
+    }
+
+    public void load(String url, ImageView target, int widthPx, int heightPx) {
+        String key = url + "@" + widthPx + "x" + heightPx;
+        target.setTag(key);
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            target.setImageBitmap(cached);
+            return;
+        }
+        target.setImageDrawable(null);
+        List<ImageView> waiting = inFlight.get(key);
+        if (waiting != null) {
+            waiting.add(target);
+            return;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(target);
+        inFlight.put(key, waiting);
+        executor.execute(() -> {
+            Bitmap bitmap = null;
+            try {
+                bitmap = fetchAndDecode(url, widthPx, heightPx);
+            } catch (IOException e) {
+                Log.e(TAG, "AVATAR - Could not load " + url + ": " + e.getMessage());
+            }
+            Bitmap result = bitmap;
+            mainHandler.post(() -> deliver(key, result));
+        });
+    }
+
+    private void deliver(String key, Bitmap bitmap) {
+        List<ImageView> targets = inFlight.remove(key);
+        if (bitmap == null || targets == null) {
+            return;
+        }
+        memoryCache.put(key, bitmap);
+        for (ImageView target : targets) {
+            if (key.equals(target.getTag())) {
+                target.setImageBitmap(bitmap);
+            }
+        }
+    }
+
+    private Bitmap fetchAndDecode(String url, int widthPx, int heightPx) throws IOException {
+        byte[] bytes = diskCache.get(url);
+        if (bytes == null) {
+            bytes = client.download(url, GuestApiClient.Timeout.IMAGE);
+            diskCache.put(url, bytes);
+        }
+        Bitmap bitmap = decodeSampled(bytes, widthPx, heightPx);
+        if (bitmap == null) {
+            throw new IOException("Undecodable image");
+        }
+        return bitmap;
+    }
+
+    // Reads the header first, then decodes at the largest power-of-two reduction that still covers the target
+    private static Bitmap decodeSampled(byte[] bytes, int widthPx, int heightPx) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= widthPx && options.outHeight / (sampleSize * 2) >= heightPx) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    }
+}
@@ -0,0 +1,391 @@
+package com.redvelvet.aicompanion;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Local chat transcripts, one append-only file per companion.
+ *
+ * Appends only touch memory and schedule a write-behind flush on the given
+ * executor, so they are safe to call from the main thread. Each transcript
+ * keeps the file offset of every message, so a page is one seek plus a
+ * sequential read. Cursors are message positions: pass {@link #LATEST} for
+ * the newest page and {@link Page#nextCursor} to step back to older ones.
+ */
+public class ChatHistoryStore {
+    public static final long LATEST = Long.MAX_VALUE;
+
+    private static final byte RECORD_MESSAGE = 1;
+    private static final byte RECORD_TITLE = 2;
+    private static final String SUFFIX = ".log";
+
+    public static final class Message {
+        public final long timestampMillis;
+        public final boolean fromUser;
+        public final String text;
+
+        Message(long timestampMillis, boolean fromUser, String text) {
+            this.timestampMillis = timestampMillis;
+            this.fromUser = fromUser;
+            this.text = text;
+        }
+    }
+
+    public static final class Page {
+        public final List<Message> messages; // Oldest first
+        public final long nextCursor;
+
+        Page(List<Message> messages, long nextCursor) {
+            this.messages = messages;
+            this.nextCursor = nextCursor;
+        }
+
+        public boolean hasOlder() {
+            return nextCursor > 0;
+        }
+    }
+
+    public static final class Conversation {
+        public final int companionId;
+        public final String title;
+        public final Message lastMessage;
+
+        Conversation(int companionId, String title, Message lastMessage) {
+            this.companionId = companionId;
+            this.title = title;
+            this.lastMessage = lastMessage;
+        }
+    }
+
+    private static final class Transcript {
+        final File file;
+        boolean loaded;
+        String title = "";
+        String unwrittenTitle;
+        long[] offsets = new long[16];
+        int flushed;
+        final List<Message> unflushed = new ArrayList<>();
+        Message last;
+
+        Transcript(File file) {
+            this.file = file;
+        }
+
+        int size() {
+            return flushed + unflushed.size();
+        }
+    }
+
+    private final File dir;
+    private final Executor writer;
+    private final Object writeLock = new Object(); // Held for file writes; taken before the store lock
+    private final Map<Integer, Transcript> transcripts = new HashMap<>();
+    private boolean listed;
+    private boolean flushScheduled;
+    private long version;
+
+    public ChatHistoryStore(File dir, Executor writer) {
+        this.dir = dir;
+        this.writer = writer;
+    }
+
+    /** Records a message in memory; it reaches disk on the next write-behind flush. */
+    public synchronized void append(int companionId, String title, boolean fromUser, String text) {
+        Transcript transcript = transcript(companionId);
+        if (title != null && !title.equals(transcript.unwrittenTitle != null ? transcript.unwrittenTitle : transcript.title)) {
+            transcript.unwrittenTitle = title;
+        }
+        Message message = new Message(System.currentTimeMillis(), fromUser, text);
+        transcript.unflushed.add(message);
+        transcript.last = message;
+        version++;
+        if (!flushScheduled) {
+            flushScheduled = true;
+            writer.execute(() -> {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    Log.e("RedVelvet", "CHAT HISTORY - Write failed: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /** Changes whenever a message is added or history is cleared, so callers can skip re-reading. */
+    public synchronized long version() {
+        return version;
+    }
+
+    /** Up to {@code limit} messages ending just before {@code cursor}. */
+    public Page page(int companionId, long cursor, int limit) throws IOException {
+        long[] offsets;
+        int from;
+        int to;
+        List<Message> buffered;
+        File file;
+        synchronized (this) {
+            Transcript transcript = transcript(companionId);
+            load(transcript);
+            int end = (int) Math.min(cursor, transcript.size());
+            from = Math.max(0, end - limit);
+            to = end;
+            offsets = transcript.offsets;
+            buffered = new ArrayList<>(transcript.unflushed.subList(
+                Math.max(0, from - transcript.flushed), Math.max(0, to - transcript.flushed)));
+            to = Math.min(to, transcript.flushed);
+            file = transcript.file;
+        }
+        List<Message> messages = new ArrayList<>(Math.max(0, to - from) + buffered.size());
+        if (from < to) {
+            readMessages(file, offsets[from], to - from, messages);
+        }
+        messages.addAll(buffered);
+        return new Page(messages, from);
+    }
+
+    /** Every stored conversation, most recently active first. */
+    public synchronized List<Conversation> conversations() throws IOException {
+        if (!listed) {
+            listed = true;
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    String name = file.getName();
+                    if (name.endsWith(SUFFIX)) {
+                        try {
+                            transcript(Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())));
+                        } catch (NumberFormatException e) {
+                            // Not one of ours
+                        }
+                    }
+                }
+            }
+        }
+        List<Conversation> result = new ArrayList<>();
+        for (Map.Entry<Integer, Transcript> entry : transcripts.entrySet()) {
+            Transcript transcript = entry.getValue();
+            load(transcript);
+            if (transcript.last != null) {
+                String title = transcript.unwrittenTitle != null ? transcript.unwrittenTitle : transcript.title;
+                result.add(new Conversation(entry.getKey(), title, transcript.last));
+            }
+        }
+        Collections.sort(result, (a, b) -> Long.compare(b.lastMessage.timestampMillis, a.lastMessage.timestampMillis));
+        return result;
+    }
+
+    public void clear() {
+        synchronized (writeLock) {
+            synchronized (this) {
+                for (Transcript transcript : transcripts.values()) {
+                    transcript.file.delete();
+                }
+                transcripts.clear();
+                File[] files = dir.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                listed = true;
+                version++;
+            }
+        }
+    }
+
+    /** Writes every buffered message; runs on the writer executor, and directly when the app stops. */
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            List<Transcript> dirty = new ArrayList<>();
+            List<List<Message>> batches = new ArrayList<>();
+            List<String> titles = new ArrayList<>();
+            synchronized (this) {
+                flushScheduled = false;
+                for (Transcript transcript : transcripts.values()) {
+                    if (!transcript.unflushed.isEmpty() || transcript.unwrittenTitle != null) {
+                        load(transcript);
+                        dirty.add(transcript);
+                        batches.add(new ArrayList<>(transcript.unflushed));
+                        titles.add(transcript.unwrittenTitle);
+                    }
+                }
+            }
+            if (dirty.isEmpty()) {
+                return;
+            }
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create " + dir);
+            }
+            for (int i = 0; i < dirty.size(); i++) {
+                Transcript transcript = dirty.get(i);
+                List<Message> batch = batches.get(i);
+                long[] written = new long[batch.size()];
+                long position = transcript.file.length();
+                try (CountingOutput out = new CountingOutput(transcript.file, position)) {
+                    if (titles.get(i) != null) {
+                        out.data.writeByte(RECORD_TITLE);
+                        writeString(out.data, titles.get(i));
+                    }
+                    for (int m = 0; m < batch.size(); m++) {
+                        written[m] = out.position();
+                        writeMessage(out.data, batch.get(m));
+                    }
+                }
+                synchronized (this) {
+                    if (titles.get(i) != null) {
+                        transcript.title = titles.get(i);
+                        if (titles.get(i).equals(transcript.unwrittenTitle)) {
+                            transcript.unwrittenTitle = null;
+                        }
+                    }
+                    for (long offset : written) {
+                        addOffset(transcript, offset);
+                    }
+                    transcript.unflushed.subList(0, batch.size()).clear();
+                }
+            }
+        }
+    }
+
+    // Caller holds the store lock
+    private Transcript transcript(int companionId) {
+        Transcript transcript = transcripts.get(companionId);
+        if (transcript == null) {
+            transcript = new Transcript(new File(dir, companionId + SUFFIX));
+            transcripts.put(companionId, transcript);
+        }
+        return transcript;
+    }
+
+    // Caller holds the store lock. Scans the file once to index message offsets; a torn tail is cut off.
+    private void load(Transcript transcript) throws IOException {
+        if (transcript.loaded) {
+            return;
+        }
+        transcript.loaded = true;
+        if (!transcript.file.exists()) {
+            return;
+        }
+        long position = 0;
+        Message last = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(transcript.file)))) {
+            while (true) {
+                int type = in.read();
+                if (type == RECORD_MESSAGE) {
+                    long timestamp = in.readLong();
+                    boolean fromUser = in.readBoolean();
+                    byte[] text = readBytes(in);
+                    last = new Message(timestamp, fromUser, new String(text, StandardCharsets.UTF_8));
+                    addOffset(transcript, position);
+                    position += 1 + 8 + 1 + 4 + text.length;
+                } else if (type == RECORD_TITLE) {
+                    byte[] title = readBytes(in);
+                    transcript.title = new String(title, StandardCharsets.UTF_8);
+                    position += 1 + 4 + title.length;
+                } else {
+                    break; // End of file, or garbage after the last whole record
+                }
+            }
+        } catch (EOFException e) {
+            // Crash mid-write: position still points at the end of the last whole record
+        }
+        if (position < transcript.file.length()) {
+            try (RandomAccessFile file = new RandomAccessFile(transcript.file, "rw")) {
+                file.setLength(position);
+            }
+        }
+        transcript.last = last;
+        // Messages appended before the file was indexed are still waiting in unflushed
+        if (!transcript.unflushed.isEmpty()) {
+            transcript.last = transcript.unflushed.get(transcript.unflushed.size() - 1);
+        }
+    }
+
+    private static void addOffset(Transcript transcript, long offset) {
+        if (transcript.flushed == transcript.offsets.length) {
+            transcript.offsets = Arrays.copyOf(transcript.offsets, transcript.flushed * 2);
+        }
+        transcript.offsets[transcript.flushed++] = offset;
+    }
+
+    private static void readMessages(File file, long offset, int count, List<Message> into) throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            stream.getChannel().position(offset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            while (count > 0) {
+                int type = in.read();
+                if (type == RECORD_MESSAGE) {
+                    long timestamp = in.readLong();
+                    boolean fromUser = in.readBoolean();
+                    into.add(new Message(timestamp, fromUser, readString(in)));
+                    count--;
+                } else if (type == RECORD_TITLE) {
+                    readString(in);
+                } else {
+                    throw new IOException("Corrupt chat history record in " + file.getName());
+                }
+            }
+        }
+    }
+
+    private static void writeMessage(DataOutputStream out, Message message) throws IOException {
+        out.writeByte(RECORD_MESSAGE);
+        out.writeLong(message.timestampMillis);
+        out.writeBoolean(message.fromUser);
+        writeString(out, message.text);
+    }
+
+    // Length-prefixed UTF-8; writeUTF caps out at 64KB, which a long reply can exceed
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static final class CountingOutput implements AutoCloseable {
+        final DataOutputStream data;
+        private final long start;
+
+        CountingOutput(File file, long start) throws IOException {
+            this.data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            this.start = start;
+        }
+
+        long position() {
+            return start + data.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            data.close();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.redvelvet.aicompanion;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only on-disk outbox for chat messages.
+ *
+ * A message is written (and fsynced) here before any network attempt, and an
+ * acknowledgement record is appended once the server has taken it. Replaying
+ * the log on first use restores whatever was still unsent when the process
+ * died; a torn record at the tail from a crash mid-write is ignored. The log is
+ * rewritten with only the pending entries once acknowledgements pile up.
+ */
+public class ChatOutbox {
+    private static final byte RECORD_ENQUEUE = 1;
+    private static final byte RECORD_SENT = 2;
+    private static final int COMPACT_AFTER_ACKS = 64;
+
+    public static final class Entry {
+        public final long id;
+        public final int companionId;
+        public final String message;
+        public final long createdAtMillis;
+
+        Entry(long id, int companionId, String message, long createdAtMillis) {
+            this.id = id;
+            this.companionId = companionId;
+            this.message = message;
+            this.createdAtMillis = createdAtMillis;
+        }
+    }
+
+    private final File file;
+    private final Map<Long, Entry> pending = new LinkedHashMap<>();
+    private boolean loaded;
+    private long nextId = 1;
+    private int acksSinceCompaction;
+
+    public ChatOutbox(File file) {
+        this.file = file;
+    }
+
+    /** Durably records a message; it stays pending until {@link #markSent} is called. */
+    public synchronized Entry append(int companionId, String message) throws IOException {
+        ensureLoaded();
+        Entry entry = new Entry(nextId++, companionId, message, System.currentTimeMillis());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + message.length());
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(RECORD_ENQUEUE);
+        record.writeLong(entry.id);
+        record.writeInt(entry.companionId);
+        record.writeLong(entry.createdAtMillis);
+        record.writeUTF(entry.message);
+        write(bytes.toByteArray());
+        pending.put(entry.id, entry);
+        return entry;
+    }
+
+    public synchronized void markSent(long id) throws IOException {
+        ensureLoaded();
+        if (pending.remove(id) == null) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(9);
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(RECORD_SENT);
+        record.writeLong(id);
+        write(bytes.toByteArray());
+        if (++acksSinceCompaction >= COMPACT_AFTER_ACKS) {
+            compact();
+        }
+    }
+
+    /** Unsent messages in the order they were written. */
+    public synchronized List<Entry> pending() throws IOException {
+        ensureLoaded();
+        return new ArrayList<>(pending.values());
+    }
+
+    public synchronized boolean isEmpty() throws IOException {
+        ensureLoaded();
+        return pending.isEmpty();
+    }
+
+    private void write(byte[] record) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(record);
+            out.getFD().sync();
+        }
+    }
+
+    private void ensureLoaded() throws IOException {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        boolean torn = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int type = in.read();
+                if (type == -1) {
+                    break;
+                }
+                if (type == RECORD_ENQUEUE) {
+                    long id = in.readLong();
+                    int companionId = in.readInt();
+                    long createdAt = in.readLong();
+                    String message = in.readUTF();
+                    pending.put(id, new Entry(id, companionId, message, createdAt));
+                    nextId = Math.max(nextId, id + 1);
+                } else if (type == RECORD_SENT) {
+                    pending.remove(in.readLong());
+                } else {
+                    torn = true;
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            torn = true; // Crash mid-append: drop the partial record
+        }
+        if (torn) {
+            compact();
+        }
+    }
+
+    // Rewrites the log with only the pending entries, then swaps it in atomically
+    private void compact() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            DataOutputStream record = new DataOutputStream(out);
+            for (Entry entry : pending.values()) {
+                record.writeByte(RECORD_ENQUEUE);
+                record.writeLong(entry.id);
+                record.writeInt(entry.companionId);
+                record.writeLong(entry.createdAtMillis);
+                record.writeUTF(entry.message);
+            }
+            record.flush();
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+        acksSinceCompaction = 0;
+    }
+}
@@ -0,0 +1,184 @@
+package com.redvelvet.aicompanion;
+
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Backs the chat transcript RecyclerView.
+ *
+ * Only the rows on screen have views; everything else is a plain item in this
+ * list. Every change is reported as a precise insert, remove or change
+ * notification, so an append lays out one row instead of the whole transcript,
+ * and a streamed chunk rebinds only the text of its own bubble. Main thread only.
+ */
+public class ChatTranscriptAdapter extends RecyclerView.Adapter<ChatTranscriptAdapter.Holder> {
+    static final int TYPE_USER = 0;
+    static final int TYPE_COMPANION = 1;
+    static final int TYPE_TYPING = 2;
+    static final int TYPE_LOAD_EARLIER = 3;
+
+    // A non-empty payload lets the item animator rebind the same holder instead of cross-fading a copy
+    private static final Object PAYLOAD_TEXT = new Object();
+
+    private static final class Item {
+        final long id;
+        final int type;
+        final StringBuilder text;
+
+        Item(long id, int type, String text) {
+            this.id = id;
+            this.type = type;
+            this.text = new StringBuilder(text);
+        }
+    }
+
+    static final class Holder extends RecyclerView.ViewHolder {
+        final TextView text;
+
+        Holder(View itemView, TextView text) {
+            super(itemView);
+            this.text = text;
+        }
+    }
+
+    private final List<Item> items = new ArrayList<>();
+    private final Runnable onLoadEarlier;
+    private long nextId = 1;
+
+    public ChatTranscriptAdapter(Runnable onLoadEarlier) {
+        this.onLoadEarlier = onLoadEarlier;
+        setHasStableIds(true);
+    }
+
+    /** Adds a message at the bottom and returns its id, for {@link #appendText}. */
+    public long addMessage(String text, boolean fromUser) {
+        Item item = new Item(nextId++, fromUser ? TYPE_USER : TYPE_COMPANION, text);
+        items.add(item);
+        notifyItemInserted(items.size() - 1);
+        return item.id;
+    }
+
+    /** Extends a message in place, e.g. with the next chunk of a streamed reply. */
+    public void appendText(long id, String chunk) {
+        for (int i = items.size() - 1; i >= 0; i--) {
+            if (items.get(i).id == id) {
+                items.get(i).text.append(chunk);
+                notifyItemChanged(i, PAYLOAD_TEXT);
+                return;
+            }
+        }
+    }
+
+    /** Takes a message back out, e.g. the part of a streamed reply that was cut off. */
+    public void removeMessage(long id) {
+        for (int i = items.size() - 1; i >= 0; i--) {
+            if (items.get(i).id == id) {
+                items.remove(i);
+                notifyItemRemoved(i);
+                return;
+            }
+        }
+    }
+
+    /** Inserts an older page above everything shown, replacing any previous "load earlier" row. */
+    public void prependHistory(List<ChatHistoryStore.Message> messages, boolean hasOlder) {
+        if (!items.isEmpty() && items.get(0).type == TYPE_LOAD_EARLIER) {
+            items.remove(0);
+            notifyItemRemoved(0);
+        }
+        List<Item> page = new ArrayList<>(messages.size() + 1);
+        if (hasOlder) {
+            page.add(new Item(nextId++, TYPE_LOAD_EARLIER, "Load earlier messages"));
+        }
+        for (ChatHistoryStore.Message message : messages) {
+            page.add(new Item(nextId++, message.fromUser ? TYPE_USER : TYPE_COMPANION, message.text));
+        }
+        items.addAll(0, page);
+        notifyItemRangeInserted(0, page.size());
+    }
+
+    public void showTyping(String label) {
+        items.add(new Item(nextId++, TYPE_TYPING, label));
+        notifyItemInserted(items.size() - 1);
+    }
+
+    public void hideTyping() {
+        for (int i = items.size() - 1; i >= 0; i--) {
+            if (items.get(i).type == TYPE_TYPING) {
+                items.remove(i);
+                notifyItemRemoved(i);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return items.size();
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return items.get(position).type;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return items.get(position).id;
+    }
+
+    @Override
+    public Holder onCreateViewHolder(ViewGroup parent, int viewType) {
+        FrameLayout row = new FrameLayout(parent.getContext());
+        row.setLayoutParams(new RecyclerView.LayoutParams(
+            ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+
+        TextView text;
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
+            ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        params.setMargins(10, 5, 10, 5);
+        if (viewType == TYPE_LOAD_EARLIER) {
+            Button button = new Button(parent.getContext());
+            button.setBackgroundColor(0x44FFFFFF);
+            button.setTextColor(0xFFE91E63);
+            button.setOnClickListener(v -> onLoadEarlier.run());
+            params.width = ViewGroup.LayoutParams.MATCH_PARENT;
+            text = button;
+        } else {
+            text = new TextView(parent.getContext());
+            text.setPadding(15, 10, 15, 10);
+            if (viewType == TYPE_USER) {
+                text.setTextSize(16);
+                text.setBackgroundColor(0xFFE91E63);
+                text.setTextColor(0xFFFFFFFF);
+                params.gravity = Gravity.END;
+            } else if (viewType == TYPE_COMPANION) {
+                text.setTextSize(16);
+                text.setBackgroundColor(0xFFFFFFFF);
+                text.setTextColor(0xFF333333);
+                params.gravity = Gravity.START;
+            } else {
+                text.setTextSize(14);
+                text.setTextColor(0xFF666666);
+                params.gravity = Gravity.START;
+            }
+        }
+        text.setLayoutParams(params);
+        row.addView(text);
+        return new Holder(row, text);
+    }
+
+    @Override
+    public void onBindViewHolder(Holder holder, int position) {
+        holder.text.setText(items.get(position).text);
+    }
+}
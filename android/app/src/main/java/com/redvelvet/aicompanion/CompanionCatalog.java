@@ -0,0 +1,105 @@
+package com.redvelvet.aicompanion;
+
+import com.redvelvet.aicompanion.protocol.GuestApiClient;
+import com.redvelvet.aicompanion.protocol.GuestApiJson;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Companion catalog from GET /api/companions, cached on disk with its ETag.
+ *
+ * {@link #loadCached} renders the last known catalog without touching the
+ * network; {@link #refresh} revalidates it with If-None-Match, so an unchanged
+ * catalog costs a 304 with no body. Both are blocking; call them off the main thread.
+ */
+public class CompanionCatalog {
+    public static final String PATH = "/api/companions";
+
+    private final GuestApiClient client;
+    private final File cacheFile;
+    private boolean loaded;
+    private String etag;
+    private List<GuestApiJson.Companion> companions;
+
+    public CompanionCatalog(GuestApiClient client, File cacheFile) {
+        this.client = client;
+        this.cacheFile = cacheFile;
+    }
+
+    /** The cached catalog, or null if nothing has been cached yet. */
+    public synchronized List<GuestApiJson.Companion> loadCached() throws IOException {
+        if (!loaded) {
+            loaded = true;
+            if (cacheFile.exists()) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+                    String cachedEtag = in.readUTF();
+                    byte[] body = new byte[in.readInt()];
+                    in.readFully(body);
+                    companions = GuestApiJson.parseCompanions(new String(body, StandardCharsets.UTF_8));
+                    etag = cachedEtag.isEmpty() ? null : cachedEtag;
+                } catch (IOException e) {
+                    // Unreadable cache: behave as if there was none and let refresh() replace it
+                    companions = null;
+                    etag = null;
+                }
+            }
+        }
+        return companions;
+    }
+
+    /** Revalidates with the server; returns the new catalog, or null if the cached one is still current. */
+    public List<GuestApiJson.Companion> refresh() throws IOException {
+        String validator;
+        synchronized (this) {
+            loadCached();
+            validator = companions != null ? etag : null;
+        }
+        GuestApiClient.Response response = validator != null
+            ? client.get(PATH, GuestApiClient.Timeout.CATALOG, Collections.singletonMap("If-None-Match", validator))
+            : client.get(PATH, GuestApiClient.Timeout.CATALOG);
+        if (response.code == 304) {
+            return null;
+        }
+        if (response.code != 200) {
+            throw new IOException("Companion catalog fetch failed with code " + response.code);
+        }
+        List<GuestApiJson.Companion> fresh = client.metrics().parse(PATH, () -> GuestApiJson.parseCompanions(response.body));
+        String freshEtag = response.header("ETag");
+        synchronized (this) {
+            write(freshEtag, response.body);
+            companions = fresh;
+            etag = freshEtag;
+        }
+        return fresh;
+    }
+
+    // Caller holds the lock. Written to a temp file and renamed so a crash never leaves half a catalog.
+    private void write(String newEtag, String body) throws IOException {
+        File parent = cacheFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        File temp = new File(cacheFile.getPath() + ".tmp");
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeUTF(newEtag == null ? "" : newEtag);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.flush();
+            stream.getFD().sync();
+        }
+        if (!temp.renameTo(cacheFile)) {
+            throw new IOException("Could not replace " + cacheFile);
+        }
+    }
+}
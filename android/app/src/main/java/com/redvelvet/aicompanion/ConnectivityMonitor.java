@@ -0,0 +1,163 @@
+package com.redvelvet.aicompanion;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Build;
+
+import com.redvelvet.aicompanion.protocol.GuestApiClient;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Network state from system callbacks, with no traffic of its own.
+ *
+ * Online means some network offers internet; the API client fails fast while
+ * there is none. Validated means the system has confirmed that network really
+ * reaches the internet, which is when queued work should resume. Metered and
+ * transport describe the network in use. Listeners run on the system's
+ * connectivity thread.
+ */
+public class ConnectivityMonitor implements GuestApiClient.NetworkState {
+
+    public enum Transport { NONE, WIFI, CELLULAR, ETHERNET, VPN, OTHER }
+
+    /** Called when the network comes or goes, finishes validating, or is swapped for another kind. */
+    public interface Listener {
+        void onConnectivityChanged(boolean online, boolean validated);
+    }
+
+    private final ConnectivityManager manager;
+    private final Listener listener;
+    // From API 24 only the default network is followed; a switch replaces it without an onLost
+    private final boolean defaultOnly = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+    private final Map<Network, NetworkCapabilities> networks = new HashMap<>();
+    private boolean online;
+    private boolean validated;
+    private boolean metered;
+    private Transport transport = Transport.NONE;
+
+    private final ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+            update(network, capabilities);
+        }
+
+        @Override
+        public void onLost(Network network) {
+            update(network, null);
+        }
+    };
+
+    public ConnectivityMonitor(Context context, Listener listener) {
+        this.manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.listener = listener;
+    }
+
+    /** Seeds the state from the active network without notifying, then follows callbacks until {@link #stop}. */
+    public void start() {
+        Network active = manager.getActiveNetwork();
+        NetworkCapabilities capabilities = active == null ? null : manager.getNetworkCapabilities(active);
+        synchronized (this) {
+            if (capabilities != null && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) {
+                networks.put(active, capabilities);
+            }
+            recompute();
+        }
+        if (defaultOnly) {
+            manager.registerDefaultNetworkCallback(callback);
+        } else {
+            // Before API 24 only the matching-networks callback exists; the best of them counts
+            manager.registerNetworkCallback(new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build(), callback);
+        }
+    }
+
+    public void stop() {
+        manager.unregisterNetworkCallback(callback);
+    }
+
+    @Override
+    public synchronized boolean isOnline() {
+        return online;
+    }
+
+    public synchronized boolean isValidated() {
+        return validated;
+    }
+
+    public synchronized boolean isMetered() {
+        return metered;
+    }
+
+    public synchronized Transport transport() {
+        return transport;
+    }
+
+    private void update(Network network, NetworkCapabilities capabilities) {
+        boolean wasOnline;
+        boolean wasValidated;
+        Transport wasTransport;
+        boolean nowOnline;
+        boolean nowValidated;
+        boolean changed;
+        synchronized (this) {
+            if (capabilities == null || !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) {
+                networks.remove(network);
+            } else {
+                if (defaultOnly) {
+                    networks.clear();
+                }
+                networks.put(network, capabilities);
+            }
+            wasOnline = online;
+            wasValidated = validated;
+            wasTransport = transport;
+            recompute();
+            nowOnline = online;
+            nowValidated = validated;
+            changed = nowOnline != wasOnline || nowValidated != wasValidated || transport != wasTransport;
+        }
+        if (changed) {
+            listener.onConnectivityChanged(nowOnline, nowValidated);
+        }
+    }
+
+    // Caller holds the lock; a validated network wins over one that is still being checked
+    private void recompute() {
+        NetworkCapabilities best = null;
+        for (NetworkCapabilities capabilities : networks.values()) {
+            if (best == null || (!isValidated(best) && isValidated(capabilities))) {
+                best = capabilities;
+            }
+        }
+        online = best != null;
+        validated = best != null && isValidated(best);
+        metered = best != null && !best.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+        transport = best == null ? Transport.NONE : transportOf(best);
+    }
+
+    private static boolean isValidated(NetworkCapabilities capabilities) {
+        return capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+    }
+
+    private static Transport transportOf(NetworkCapabilities capabilities) {
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_VPN)) {
+            return Transport.VPN;
+        }
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            return Transport.WIFI;
+        }
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            return Transport.CELLULAR;
+        }
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            return Transport.ETHERNET;
+        }
+        return Transport.OTHER;
+    }
+}
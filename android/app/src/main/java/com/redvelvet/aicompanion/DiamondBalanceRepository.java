@@ -0,0 +1,102 @@
+package com.redvelvet.aicompanion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single source for the guest diamond balance.
+ *
+ * Concurrent requests share one in-flight fetch and every waiter gets the same
+ * result. A value younger than the staleness window (fetched, or pushed in from
+ * another response such as the session or a chat reply) is served without a
+ * network round trip. Callbacks run on the fetching thread, or on the caller's
+ * thread for cache hits.
+ */
+public class DiamondBalanceRepository {
+
+    public interface Callback {
+        void onBalance(int diamonds);
+
+        void onError(Exception error);
+    }
+
+    private final Executor executor;
+    private final Callable<Integer> loader;
+    private final long maxAgeNanos;
+
+    private final List<Callback> waiters = new ArrayList<>();
+    private boolean inFlight;
+    private boolean hasValue;
+    private int diamonds;
+    private long updatedAtNanos;
+
+    public DiamondBalanceRepository(Executor executor, long maxAgeMillis, Callable<Integer> loader) {
+        this.executor = executor;
+        this.loader = loader;
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+    }
+
+    /** Delivers a balance no older than the staleness window, fetching at most once for all callers. */
+    public void get(Callback callback) {
+        int cached;
+        synchronized (this) {
+            if (!isFresh()) {
+                waiters.add(callback);
+                if (!inFlight) {
+                    inFlight = true;
+                    executor.execute(this::fetch);
+                }
+                return;
+            }
+            cached = diamonds;
+        }
+        callback.onBalance(cached);
+    }
+
+    /** Records a server-authoritative balance that arrived on another response. */
+    public synchronized void put(int serverDiamonds) {
+        diamonds = serverDiamonds;
+        hasValue = true;
+        updatedAtNanos = System.nanoTime();
+    }
+
+    /** Forces the next {@link #get} to go to the server. */
+    public synchronized void invalidate() {
+        hasValue = false;
+    }
+
+    private boolean isFresh() {
+        return hasValue && System.nanoTime() - updatedAtNanos <= maxAgeNanos;
+    }
+
+    private void fetch() {
+        Integer result = null;
+        Exception error = null;
+        try {
+            result = loader.call();
+        } catch (Exception e) {
+            error = e;
+        }
+
+        List<Callback> pending;
+        synchronized (this) {
+            if (result != null) {
+                put(result);
+            }
+            pending = new ArrayList<>(waiters);
+            waiters.clear();
+            inFlight = false;
+        }
+
+        for (Callback callback : pending) {
+            if (result != null) {
+                callback.onBalance(result);
+            } else {
+                callback.onError(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.redvelvet.aicompanion;
+
+/**
+ * Client-side diamond balance: the last server-confirmed figure minus the
+ * messages sent since, so the counter moves the moment the user hits send.
+ *
+ * Every balance-bearing request takes a sequence number from {@link #stamp}
+ * before it goes out, and a server figure is only accepted if it is newer than
+ * the one already confirmed; a slow response can never roll the balance back.
+ * Chat deliveries are serial, so debits are counted rather than tracked by id.
+ * A balance read that lands while a message is being delivered cannot tell
+ * whether the server has charged it yet, so it is dropped; the delivery's own
+ * reply settles the question. The pending count never drops below zero, so a
+ * settle for a debit this process never saw cannot inflate the balance.
+ */
+public class DiamondLedger {
+    public static final int MESSAGE_COST = 1;
+
+    private long lastSequence;
+    private long confirmedSequence;
+    private int confirmed;
+    private int pendingDebits; // Messages queued or in flight, not yet reflected in confirmed
+    private int inFlight;      // Of those, deliveries the server may be processing right now
+
+    public DiamondLedger(int initialBalance) {
+        confirmed = initialBalance;
+    }
+
+    /** What the user can spend right now: confirmed balance less pending messages. */
+    public synchronized int available() {
+        return Math.max(0, confirmed - pendingDebits * MESSAGE_COST);
+    }
+
+    public synchronized int pending() {
+        return pendingDebits;
+    }
+
+    /** Sequence number for a request about to be sent; pass it to {@link #observe} with its result. */
+    public synchronized long stamp() {
+        return ++lastSequence;
+    }
+
+    /**
+     * Records a server balance from the request stamped {@code sequence}. Returns
+     * false if it was ignored as older than, or ambiguous against, what is known.
+     */
+    public synchronized boolean observe(long sequence, int serverBalance) {
+        if (sequence <= confirmedSequence || inFlight > 0) {
+            return false;
+        }
+        confirmed = serverBalance;
+        confirmedSequence = sequence;
+        return true;
+    }
+
+    /** Optimistic debit for a message the user just sent. */
+    public synchronized void debit() {
+        pendingDebits++;
+    }
+
+    /** Re-applies debits for messages still queued from an earlier run. */
+    public synchronized void restore(int queuedMessages) {
+        pendingDebits += queuedMessages;
+    }
+
+    /** Takes back the debit for a message that could not be queued. */
+    public synchronized void release() {
+        dropPendingDebit();
+    }
+
+    /** A pending message is going out to the server. */
+    public synchronized void delivering() {
+        inFlight++;
+    }
+
+    /** The delivery never reached the server; the message stays queued and debited. */
+    public synchronized void deliveryFailed() {
+        inFlight--;
+    }
+
+    /**
+     * The server accepted and charged a message. Its balance, when present, is
+     * the newest there is; without one the debit is folded in locally.
+     */
+    public synchronized void settle(Integer serverBalance) {
+        inFlight--;
+        dropPendingDebit();
+        if (serverBalance != null) {
+            confirm(serverBalance);
+        } else {
+            confirm(confirmed - MESSAGE_COST);
+        }
+    }
+
+    /** The server refused a message, so its debit is returned; the balance it sent back, if any, is applied. */
+    public synchronized void refund(Integer serverBalance) {
+        inFlight--;
+        dropPendingDebit();
+        if (serverBalance != null) {
+            confirm(serverBalance);
+        }
+    }
+
+    private void dropPendingDebit() {
+        if (pendingDebits > 0) {
+            pendingDebits--;
+        }
+    }
+
+    // Answers to deliveries postdate every read stamped before them
+    private void confirm(int serverBalance) {
+        confirmed = serverBalance;
+        confirmedSequence = ++lastSequence;
+    }
+}
@@ -0,0 +1,141 @@
+package com.redvelvet.aicompanion;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Fixed-size ring buffer of structured diagnostic events.
+ *
+ * An event is a predeclared {@link Event} plus up to two numeric arguments,
+ * stored as four longs in a preallocated array: recording builds no strings,
+ * boxes nothing and allocates nothing. Events below the minimum level return
+ * after one comparison. Text is only produced by {@link #dump}, on demand or
+ * after a crash, and the oldest events are overwritten once the buffer is full.
+ */
+public class FlightRecorder {
+
+    public enum Level { VERBOSE, DEBUG, INFO, WARN, ERROR }
+
+    private static final int SLOT_LONGS = 4; // Wall time, event id, first argument, second argument
+    private static final List<Event> EVENTS = new ArrayList<>();
+
+    /** A kind of event, declared once as a constant; argument names are only used when dumping. */
+    public static final class Event {
+        final int id;
+        final Level level;
+        final String name;
+        final String firstArg;
+        final String secondArg;
+
+        private Event(int id, Level level, String name, String firstArg, String secondArg) {
+            this.id = id;
+            this.level = level;
+            this.name = name;
+            this.firstArg = firstArg;
+            this.secondArg = secondArg;
+        }
+    }
+
+    public static Event event(Level level, String name) {
+        return event(level, name, null, null);
+    }
+
+    public static Event event(Level level, String name, String firstArg) {
+        return event(level, name, firstArg, null);
+    }
+
+    public static Event event(Level level, String name, String firstArg, String secondArg) {
+        synchronized (EVENTS) {
+            Event event = new Event(EVENTS.size(), level, name, firstArg, secondArg);
+            EVENTS.add(event);
+            return event;
+        }
+    }
+
+    private final long[] slots;
+    private final int capacity;
+    private volatile int minLevel;
+    private long written; // Total events ever recorded; the next slot is written % capacity
+
+    public FlightRecorder(int capacity, Level minLevel) {
+        this.capacity = capacity;
+        this.slots = new long[capacity * SLOT_LONGS];
+        this.minLevel = minLevel.ordinal();
+    }
+
+    public void setMinLevel(Level level) {
+        minLevel = level.ordinal();
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.ordinal() >= minLevel;
+    }
+
+    public void record(Event event) {
+        if (event.level.ordinal() >= minLevel) {
+            write(event, 0, 0);
+        }
+    }
+
+    public void record(Event event, long arg) {
+        if (event.level.ordinal() >= minLevel) {
+            write(event, arg, 0);
+        }
+    }
+
+    public void record(Event event, long firstArg, long secondArg) {
+        if (event.level.ordinal() >= minLevel) {
+            write(event, firstArg, secondArg);
+        }
+    }
+
+    private synchronized void write(Event event, long firstArg, long secondArg) {
+        int base = (int) (written % capacity) * SLOT_LONGS;
+        slots[base] = System.currentTimeMillis();
+        slots[base + 1] = event.id;
+        slots[base + 2] = firstArg;
+        slots[base + 3] = secondArg;
+        written++;
+    }
+
+    /** Writes the buffered events oldest first, one per line. */
+    public void dump(Writer out) throws IOException {
+        long[] copy;
+        long total;
+        synchronized (this) {
+            copy = slots.clone();
+            total = written;
+        }
+        List<Event> events;
+        synchronized (EVENTS) {
+            events = new ArrayList<>(EVENTS);
+        }
+        SimpleDateFormat time = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        long first = Math.max(0, total - capacity);
+        if (first > 0) {
+            out.write("... " + first + " earlier events overwritten\n");
+        }
+        for (long i = first; i < total; i++) {
+            int base = (int) (i % capacity) * SLOT_LONGS;
+            Event event = events.get((int) copy[base + 1]);
+            out.write(time.format(new Date(copy[base])));
+            out.write(' ');
+            out.write(event.level.name().charAt(0));
+            out.write(' ');
+            out.write(event.name);
+            if (event.firstArg != null) {
+                out.write(" " + event.firstArg + "=" + copy[base + 2]);
+            }
+            if (event.secondArg != null) {
+                out.write(" " + event.secondArg + "=" + copy[base + 3]);
+            }
+            out.write('\n');
+        }
+        out.flush();
+    }
+}
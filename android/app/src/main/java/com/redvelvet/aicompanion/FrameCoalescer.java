@@ -0,0 +1,109 @@
+package com.redvelvet.aicompanion;
+
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies UI updates at most once per display frame.
+ *
+ * Updates posted from any thread are queued and run together on the main thread
+ * when the next frame starts, ahead of its layout pass, so a burst of streamed
+ * chunks costs one batch and one layout instead of a message and a layout each.
+ * {@link #invalidate} asks for the settle action, such as scrolling to the newest
+ * item, to run once after the batch however many updates asked for it.
+ */
+public class FrameCoalescer implements Choreographer.FrameCallback {
+    private final Choreographer choreographer;
+    private final Runnable settle;
+    private final Object lock = new Object();
+    private List<Runnable> pending = new ArrayList<>();
+    private List<Runnable> applying = new ArrayList<>(); // The batch being run; main thread only
+    private boolean scheduled;
+    private boolean inBatch; // An invalidate() from inside the batch is served by the same frame
+    private boolean settleRequested;
+    private boolean cancelled;
+
+    /** Call on the main thread: its Choreographer paces the batches. */
+    public FrameCoalescer(Runnable settle) {
+        this.choreographer = Choreographer.getInstance();
+        this.settle = settle;
+    }
+
+    /** Queues an update for the next frame; any thread. */
+    public void post(Runnable update) {
+        synchronized (lock) {
+            if (cancelled) {
+                return;
+            }
+            pending.add(update);
+            schedule();
+        }
+    }
+
+    /** Asks for the settle action at the end of the current or next batch; any thread. */
+    public void invalidate() {
+        synchronized (lock) {
+            if (cancelled) {
+                return;
+            }
+            settleRequested = true;
+            if (!inBatch) {
+                schedule();
+            }
+        }
+    }
+
+    /** Drops everything queued; nothing posted afterwards runs. */
+    public void cancel() {
+        synchronized (lock) {
+            cancelled = true;
+            pending.clear();
+            if (scheduled) {
+                choreographer.removeFrameCallback(this);
+                scheduled = false;
+            }
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        List<Runnable> batch;
+        synchronized (lock) {
+            scheduled = false;
+            if (cancelled) {
+                return;
+            }
+            // Swap buffers: updates posted while this batch runs go to the next frame
+            batch = pending;
+            pending = applying;
+            applying = batch;
+            inBatch = true;
+        }
+        boolean settleNow;
+        try {
+            for (Runnable update : batch) {
+                update.run();
+            }
+        } finally {
+            batch.clear();
+            synchronized (lock) {
+                inBatch = false;
+                settleNow = settleRequested && !cancelled;
+                settleRequested = false;
+            }
+        }
+        if (settleNow) {
+            settle.run();
+        }
+    }
+
+    // Caller holds the lock
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            choreographer.postFrameCallback(this);
+        }
+    }
+}
@@ -1,51 +1,123 @@
 package com.redvelvet.aicompanion;
 
+import android.content.pm.ApplicationInfo;
 import android.os.Bundle;
+import android.text.format.DateUtils;
 import android.util.Log;
 import android.widget.TextView;
 import android.widget.LinearLayout;
 import android.widget.Button;
 import android.widget.ScrollView;
 import android.widget.EditText;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
 import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
 import android.os.Handler;
 import android.os.Looper;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import com.redvelvet.aicompanion.protocol.EndpointMetrics;
+import com.redvelvet.aicompanion.protocol.EndpointRouter;
+import com.redvelvet.aicompanion.protocol.EventChannel;
+import com.redvelvet.aicompanion.protocol.GuestApiClient;
+import com.redvelvet.aicompanion.protocol.GuestApiJson;
+import com.redvelvet.aicompanion.protocol.HttpCache;
+import com.redvelvet.aicompanion.protocol.LatencyHistogram;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "RedVelvet";
-    private static final String SERVER_URL = "https://red-velvet-connection.replit.app";
-    // For local testing: use "http://10.0.2.2:5000" for Android emulator
-    // For production APK: use "https://red-velvet-connection.replit.app"
-    private ExecutorService executor;
+    private static final int HISTORY_PAGE_SIZE = 30;
+    private static final long AVATAR_DISK_CACHE_BYTES = 20L * 1024 * 1024;
+    private static final long HTTP_DISK_CACHE_BYTES = 5L * 1024 * 1024;
+    private static final long HTTP_MEMORY_CACHE_BYTES = 512L * 1024;
+    private static final long BALANCE_MAX_AGE_MS = 5000; // Serve cached balance younger than this
+    private static final long OUTBOX_RETRY_MIN_MS = 2000; // First retry after a drain stops; doubles up to the max
+    private static final long OUTBOX_RETRY_MAX_MS = 60000;
+    private static final int FLIGHT_RECORDER_EVENTS = 512;
+    
+    // Hot-path diagnostics; arguments are numbers so recording never builds a string
+    private static final FlightRecorder.Event SESSION_RESPONSE = FlightRecorder.event(FlightRecorder.Level.DEBUG, "session.response", "code", "chars");
+    private static final FlightRecorder.Event SESSION_READY = FlightRecorder.event(FlightRecorder.Level.INFO, "session.ready", "diamonds", "welcomed");
+    private static final FlightRecorder.Event SESSION_FAILED = FlightRecorder.event(FlightRecorder.Level.WARN, "session.failed", "code");
+    private static final FlightRecorder.Event NO_SESSION_COOKIE = FlightRecorder.event(FlightRecorder.Level.WARN, "request.noSessionCookie");
+    private static final FlightRecorder.Event CHAT_SEND = FlightRecorder.event(FlightRecorder.Level.DEBUG, "chat.send", "companion", "chars");
+    private static final FlightRecorder.Event CHAT_DELIVER = FlightRecorder.event(FlightRecorder.Level.DEBUG, "chat.deliver", "message", "companion");
+    private static final FlightRecorder.Event CHAT_REPLY = FlightRecorder.event(FlightRecorder.Level.INFO, "chat.reply", "code", "chars");
+    private static final FlightRecorder.Event CHAT_FAILED = FlightRecorder.event(FlightRecorder.Level.WARN, "chat.failed", "code");
+    private static final FlightRecorder.Event CHAT_QUEUED = FlightRecorder.event(FlightRecorder.Level.WARN, "chat.queued", "message");
+    private static final FlightRecorder.Event OUTBOX_DRAIN = FlightRecorder.event(FlightRecorder.Level.DEBUG, "outbox.drain", "pending");
+    private static final FlightRecorder.Event BALANCE_RESPONSE = FlightRecorder.event(FlightRecorder.Level.DEBUG, "balance.response", "code", "cbor");
+    private static final FlightRecorder.Event BALANCE_FAILED = FlightRecorder.event(FlightRecorder.Level.WARN, "balance.failed");
+    private static final FlightRecorder.Event NETWORK_STATE = FlightRecorder.event(FlightRecorder.Level.INFO, "network.state", "level", "transport");
+    private static final FlightRecorder.Event PUSH_STATE = FlightRecorder.event(FlightRecorder.Level.INFO, "push.state", "connected");
+    private static final FlightRecorder.Event SESSION_RESTORED = FlightRecorder.event(FlightRecorder.Level.INFO, "session.restored");
+    private static final FlightRecorder.Event SESSION_RENEW = FlightRecorder.event(FlightRecorder.Level.INFO, "session.renew", "replaced");
+    private static final FlightRecorder.Event SESSION_EXPIRED = FlightRecorder.event(FlightRecorder.Level.WARN, "session.expired");
+    private static final FlightRecorder.Event DIAMONDS_UPDATED = FlightRecorder.event(FlightRecorder.Level.DEBUG, "diamonds.updated", "count", "pending");
+    
+    // One per process, so the crash hook is installed once however often the Activity is recreated
+    private static FlightRecorder recorder;
+    private TaskScheduler scheduler;
+    private Executor interactiveExecutor; // Chat sends: the user is waiting on these
+    private Executor foregroundExecutor;  // Data for the screen being shown
+    private Executor backgroundExecutor;  // Write-behind and diagnostics; held back while a send is in flight
+    private GuestApiClient apiClient;
+    private SessionStore sessionStore; // Fingerprint and session cookie from earlier launches
+    private HttpCache httpCache; // GET responses, kept and revalidated as their Cache-Control allows
+    private DiamondBalanceRepository balanceRepository;
+    private DiamondLedger diamondLedger; // What the counters show: confirmed balance less unsettled messages
+    private ConnectivityMonitor connectivity; // System network callbacks; requests fail fast while it reports offline
+    private EventChannel serverEvents; // Pushed balance, purchase and expiry events; balance fetches are the fallback while it is down
+    private volatile StartupPipeline startup; // Kept so stages that failed for want of a network can run again
+    private ChatOutbox chatOutbox; // Unsent chat messages, persisted across process death
+    private ChatHistoryStore chatHistory; // Local transcripts; opening a chat or the history screen reads from here
+    private CompanionCatalog companionCatalog;
+    private AvatarLoader avatarLoader;
+    private List<GuestApiJson.Companion> companions; // Last rendered catalog, main thread only
+    private final AtomicBoolean outboxDraining = new AtomicBoolean(false);
+    private final AtomicBoolean outboxRetryScheduled = new AtomicBoolean(false);
+    private long outboxRetryMillis = OUTBOX_RETRY_MIN_MS; // Only touched by the drain that holds outboxDraining
+    private long queuedNoticeEntry = -1; // Last entry the "saved" notice was shown for; main thread only
     private Handler mainHandler;
+    private RequestScope activityScope; // Everything started by this Activity; cancelled in onDestroy
+    private RequestScope chatScope; // Transcript loads for the open chat; cancelled when the chat is left
+    private FrameCoalescer transcriptUpdates; // Transcript changes from workers, applied once per frame with one scroll
     private TextView statusText;
     private LinearLayout companionLayout;
-    private int diamondCount = 25;
-    private LinearLayout chatMessages;
+    private RecyclerView chatTranscript;
+    private ChatTranscriptAdapter transcriptAdapter;
     private EditText messageInput;
     private Button sendButton;
-    private ScrollView chatScrollView;
+    private long streamingMessageId = -1; // Transcript item of the live AI reply while a streamed response is arriving
+    private long historyCursor = ChatHistoryStore.LATEST; // Next older page of the open chat
     private int currentCompanionId = -1;
     private String currentCompanionName = "";
     private String guestSessionId = "";
-    private String sessionCookie = ""; // Store full session cookie for persistent sessions
+    private volatile boolean sessionReady = false; // Set once the startup session stage succeeds
     private String currentScreen = "home";
     private TextView diamondCounter;
     private LinearLayout mainContainer;
     private ScrollView contentScrollView;
     private LinearLayout contentLayout;
+    private final Map<String, View> screens = new HashMap<>(); // Bottom-nav screens, built on first show
+    private final Map<String, Button> navButtons = new HashMap<>();
+    private LinearLayout historyList;
+    private long shownHistoryVersion = -1;
+    private TextView premiumDiamondsText;
     private String deviceFingerprint = "";
     private String deviceId = "";
     
@@ -54,25 +126,60 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         
         Log.d(TAG, "RedVelvet - Complete GUI with Server Connection");
+        installFlightRecorder();
         
         // Initialize threading
-        executor = Executors.newFixedThreadPool(4);
+        scheduler = new TaskScheduler("RedVelvet");
+        interactiveExecutor = scheduler.executor(TaskScheduler.Lane.INTERACTIVE);
+        foregroundExecutor = scheduler.executor(TaskScheduler.Lane.FOREGROUND);
+        backgroundExecutor = scheduler.executor(TaskScheduler.Lane.BACKGROUND);
         mainHandler = new Handler(Looper.getMainLooper());
-        
-        // Generate device fingerprint for diamond tracking
-        generateDeviceFingerprint();
-        
-        // Test network connectivity first
-        testNetworkConnectivity();
+        transcriptUpdates = new FrameCoalescer(this::scrollTranscriptToBottom);
+        
+        // Shared keep-alive client; session cookie is captured and replayed by the client.
+        // Bound to the Activity, so its in-flight calls are aborted when the Activity goes away.
+        // Origins come from the build (API_ENDPOINTS); requests go to the nearest healthy one.
+        activityScope = new RequestScope(new GuestApiClient(EndpointRouter.parse(BuildConfig.API_ENDPOINTS)), mainHandler);
+        apiClient = activityScope.client();
+        apiClient.setDefaultHeader("User-Agent", "RedVelvet-Android/1.0");
+        apiClient.setDefaultHeader("X-Platform", "android");
+        httpCache = new HttpCache(new File(getCacheDir(), "http"), HTTP_DISK_CACHE_BYTES, HTTP_MEMORY_CACHE_BYTES,
+            foregroundExecutor);
+        apiClient.setCache(httpCache);
+        sessionStore = new SessionStore(new File(getFilesDir(), "session"));
+        apiClient.setSessionHandler(new GuestSessionHandler());
+        balanceRepository = new DiamondBalanceRepository(foregroundExecutor, BALANCE_MAX_AGE_MS, this::loadDiamondCount);
+        diamondLedger = new DiamondLedger(25);
+        serverEvents = new EventChannel(apiClient, "/api/guest/events", new ServerEventListener());
+        connectivity = new ConnectivityMonitor(this, this::onConnectivityChanged);
+        apiClient.setNetworkState(connectivity);
+        connectivity.start();
+        chatOutbox = new ChatOutbox(new File(getFilesDir(), "chat_outbox.log"));
+        long launchedAtMillis = System.currentTimeMillis();
+        chatHistory = new ChatHistoryStore(new File(getFilesDir(), "chat_history"), backgroundExecutor);
+        companionCatalog = new CompanionCatalog(apiClient, new File(getCacheDir(), "companions.cache"));
+        avatarLoader = new AvatarLoader(apiClient, new AvatarDiskCache(new File(getCacheDir(), "avatars"), AVATAR_DISK_CACHE_BYTES),
+            foregroundExecutor, mainHandler);
         
         // Create interactive interface
         createInteractiveInterface();
         
-        // Initialize device session for diamond tracking
-        initializeDeviceSession();
-        
-        // Test server connection and sync diamonds
-        testServerConnection();
+        // Session acquisition gates every cookie-bearing startup call; the rest fan out in parallel
+        startup = new StartupPipeline(foregroundExecutor)
+            .add("identity", this::restoreIdentity)
+            // Deliveries settle debits, so the ones from the last run must be restored before any can go out
+            .add("ledger", () -> restoreQueuedDebits(launchedAtMillis))
+            .add("session", this::startSession, "identity", "ledger")
+            .add("serverStatus", backgroundExecutor, this::checkServerConnection, "session")
+            .add("catalogCache", this::showCachedCatalog)
+            .add("catalog", this::refreshCatalog, "catalogCache", "identity")
+            .add("outbox", interactiveExecutor, this::drainOutbox, "session")
+            .add("events", serverEvents::start, "session");
+        startup.start(results -> {
+            for (StartupPipeline.StageResult result : results) {
+                Log.d(TAG, "STARTUP - " + result);
+            }
+        });
     }
     
     private void createInteractiveInterface() {
@@ -105,12 +212,68 @@ public class MainActivity extends AppCompatActivity {
             // Create fixed bottom navigation bar
             LinearLayout bottomNav = createBottomNavigation();
             mainContainer.addView(bottomNav);
-            
-            setContentView(mainContainer);
         }
         
-        // Clear and rebuild content
-        contentLayout.removeAllViews();
+        // Back from a chat, or first launch: the cached screens are still in the container
+        setContentView(mainContainer);
+        showScreen(currentScreen);
+        
+        Log.d(TAG, "Complete RedVelvet interface created successfully");
+    }
+    
+    // Screens are built the first time they are shown and then only hidden and rebound
+    private void showScreen(String screen) {
+        currentScreen = screen;
+        View content = screens.get(screen);
+        if (content == null) {
+            content = buildScreen(screen);
+            screens.put(screen, content);
+            contentLayout.addView(content);
+        }
+        for (int i = 0; i < contentLayout.getChildCount(); i++) {
+            View child = contentLayout.getChildAt(i);
+            child.setVisibility(child == content ? View.VISIBLE : View.GONE);
+        }
+        bindScreen(screen);
+        updateNavigationButtons();
+    }
+    
+    private LinearLayout buildScreen(String screen) {
+        switch (screen) {
+            case "chats":
+                return createChatHistoryContent();
+            case "settings":
+                return createSettingsContent();
+            case "premium":
+                return createPremiumContent();
+            default:
+                return createHomeContent();
+        }
+    }
+    
+    // Refreshes only the parts of a cached screen that depend on changing local state; no network calls
+    private void bindScreen(String screen) {
+        switch (screen) {
+            case "chats":
+                long version = chatHistory.version();
+                if (version != shownHistoryVersion) {
+                    shownHistoryVersion = version;
+                    historyList.removeAllViews();
+                    loadChatHistoryList(historyList);
+                }
+                break;
+            case "premium":
+                premiumDiamondsText.setText("💎 Current Diamonds: " + diamondLedger.available());
+                break;
+            default:
+                break;
+        }
+        updateDiamondDisplay();
+    }
+    
+    private LinearLayout createHomeContent() {
+        LinearLayout screen = new LinearLayout(this);
+        screen.setOrientation(LinearLayout.VERTICAL);
         
         // Status section
         statusText = new TextView(this);
@@ -119,7 +282,7 @@ public class MainActivity extends AppCompatActivity {
         statusText.setTextSize(14);
         statusText.setGravity(Gravity.CENTER);
         statusText.setPadding(0, 0, 0, 20);
-        contentLayout.addView(statusText);
+        screen.addView(statusText);
         
         // Companions section
         TextView companionHeader = new TextView(this);
@@ -128,27 +291,62 @@ public class MainActivity extends AppCompatActivity {
         companionHeader.setTextSize(18);
         companionHeader.setGravity(Gravity.CENTER);
         companionHeader.setPadding(0, 0, 0, 20);
-        contentLayout.addView(companionHeader);
+        screen.addView(companionHeader);
         
         // Companion layout
         companionLayout = new LinearLayout(this);
         companionLayout.setOrientation(LinearLayout.VERTICAL);
-        contentLayout.addView(companionLayout);
-        
-        // Add default companions with profile images
-        addCompanionWithImage("👩 Sophia - The Passionate", "A caring soul with deep brown eyes", 1);
-        addCompanionWithImage("👩 Emma - The Caring", "Sweet and nurturing with a bright smile", 2);
-        addCompanionWithImage("👩 Isabella - The Confident", "Strong and independent with piercing green eyes", 3);
-        addCompanionWithImage("👨 James - The Romantic", "Charming gentleman with a warm heart", 4);
-        addCompanionWithImage("👩 Alexa - The Playful", "Fun-loving spirit with infectious laughter", 5);
+        screen.addView(companionLayout);
         
-        // Update navigation buttons
-        updateNavigationButtons();
-        
-        // Update diamond counter
-        updateDiamondCount();
-        
-        Log.d(TAG, "Complete RedVelvet interface created successfully");
+        // Companions come from the server catalog; the startup pipeline renders the cached copy first
+        if (companions != null) {
+            renderCompanions(companions);
+        }
+        return screen;
+    }
+    
+    private void showCachedCatalog() throws IOException {
+        List<GuestApiJson.Companion> cached = companionCatalog.loadCached();
+        if (cached != null) {
+            Log.d(TAG, "CATALOG - Rendering " + cached.size() + " cached companions");
+            activityScope.post(() -> renderCompanions(cached));
+        }
+    }
+    
+    private void refreshCatalog() throws IOException {
+        List<GuestApiJson.Companion> fresh;
+        try {
+            fresh = companionCatalog.refresh();
+        } catch (IOException e) {
+            Log.e(TAG, "CATALOG - Refresh failed: " + e.getMessage());
+            activityScope.post(() -> {
+                if (companions == null) {
+                    updateStatus("❌ Couldn't load companions");
+                }
+            });
+            throw e;
+        }
+        if (fresh == null) {
+            Log.d(TAG, "CATALOG - Unchanged (304)");
+            return;
+        }
+        Log.d(TAG, "CATALOG - Loaded " + fresh.size() + " companions from server");
+        activityScope.post(() -> renderCompanions(fresh));
+    }
+    
+    private void renderCompanions(List<GuestApiJson.Companion> catalog) {
+        companions = catalog;
+        if (companionLayout == null) {
+            return;
+        }
+        companionLayout.removeAllViews();
+        for (GuestApiJson.Companion companion : catalog) {
+            String emoji = "male".equalsIgnoreCase(companion.gender) ? "👨 " : "👩 ";
+            String name = companion.tagline.isEmpty()
+                ? emoji + companion.name
+                : emoji + companion.name + " - " + companion.tagline;
+            addCompanionWithImage(name, companion.description, companion.id, companion.imageUrl);
+        }
     }
     
     private LinearLayout createTopHeader() {
@@ -170,7 +368,7 @@ public class MainActivity extends AppCompatActivity {
         
         // Diamond counter
         diamondCounter = new TextView(this);
-        diamondCounter.setText("💎 " + diamondCount);
+        diamondCounter.setText("💎 " + diamondLedger.available());
         diamondCounter.setTextColor(0xFFFFFFFF);
         diamondCounter.setTextSize(16);
         diamondCounter.setGravity(Gravity.CENTER);
@@ -224,6 +422,7 @@ public class MainActivity extends AppCompatActivity {
     
     private Button createNavButton(String text, String screen) {
         Button button = new Button(this);
+        navButtons.put(screen, button);
         button.setText(text);
         button.setTextColor(currentScreen.equals(screen) ? 0xFFE91E63 : 0xAAFFFFFF);
         button.setTextSize(11);
@@ -283,66 +482,38 @@ public class MainActivity extends AppCompatActivity {
     }
     
     private void showHomeScreen() {
-        currentScreen = "home";
-        createInteractiveInterface();
-        testServerConnection();
+        showScreen("home");
     }
     
-    private void testServerConnection() {
-        // Test connection to server and update status
-        executor.execute(() -> {
-            try {
-                URL url = new URL(SERVER_URL + "/api/guest/session");
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("GET");
-                connection.setRequestProperty("User-Agent", "RedVelvet-Android/1.0");
-                connection.setRequestProperty("X-Device-Fingerprint", deviceFingerprint);
-                connection.setRequestProperty("X-Platform", "android");
-                connection.setConnectTimeout(5000);
-                connection.setReadTimeout(10000);
-                
-                int responseCode = connection.getResponseCode();
-                
-                mainHandler.post(() -> {
-                    if (responseCode == 200) {
-                        Log.d(TAG, "Server connection successful");
-                        updateDiamondCount();
-                    } else {
-                        Log.w(TAG, "Server connection failed: " + responseCode);
-                    }
-                });
-                
-                connection.disconnect();
-            } catch (Exception e) {
-                Log.e(TAG, "Server connection error: " + e.getMessage());
-                mainHandler.post(() -> {
-                    // Continue with offline functionality
-                });
+    private void checkServerConnection() throws IOException {
+        GuestApiClient.Response response = apiClient.get("/api/guest/session", GuestApiClient.Timeout.STATUS);
+        int responseCode = response.code;
+        
+        activityScope.post(() -> {
+            if (responseCode == 200) {
+                Log.d(TAG, "Server connection successful");
+                updateDiamondCount();
+            } else {
+                Log.w(TAG, "Server connection failed: " + responseCode);
             }
         });
     }
     
     private void showChatHistory() {
-        currentScreen = "chats";
-        createChatHistoryContent();
-        updateNavigationButtons();
+        showScreen("chats");
     }
     
     private void showSettings() {
-        currentScreen = "settings";
-        createSettingsContent();
-        updateNavigationButtons();
+        showScreen("settings");
     }
     
     private void showPremium() {
-        currentScreen = "premium";
-        createPremiumContent();
-        updateNavigationButtons();
+        showScreen("premium");
     }
     
-    private void createChatHistoryContent() {
-        // Clear and rebuild content
-        contentLayout.removeAllViews();
+    private LinearLayout createChatHistoryContent() {
+        LinearLayout screen = new LinearLayout(this);
+        screen.setOrientation(LinearLayout.VERTICAL);
         
         // Screen title
         TextView headerText = new TextView(this);
@@ -351,22 +522,62 @@ public class MainActivity extends AppCompatActivity {
         headerText.setTextSize(24);
         headerText.setGravity(Gravity.CENTER);
         headerText.setPadding(0, 0, 0, 30);
-        contentLayout.addView(headerText);
+        screen.addView(headerText);
         
-        // Recent chats with profile images
-        addChatHistoryItemWithImage(contentLayout, "👩 Sophia", "Hey there! How was your day?", "2 hours ago");
-        addChatHistoryItemWithImage(contentLayout, "👩 Emma", "I missed talking with you!", "Yesterday");
-        addChatHistoryItemWithImage(contentLayout, "👩 Isabella", "You always make me smile 😊", "2 days ago");
-        addChatHistoryItemWithImage(contentLayout, "👨 James", "Looking forward to our next chat", "3 days ago");
-        addChatHistoryItemWithImage(contentLayout, "👩 Alexa", "Ready for some fun? 😉", "1 week ago");
+        // Recent chats from the local history store; bindScreen fills it in
+        historyList = new LinearLayout(this);
+        historyList.setOrientation(LinearLayout.VERTICAL);
+        screen.addView(historyList);
         
         // Clear history button
         Button clearButton = new Button(this);
         clearButton.setText("Clear All History");
         clearButton.setBackgroundColor(0x88FF0000);
         clearButton.setTextColor(0xFFFFFFFF);
-        clearButton.setOnClickListener(v -> updateStatus("Chat history cleared!"));
-        contentLayout.addView(clearButton);
+        clearButton.setOnClickListener(v -> foregroundExecutor.execute(() -> {
+            chatHistory.clear();
+            activityScope.post(() -> {
+                bindScreen(currentScreen);
+                updateStatus("Chat history cleared!");
+            });
+        }));
+        screen.addView(clearButton);
+        return screen;
+    }
+    
+    private void loadChatHistoryList(LinearLayout historyList) {
+        foregroundExecutor.execute(() -> {
+            List<ChatHistoryStore.Conversation> conversations;
+            try {
+                conversations = chatHistory.conversations();
+            } catch (IOException e) {
+                Log.e(TAG, "CHAT HISTORY - Could not read conversations: " + e.getMessage());
+                return;
+            }
+            activityScope.post(() -> {
+                if (!"chats".equals(currentScreen)) {
+                    return;
+                }
+                if (conversations.isEmpty()) {
+                    TextView emptyText = new TextView(this);
+                    emptyText.setText("No conversations yet. Pick a companion to start chatting!");
+                    emptyText.setTextColor(0xFFFFFFFF);
+                    emptyText.setTextSize(14);
+                    emptyText.setGravity(Gravity.CENTER);
+                    emptyText.setPadding(0, 20, 0, 30);
+                    historyList.addView(emptyText);
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                for (ChatHistoryStore.Conversation conversation : conversations) {
+                    String time = DateUtils.getRelativeTimeSpanString(conversation.lastMessage.timestampMillis,
+                        now, DateUtils.MINUTE_IN_MILLIS).toString();
+                    View item = addChatHistoryItemWithImage(historyList, conversation.title,
+                        conversation.lastMessage.text, time, avatarUrlFor(conversation.companionId));
+                    item.setOnClickListener(v -> selectCompanion(conversation.companionId, conversation.title));
+                }
+            });
+        });
     }
     
     private void addChatHistoryItem(LinearLayout parent, String companionName, String lastMessage, String time) {
@@ -404,9 +615,9 @@ public class MainActivity extends AppCompatActivity {
         parent.addView(chatItem);
     }
     
-    private void createSettingsContent() {
-        // Clear and rebuild content
-        contentLayout.removeAllViews();
+    private LinearLayout createSettingsContent() {
+        LinearLayout screen = new LinearLayout(this);
+        screen.setOrientation(LinearLayout.VERTICAL);
         
         // Screen title
         TextView headerText = new TextView(this);
@@ -415,34 +626,37 @@ public class MainActivity extends AppCompatActivity {
         headerText.setTextSize(24);
         headerText.setGravity(Gravity.CENTER);
         headerText.setPadding(0, 0, 0, 30);
-        contentLayout.addView(headerText);
+        screen.addView(headerText);
         
         // Profile section with image
-        addSettingsSection(contentLayout, "👤 Profile");
-        addProfileSection(contentLayout);
+        addSettingsSection(screen, "👤 Profile");
+        addProfileSection(screen);
         
         // Preferences section
-        addSettingsSection(contentLayout, "💖 Preferences");
-        addClickableSettingsItem(contentLayout, "Companion Gender", "Both Male & Female", "gender");
-        addClickableSettingsItem(contentLayout, "Conversation Style", "Romantic & Caring", "style");
-        addClickableSettingsItem(contentLayout, "Language", "English", "language");
+        addSettingsSection(screen, "💖 Preferences");
+        addClickableSettingsItem(screen, "Companion Gender", "Both Male & Female", "gender");
+        addClickableSettingsItem(screen, "Conversation Style", "Romantic & Caring", "style");
+        addClickableSettingsItem(screen, "Language", "English", "language");
         
         // App section
-        addSettingsSection(contentLayout, "📱 App Settings");
-        addClickableSettingsItem(contentLayout, "Notifications", "Enabled", "notifications");
-        addClickableSettingsItem(contentLayout, "Dark Mode", "Disabled", "darkmode");
-        addClickableSettingsItem(contentLayout, "Chat Backup", "Auto-save conversations", "backup");
+        addSettingsSection(screen, "📱 App Settings");
+        addClickableSettingsItem(screen, "Notifications", "Enabled", "notifications");
+        addClickableSettingsItem(screen, "Dark Mode", "Disabled", "darkmode");
+        addClickableSettingsItem(screen, "Chat Backup", "Auto-save conversations", "backup");
         
         // About section
-        addSettingsSection(contentLayout, "ℹ️ About");
-        addSettingsItem(contentLayout, "Version", "RedVelvet Mobile v1.0");
-        addClickableSettingsItem(contentLayout, "Privacy Policy", "View our privacy commitment", "privacy");
-        addClickableSettingsItem(contentLayout, "Terms of Service", "Read terms and conditions", "terms");
+        addSettingsSection(screen, "ℹ️ About");
+        addSettingsItem(screen, "Version", "RedVelvet Mobile v1.0");
+        addClickableSettingsItem(screen, "Network Stats", "Response times since launch", "netstats");
+        addClickableSettingsItem(screen, "Diagnostics", "Save recent app events", "diagnostics");
+        addClickableSettingsItem(screen, "Privacy Policy", "View our privacy commitment", "privacy");
+        addClickableSettingsItem(screen, "Terms of Service", "Read terms and conditions", "terms");
+        return screen;
     }
     
-    private void createPremiumContent() {
-        // Clear and rebuild content
-        contentLayout.removeAllViews();
+    private LinearLayout createPremiumContent() {
+        LinearLayout screen = new LinearLayout(this);
+        screen.setOrientation(LinearLayout.VERTICAL);
         
         // Screen title
         TextView headerText = new TextView(this);
@@ -451,75 +665,62 @@ public class MainActivity extends AppCompatActivity {
         headerText.setTextSize(24);
         headerText.setGravity(Gravity.CENTER);
         headerText.setPadding(0, 0, 0, 30);
-        contentLayout.addView(headerText);
+        screen.addView(headerText);
         
-        // Current diamonds
-        TextView diamondsText = new TextView(this);
-        diamondsText.setText("💎 Current Diamonds: " + diamondCount);
-        diamondsText.setTextColor(0xFFFFFFFF);
-        diamondsText.setTextSize(18);
-        diamondsText.setGravity(Gravity.CENTER);
-        diamondsText.setPadding(0, 0, 0, 30);
-        contentLayout.addView(diamondsText);
+        // Current diamonds; bindScreen keeps it in step with the balance
+        premiumDiamondsText = new TextView(this);
+        premiumDiamondsText.setTextColor(0xFFFFFFFF);
+        premiumDiamondsText.setTextSize(18);
+        premiumDiamondsText.setGravity(Gravity.CENTER);
+        premiumDiamondsText.setPadding(0, 0, 0, 30);
+        screen.addView(premiumDiamondsText);
         
         // Diamond packages
-        addPremiumPackage("Starter Pack", "💎 100 Diamonds", "$2.99", "Perfect for getting started");
-        addPremiumPackage("Popular Pack", "💎 500 Diamonds", "$9.99", "Most popular choice");
-        addPremiumPackage("Premium Pack", "💎 1000 Diamonds", "$14.99", "Best value for money");
-        addPremiumPackage("Ultimate Pack", "💎 2500 Diamonds", "$19.99", "Maximum savings");
+        addPremiumPackage(screen, "Starter Pack", "💎 100 Diamonds", "$2.99", "Perfect for getting started");
+        addPremiumPackage(screen, "Popular Pack", "💎 500 Diamonds", "$9.99", "Most popular choice");
+        addPremiumPackage(screen, "Premium Pack", "💎 1000 Diamonds", "$14.99", "Best value for money");
+        addPremiumPackage(screen, "Ultimate Pack", "💎 2500 Diamonds", "$19.99", "Maximum savings");
         
         // Monthly subscription
-        addSubscriptionPackage("Monthly Premium", "Unlimited Diamonds", "$14.99/month", "Cancel anytime");
+        addSubscriptionPackage(screen, "Monthly Premium", "Unlimited Diamonds", "$14.99/month", "Cancel anytime");
+        return screen;
     }
     
     private void updateNavigationButtons() {
-        // This method will be called to refresh navigation button states
-        // The createBottomNavigation method handles the button creation
+        for (Map.Entry<String, Button> entry : navButtons.entrySet()) {
+            boolean selected = currentScreen.equals(entry.getKey());
+            entry.getValue().setTextColor(selected ? 0xFFE91E63 : 0xAAFFFFFF);
+            entry.getValue().setBackgroundColor(selected ? 0x44FFFFFF : 0x00000000);
+        }
         Log.d(TAG, "Navigation updated for screen: " + currentScreen);
     }
     
     private void updateDiamondCount() {
-        // Make API call to get current diamond count
-        executor.execute(() -> {
-            try {
-                URL url = new URL(SERVER_URL + "/api/guest/diamonds");
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("GET");
-                conn.setRequestProperty("User-Agent", "RedVelvet-Android");
-                
-                int responseCode = conn.getResponseCode();
-                if (responseCode == 200) {
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-                    String line;
-                    StringBuilder response = new StringBuilder();
-                    while ((line = reader.readLine()) != null) {
-                        response.append(line);
-                    }
-                    reader.close();
-                    
-                    // Parse diamond count from response
-                    String responseStr = response.toString();
-                    if (responseStr.contains("\"diamonds\":")) {
-                        String diamondStr = responseStr.substring(responseStr.indexOf("\"diamonds\":") + 11);
-                        diamondStr = diamondStr.substring(0, diamondStr.indexOf("}"));
-                        diamondCount = Integer.parseInt(diamondStr);
-                        
-                        mainHandler.post(() -> {
-                            if (diamondCounter != null) {
-                                diamondCounter.setText("💎 " + diamondCount);
-                            }
-                            Log.d(TAG, "Diamond count updated: " + diamondCount);
-                        });
+        if (serverEvents.isConnected()) {
+            updateDiamondDisplay(); // Pushed balances are already in the ledger
+            return;
+        }
+        // Shared single-flight fetch; concurrent callers collapse into one request
+        balanceRepository.get(new DiamondBalanceRepository.Callback() {
+            @Override
+            public void onBalance(int diamonds) {
+                // The loader has already reconciled the ledger; a cache hit changes nothing
+                activityScope.post(() -> {
+                    if (diamondCounter != null) {
+                        diamondCounter.setText("💎 " + diamondLedger.available());
                     }
-                }
-                conn.disconnect();
-            } catch (Exception e) {
+                    Log.d(TAG, "Diamond count updated: " + diamondLedger.available());
+                });
+            }
+            
+            @Override
+            public void onError(Exception e) {
                 Log.e(TAG, "Error updating diamond count: " + e.getMessage());
             }
         });
     }
     
-    private void addCompanionWithImage(String name, String description, int companionId) {
+    private void addCompanionWithImage(String name, String description, int companionId, String imageUrl) {
         LinearLayout companionCard = new LinearLayout(this);
         companionCard.setOrientation(LinearLayout.HORIZONTAL);
         companionCard.setBackgroundColor(0x88FFFFFF);
@@ -532,13 +733,8 @@ public class MainActivity extends AppCompatActivity {
         params.setMargins(0, 0, 0, 10);
         companionCard.setLayoutParams(params);
         
-        // Profile image placeholder
-        TextView profileImage = new TextView(this);
-        profileImage.setText(name.substring(0, 2)); // Get emoji
-        profileImage.setTextSize(32);
-        profileImage.setGravity(Gravity.CENTER);
-        profileImage.setBackgroundColor(0x44FFFFFF);
-        profileImage.setPadding(20, 15, 20, 15);
+        // Profile image: emoji placeholder until the portrait is decoded
+        FrameLayout profileImage = createAvatarView(name.substring(0, 2), 32, 80, imageUrl);
         
         LinearLayout.LayoutParams imageParams = new LinearLayout.LayoutParams(80, 80);
         imageParams.setMargins(0, 0, 15, 0);
@@ -577,7 +773,7 @@ public class MainActivity extends AppCompatActivity {
         companionLayout.addView(companionCard);
     }
     
-    private void addChatHistoryItemWithImage(LinearLayout parent, String companionName, String lastMessage, String time) {
+    private View addChatHistoryItemWithImage(LinearLayout parent, String companionName, String lastMessage, String time, String imageUrl) {
         LinearLayout chatItem = new LinearLayout(this);
         chatItem.setOrientation(LinearLayout.HORIZONTAL);
         chatItem.setBackgroundColor(0x88FFFFFF);
@@ -591,12 +787,7 @@ public class MainActivity extends AppCompatActivity {
         chatItem.setLayoutParams(params);
         
         // Profile image
-        TextView profileImage = new TextView(this);
-        profileImage.setText(companionName.substring(0, 2)); // Get emoji
-        profileImage.setTextSize(24);
-        profileImage.setGravity(Gravity.CENTER);
-        profileImage.setBackgroundColor(0x44FFFFFF);
-        profileImage.setPadding(15, 10, 15, 10);
+        FrameLayout profileImage = createAvatarView(companionName.substring(0, 2), 24, 60, imageUrl);
         
         LinearLayout.LayoutParams imageParams = new LinearLayout.LayoutParams(60, 60);
         imageParams.setMargins(0, 0, 15, 0);
@@ -630,6 +821,40 @@ public class MainActivity extends AppCompatActivity {
         
         chatItem.addView(messageLayout);
         parent.addView(chatItem);
+        return chatItem;
+    }
+    
+    // Emoji placeholder with the portrait layered on top once the avatar loader delivers it
+    private FrameLayout createAvatarView(String emoji, int textSize, int sizePx, String imageUrl) {
+        FrameLayout avatar = new FrameLayout(this);
+        avatar.setBackgroundColor(0x44FFFFFF);
+        
+        TextView placeholder = new TextView(this);
+        placeholder.setText(emoji);
+        placeholder.setTextSize(textSize);
+        placeholder.setGravity(Gravity.CENTER);
+        avatar.addView(placeholder, new FrameLayout.LayoutParams(
+            ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        
+        if (imageUrl != null && !imageUrl.isEmpty()) {
+            ImageView portrait = new ImageView(this);
+            portrait.setScaleType(ImageView.ScaleType.CENTER_CROP);
+            avatar.addView(portrait, new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+            avatarLoader.load(imageUrl, portrait, sizePx, sizePx);
+        }
+        return avatar;
+    }
+    
+    private String avatarUrlFor(int companionId) {
+        if (companions != null) {
+            for (GuestApiJson.Companion companion : companions) {
+                if (companion.id == companionId) {
+                    return companion.imageUrl;
+                }
+            }
+        }
+        return null;
     }
     
     private void addProfileSection(LinearLayout parent) {
@@ -672,7 +897,7 @@ public class MainActivity extends AppCompatActivity {
         infoLayout.addView(nameText);
         
         TextView statusText = new TextView(this);
-        statusText.setText("💎 " + diamondCount + " Diamonds");
+        statusText.setText("💎 " + diamondLedger.available() + " Diamonds");
         statusText.setTextColor(0xFF666666);
         statusText.setTextSize(14);
         infoLayout.addView(statusText);
@@ -717,7 +942,7 @@ public class MainActivity extends AppCompatActivity {
         parent.addView(settingItem);
     }
     
-    private void addPremiumPackage(String title, String diamonds, String price, String description) {
+    private void addPremiumPackage(LinearLayout parent, String title, String diamonds, String price, String description) {
         LinearLayout packageCard = new LinearLayout(this);
         packageCard.setOrientation(LinearLayout.VERTICAL);
         packageCard.setBackgroundColor(0x88FFFFFF);
@@ -768,10 +993,10 @@ public class MainActivity extends AppCompatActivity {
         buyButton.setOnClickListener(v -> updateStatus("Purchase feature coming soon!"));
         packageCard.addView(buyButton);
         
-        contentLayout.addView(packageCard);
+        parent.addView(packageCard);
     }
     
-    private void addSubscriptionPackage(String title, String diamonds, String price, String description) {
+    private void addSubscriptionPackage(LinearLayout parent, String title, String diamonds, String price, String description) {
         LinearLayout packageCard = new LinearLayout(this);
         packageCard.setOrientation(LinearLayout.VERTICAL);
         packageCard.setBackgroundColor(0x88FFD700);
@@ -822,7 +1047,7 @@ public class MainActivity extends AppCompatActivity {
         subscribeButton.setOnClickListener(v -> updateStatus("Subscription feature coming soon!"));
         packageCard.addView(subscribeButton);
         
-        contentLayout.addView(packageCard);
+        parent.addView(packageCard);
     }
     
     private void handleSettingClick(String action, String title) {
@@ -851,11 +1076,37 @@ public class MainActivity extends AppCompatActivity {
             case "terms":
                 updateStatus("Terms of Service: View at redvelvet.com/terms");
                 break;
+            case "netstats":
+                showNetworkStats();
+                break;
+            case "diagnostics":
+                File dumpFile = new File(getFilesDir(), "flight_recorder.txt");
+                backgroundExecutor.execute(() -> {
+                    dumpFlightRecorder(dumpFile);
+                    updateStatus("Diagnostics saved");
+                });
+                break;
             default:
                 updateStatus("Settings option: " + title);
         }
     }
     
+    // Median and p99 time to first byte in the status line; the full histograms go to the log
+    private void showNetworkStats() {
+        EndpointMetrics metrics = apiClient.metrics();
+        Log.d(TAG, "NETWORK STATS - " + metrics.snapshot());
+        StringBuilder summary = new StringBuilder("Response p50/p99:");
+        for (String endpoint : new String[] {"/api/guest/session", "/api/guest/chat", "/api/guest/diamonds"}) {
+            LatencyHistogram ttfb = metrics.get(endpoint, EndpointMetrics.Phase.FIRST_BYTE);
+            if (ttfb.count() > 0) {
+                summary.append(' ').append(endpoint.substring(endpoint.lastIndexOf('/') + 1))
+                    .append(' ').append(ttfb.percentile(50) / 1000)
+                    .append('/').append(ttfb.percentile(99) / 1000).append("ms");
+            }
+        }
+        updateStatus(summary.toString());
+    }
+    
     private void addSettingsSection(LinearLayout parent, String title) {
         TextView sectionTitle = new TextView(this);
         sectionTitle.setText(title);
@@ -895,226 +1146,6 @@ public class MainActivity extends AppCompatActivity {
         parent.addView(settingItem);
     }
     
-    private void createPremiumScreen() {
-        // Create main container with fixed header/footer layout
-        LinearLayout mainContainer = new LinearLayout(this);
-        mainContainer.setOrientation(LinearLayout.VERTICAL);
-        mainContainer.setBackgroundColor(0xFFE91E63);
-        
-        // Create fixed top header bar
-        LinearLayout topHeader = createTopHeader();
-        mainContainer.addView(topHeader);
-        
-        // Create scrollable content area
-        ScrollView scrollView = new ScrollView(this);
-        LinearLayout contentLayout = new LinearLayout(this);
-        contentLayout.setOrientation(LinearLayout.VERTICAL);
-        contentLayout.setPadding(20, 20, 20, 20);
-        
-        // Screen title
-        TextView headerText = new TextView(this);
-        headerText.setText("👑 Premium Features");
-        headerText.setTextColor(0xFFFFFFFF);
-        headerText.setTextSize(24);
-        headerText.setGravity(Gravity.CENTER);
-        headerText.setPadding(0, 0, 0, 20);
-        contentLayout.addView(headerText);
-        
-        TextView subText = new TextView(this);
-        subText.setText("Unlock unlimited conversations and exclusive companions!");
-        subText.setTextColor(0xFFFFFFFF);
-        subText.setTextSize(16);
-        subText.setGravity(Gravity.CENTER);
-        subText.setPadding(0, 0, 0, 30);
-        contentLayout.addView(subText);
-        
-        // Current status
-        TextView statusText = new TextView(this);
-        statusText.setText("Current: Guest User\n💎 " + diamondCount + " Diamonds Remaining");
-        statusText.setTextColor(0xFFFFFFFF);
-        statusText.setTextSize(14);
-        statusText.setGravity(Gravity.CENTER);
-        statusText.setBackgroundColor(0x44000000);
-        statusText.setPadding(20, 15, 20, 15);
-        contentLayout.addView(statusText);
-        
-        // Diamond packages
-        TextView diamondHeader = new TextView(this);
-        diamondHeader.setText("💎 Buy Diamonds");
-        diamondHeader.setTextColor(0xFFFFFFFF);
-        diamondHeader.setTextSize(20);
-        diamondHeader.setTypeface(null, android.graphics.Typeface.BOLD);
-        diamondHeader.setPadding(0, 30, 0, 15);
-        contentLayout.addView(diamondHeader);
-        
-        addDiamondPackage(contentLayout, "Starter Pack", "100 Diamonds", "$2.99", "Perfect for trying out premium features");
-        addDiamondPackage(contentLayout, "Popular Pack", "500 Diamonds", "$9.99", "Great value for regular users");
-        addDiamondPackage(contentLayout, "Premium Pack", "1200 Diamonds", "$19.99", "Best value for power users");
-        
-        // Subscription
-        TextView subHeader = new TextView(this);
-        subHeader.setText("🔄 Monthly Subscription");
-        subHeader.setTextColor(0xFFFFFFFF);
-        subHeader.setTextSize(20);
-        subHeader.setTypeface(null, android.graphics.Typeface.BOLD);
-        subHeader.setPadding(0, 30, 0, 15);
-        contentLayout.addView(subHeader);
-        
-        addSubscriptionPlan(contentLayout, "Premium Monthly", "$14.99/month", "✅ Unlimited messages\n✅ All companions\n✅ Priority support\n✅ No ads");
-        
-        // Features section
-        TextView featuresHeader = new TextView(this);
-        featuresHeader.setText("🌟 Premium Benefits");
-        featuresHeader.setTextColor(0xFFFFFFFF);
-        featuresHeader.setTextSize(20);
-        featuresHeader.setTypeface(null, android.graphics.Typeface.BOLD);
-        featuresHeader.setPadding(0, 30, 0, 15);
-        contentLayout.addView(featuresHeader);
-        
-        addFeatureItem(contentLayout, "🔓 Unlock All Companions", "Access to exclusive premium companions");
-        addFeatureItem(contentLayout, "📱 Image Generation", "Generate custom companion photos");
-        addFeatureItem(contentLayout, "💬 Unlimited Messages", "No diamond restrictions");
-        addFeatureItem(contentLayout, "⚡ Priority Responses", "Faster AI response times");
-        addFeatureItem(contentLayout, "🎨 Customization", "Personalize companion appearance");
-        
-        scrollView.addView(contentLayout);
-        
-        // Set scroll view to fill remaining space
-        LinearLayout.LayoutParams scrollParams = new LinearLayout.LayoutParams(
-            LinearLayout.LayoutParams.MATCH_PARENT, 0, 1);
-        scrollView.setLayoutParams(scrollParams);
-        mainContainer.addView(scrollView);
-        
-        // Create fixed bottom navigation bar
-        LinearLayout bottomNav = createBottomNavigation();
-        mainContainer.addView(bottomNav);
-        
-        setContentView(mainContainer);
-    }
-    
-    private void addDiamondPackage(LinearLayout parent, String title, String diamonds, String price, String description) {
-        LinearLayout packageItem = new LinearLayout(this);
-        packageItem.setOrientation(LinearLayout.VERTICAL);
-        packageItem.setBackgroundColor(0x88FFFFFF);
-        packageItem.setPadding(20, 15, 20, 15);
-        
-        LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(
-            LinearLayout.LayoutParams.MATCH_PARENT,
-            LinearLayout.LayoutParams.WRAP_CONTENT
-        );
-        params.setMargins(0, 0, 0, 10);
-        packageItem.setLayoutParams(params);
-        
-        LinearLayout headerLayout = new LinearLayout(this);
-        headerLayout.setOrientation(LinearLayout.HORIZONTAL);
-        
-        TextView titleText = new TextView(this);
-        titleText.setText(title + " - " + diamonds);
-        titleText.setTextColor(0xFFE91E63);
-        titleText.setTextSize(16);
-        titleText.setTypeface(null, android.graphics.Typeface.BOLD);
-        headerLayout.addView(titleText);
-        
-        TextView priceText = new TextView(this);
-        priceText.setText(price);
-        priceText.setTextColor(0xFF00AA00);
-        priceText.setTextSize(16);
-        priceText.setTypeface(null, android.graphics.Typeface.BOLD);
-        priceText.setGravity(Gravity.END);
-        LinearLayout.LayoutParams priceParams = new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT, 1);
-        priceText.setLayoutParams(priceParams);
-        headerLayout.addView(priceText);
-        
-        packageItem.addView(headerLayout);
-        
-        TextView descText = new TextView(this);
-        descText.setText(description);
-        descText.setTextColor(0xFF666666);
-        descText.setTextSize(14);
-        packageItem.addView(descText);
-        
-        Button buyButton = new Button(this);
-        buyButton.setText("Purchase");
-        buyButton.setBackgroundColor(0xFFE91E63);
-        buyButton.setTextColor(0xFFFFFFFF);
-        buyButton.setOnClickListener(v -> updateStatus("Purchase initiated for " + title));
-        packageItem.addView(buyButton);
-        
-        parent.addView(packageItem);
-    }
-    
-    private void addSubscriptionPlan(LinearLayout parent, String title, String price, String features) {
-        LinearLayout planItem = new LinearLayout(this);
-        planItem.setOrientation(LinearLayout.VERTICAL);
-        planItem.setBackgroundColor(0x88FFD700);
-        planItem.setPadding(20, 15, 20, 15);
-        
-        LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(
-            LinearLayout.LayoutParams.MATCH_PARENT,
-            LinearLayout.LayoutParams.WRAP_CONTENT
-        );
-        params.setMargins(0, 0, 0, 10);
-        planItem.setLayoutParams(params);
-        
-        TextView titleText = new TextView(this);
-        titleText.setText(title);
-        titleText.setTextColor(0xFFE91E63);
-        titleText.setTextSize(18);
-        titleText.setTypeface(null, android.graphics.Typeface.BOLD);
-        planItem.addView(titleText);
-        
-        TextView priceText = new TextView(this);
-        priceText.setText(price);
-        priceText.setTextColor(0xFF00AA00);
-        priceText.setTextSize(16);
-        priceText.setTypeface(null, android.graphics.Typeface.BOLD);
-        planItem.addView(priceText);
-        
-        TextView featuresText = new TextView(this);
-        featuresText.setText(features);
-        featuresText.setTextColor(0xFF333333);
-        featuresText.setTextSize(14);
-        planItem.addView(featuresText);
-        
-        Button subscribeButton = new Button(this);
-        subscribeButton.setText("Subscribe Now");
-        subscribeButton.setBackgroundColor(0xFFE91E63);
-        subscribeButton.setTextColor(0xFFFFFFFF);
-        subscribeButton.setOnClickListener(v -> updateStatus("Subscription initiated for " + title));
-        planItem.addView(subscribeButton);
-        
-        parent.addView(planItem);
-    }
-    
-    private void addFeatureItem(LinearLayout parent, String title, String description) {
-        LinearLayout featureItem = new LinearLayout(this);
-        featureItem.setOrientation(LinearLayout.VERTICAL);
-        featureItem.setBackgroundColor(0x44FFFFFF);
-        featureItem.setPadding(15, 10, 15, 10);
-        
-        LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(
-            LinearLayout.LayoutParams.MATCH_PARENT,
-            LinearLayout.LayoutParams.WRAP_CONTENT
-        );
-        params.setMargins(0, 0, 0, 5);
-        featureItem.setLayoutParams(params);
-        
-        TextView titleText = new TextView(this);
-        titleText.setText(title);
-        titleText.setTextColor(0xFFFFFFFF);
-        titleText.setTextSize(16);
-        titleText.setTypeface(null, android.graphics.Typeface.BOLD);
-        featureItem.addView(titleText);
-        
-        TextView descText = new TextView(this);
-        descText.setText(description);
-        descText.setTextColor(0xFFCCCCCC);
-        descText.setTextSize(14);
-        featureItem.addView(descText);
-        
-        parent.addView(featureItem);
-    }
-    
     private void addCompanionButton(String text, int companionId) {
         Button companionButton = new Button(this);
         companionButton.setText(text);
@@ -1149,7 +1180,7 @@ public class MainActivity extends AppCompatActivity {
     }
     
     private void updateStatus(String message) {
-        mainHandler.post(new Runnable() {
+        activityScope.post(new Runnable() {
             @Override
             public void run() {
                 statusText.setText(message);
@@ -1157,12 +1188,38 @@ public class MainActivity extends AppCompatActivity {
         });
     }
     
-    private void generateDeviceFingerprint() {
+    // Release builds keep INFO and above; the buffer is written out if the process crashes
+    private void installFlightRecorder() {
+        if (recorder != null) {
+            return;
+        }
+        boolean debuggable = (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        recorder = new FlightRecorder(FLIGHT_RECORDER_EVENTS, debuggable ? FlightRecorder.Level.DEBUG : FlightRecorder.Level.INFO);
+        File dumpFile = new File(getFilesDir(), "flight_recorder.txt");
+        Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> {
+            dumpFlightRecorder(dumpFile);
+            if (previous != null) {
+                previous.uncaughtException(thread, e);
+            }
+        });
+    }
+    
+    // Writes the recorded events to logcat and to the dump file
+    private static void dumpFlightRecorder(File dumpFile) {
+        try (Writer out = new FileWriter(dumpFile)) {
+            StringWriter text = new StringWriter();
+            recorder.dump(text);
+            out.write(text.toString());
+            Log.e(TAG, "FLIGHT RECORDER\n" + text);
+        } catch (IOException e) {
+            Log.e(TAG, "FLIGHT RECORDER - Could not write dump: " + e.getMessage());
+        }
+    }
+    
+    // Derived once per install; restoreIdentity() keeps it in the session store
+    private String generateDeviceFingerprint() {
         try {
-            // Generate unique device fingerprint using device info
-            android.provider.Settings.Secure.getString(getContentResolver(), 
-                android.provider.Settings.Secure.ANDROID_ID);
-            
             // Create fingerprint from multiple device characteristics
             String androidId = android.provider.Settings.Secure.getString(getContentResolver(), 
                 android.provider.Settings.Secure.ANDROID_ID);
@@ -1171,96 +1228,157 @@ public class MainActivity extends AppCompatActivity {
             String brand = android.os.Build.BRAND;
             
             String rawFingerprint = androidId + "_" + model + "_" + manufacturer + "_" + brand;
-            deviceFingerprint = android.util.Base64.encodeToString(rawFingerprint.getBytes(), 
+            String fingerprint = android.util.Base64.encodeToString(rawFingerprint.getBytes(), 
                 android.util.Base64.NO_WRAP);
-            deviceId = deviceFingerprint;
             
-            Log.d(TAG, "Generated device fingerprint: " + deviceFingerprint.substring(0, 8) + "...");
+            Log.d(TAG, "Generated device fingerprint: " + fingerprint.substring(0, 8) + "...");
+            return fingerprint;
             
         } catch (Exception e) {
             Log.e(TAG, "Error generating device fingerprint: " + e.getMessage());
             // Fallback to simple fingerprint
-            deviceFingerprint = "android_" + System.currentTimeMillis();
-            deviceId = deviceFingerprint;
+            return "android_" + System.currentTimeMillis();
         }
     }
     
-    private void initializeDeviceSession() {
-        Log.d(TAG, "Initializing device session for diamond tracking");
+    // Startup "identity" stage: disk only, and ahead of every call that carries the cookie or fingerprint
+    private void restoreIdentity() {
+        String fingerprint = sessionStore.fingerprint();
+        if (fingerprint.isEmpty()) {
+            fingerprint = generateDeviceFingerprint();
+            try {
+                sessionStore.saveFingerprint(fingerprint);
+            } catch (IOException e) {
+                Log.e(TAG, "SESSION - Could not store fingerprint: " + e.getMessage());
+            }
+        }
+        deviceFingerprint = fingerprint;
+        deviceId = fingerprint;
+        apiClient.setDefaultHeader("X-Device-Fingerprint", fingerprint);
         
-        executor.execute(() -> {
+        String timings = sessionStore.timeouts();
+        if (!timings.isEmpty()) {
             try {
-                // CRITICAL FIX: Use guest session instead of device session to avoid conflicts
-                URL url = new URL(SERVER_URL + "/api/guest/session");
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("GET");
-                connection.setRequestProperty("User-Agent", "RedVelvet-Android/1.0");
-                connection.setRequestProperty("X-Device-Fingerprint", deviceFingerprint);
-                connection.setRequestProperty("X-Platform", "android");
-                connection.setConnectTimeout(5000);
-                connection.setReadTimeout(5000);
-                
-                int responseCode = connection.getResponseCode();
-                Log.d(TAG, "UNIFIED SESSION - Response code: " + responseCode);
-                
-                // CRITICAL: Extract session cookie from Set-Cookie header
-                String setCookieHeader = connection.getHeaderField("Set-Cookie");
-                if (setCookieHeader != null) {
-                    // Extract connect.sid cookie value
-                    if (setCookieHeader.contains("connect.sid=")) {
-                        sessionCookie = setCookieHeader.split(";")[0]; // Get "connect.sid=VALUE"
-                        Log.d(TAG, "UNIFIED SESSION - Captured session cookie: " + sessionCookie.substring(0, Math.min(20, sessionCookie.length())) + "...");
-                    }
-                }
-                
-                if (responseCode == 200) {
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                    StringBuilder response = new StringBuilder();
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        response.append(line);
-                    }
-                    reader.close();
-                    
-                    String responseText = response.toString();
-                    Log.d(TAG, "UNIFIED SESSION - Guest session response: " + responseText);
-                    
-                    // CRITICAL FIX: Extract session ID and diamonds from guest session
-                    guestSessionId = extractJsonValue(responseText, "sessionId");
-                    String diamondsStr = extractJsonValue(responseText, "messageDiamonds");
-                    String hasReceivedWelcome = extractJsonValue(responseText, "hasReceivedWelcomeDiamonds");
-                    
+                apiClient.timeouts().restore(timings);
+            } catch (IOException e) {
+                Log.e(TAG, "SESSION - Ignoring unreadable timings: " + e.getMessage());
+            }
+        }
+        
+        String cookie = sessionStore.cookie();
+        if (!cookie.isEmpty()) {
+            apiClient.setSessionCookie(cookie);
+            guestSessionId = sessionStore.sessionId();
+        }
+    }
+    
+    // Startup "session" stage: a stored cookie is used as is; the first call the server refuses renews it
+    private void startSession() throws IOException {
+        if (!apiClient.hasSessionCookie()) {
+            initializeDeviceSession();
+            return;
+        }
+        sessionReady = true;
+        recorder.record(SESSION_RESTORED);
+        updateStatus("✅ Connected!");
+    }
+    
+    // Renews in place when the server no longer knows the stored session
+    private class GuestSessionHandler implements GuestApiClient.SessionHandler {
+        @Override
+        public void onCookieChanged(String cookie, boolean replaced) {
+            backgroundExecutor.execute(MainActivity.this::saveSession);
+            if (replaced) {
+                // The server quietly started a new session; bind it to this device again.
+                // Cached answers belonged to the old one.
+                recorder.record(SESSION_RENEW, 1);
+                httpCache.clear();
+                foregroundExecutor.execute(() -> {
                     try {
-                        int serverDiamonds = Integer.parseInt(diamondsStr);
-                        boolean welcomeReceived = Boolean.parseBoolean(hasReceivedWelcome);
-                        
-                        mainHandler.post(() -> {
-                            diamondCount = serverDiamonds;
-                            updateDiamondDisplay();
-                            
-                            if (welcomeReceived) {
-                                updateStatus("✅ Connected! " + diamondCount + " diamonds available");
-                            } else {
-                                updateStatus("🎉 Welcome! You received 25 diamonds!");
-                            }
-                            
-                            Log.d(TAG, "UNIFIED SESSION - Session ID: " + guestSessionId.substring(0, Math.min(8, guestSessionId.length())) + "...");
-                        });
-                    } catch (NumberFormatException e) {
-                        Log.e(TAG, "UNIFIED SESSION - Error parsing diamond count: " + diamondsStr);
-                        mainHandler.post(() -> updateStatus("❌ Session initialization error"));
+                        initializeDeviceSession();
+                    } catch (IOException e) {
+                        Log.e(TAG, "SESSION - Could not renew session: " + e.getMessage());
                     }
-                } else {
-                    Log.e(TAG, "UNIFIED SESSION - Failed with code: " + responseCode);
-                    mainHandler.post(() -> updateStatus("❌ Connection failed"));
-                }
-                
-                connection.disconnect();
-                
-            } catch (IOException e) {
-                Log.e(TAG, "UNIFIED SESSION - Network error: " + e.getMessage());
-                e.printStackTrace();
-                mainHandler.post(() -> updateStatus("❌ Network connection failed"));
+                });
+            }
+        }
+        
+        @Override
+        public boolean renewSession() throws IOException {
+            recorder.record(SESSION_RENEW, 0);
+            sessionReady = false;
+            httpCache.clear();
+            apiClient.setSessionCookie(null);
+            initializeDeviceSession();
+            return true;
+        }
+    }
+    
+    private void saveSession() {
+        try {
+            sessionStore.saveSession(apiClient.getSessionCookie(), guestSessionId);
+        } catch (IOException e) {
+            Log.e(TAG, "SESSION - Could not store session: " + e.getMessage());
+        }
+    }
+    
+    // Negotiates a new guest session; also the startup "session" stage when nothing is stored
+    private void initializeDeviceSession() throws IOException {
+        GuestApiClient.Response response;
+        long sequence = diamondLedger.stamp();
+        try {
+            // CRITICAL FIX: Use guest session instead of device session to avoid conflicts
+            // CRITICAL: The client captures the connect.sid cookie from Set-Cookie
+            response = apiClient.get("/api/guest/session", GuestApiClient.Timeout.SESSION);
+        } catch (IOException e) {
+            Log.e(TAG, "UNIFIED SESSION - Network error: " + e.getMessage());
+            activityScope.post(() -> updateStatus("❌ Network connection failed"));
+            throw e;
+        }
+        
+        int responseCode = response.code;
+        recorder.record(SESSION_RESPONSE, responseCode, response.body.length());
+        if (!apiClient.hasSessionCookie()) {
+            recorder.record(NO_SESSION_COOKIE);
+        }
+        
+        if (responseCode != 200) {
+            recorder.record(SESSION_FAILED, responseCode);
+            activityScope.post(() -> updateStatus("❌ Connection failed"));
+            throw new IOException("Guest session failed with code " + responseCode);
+        }
+        
+        String responseText = response.body;
+        
+        // CRITICAL FIX: Extract session ID and diamonds from guest session in one pass
+        GuestApiJson.Session session;
+        try {
+            session = apiClient.metrics().parse("/api/guest/session", () -> GuestApiJson.parseSession(responseText));
+        } catch (IOException e) {
+            session = null;
+        }
+        if (session == null || session.messageDiamonds == null) {
+            recorder.record(SESSION_FAILED, responseCode);
+            activityScope.post(() -> updateStatus("❌ Session initialization error"));
+            throw new IOException("Error parsing guest session");
+        }
+        
+        guestSessionId = session.sessionId;
+        saveSession();
+        int serverDiamonds = session.messageDiamonds;
+        boolean welcomeReceived = session.hasReceivedWelcomeDiamonds;
+        balanceRepository.put(serverDiamonds);
+        diamondLedger.observe(sequence, serverDiamonds);
+        sessionReady = true;
+        recorder.record(SESSION_READY, serverDiamonds, welcomeReceived ? 1 : 0);
+        
+        activityScope.post(() -> {
+            updateDiamondDisplay();
+            
+            if (welcomeReceived) {
+                updateStatus("✅ Connected! " + diamondLedger.available() + " diamonds available");
+            } else {
+                updateStatus("🎉 Welcome! You received 25 diamonds!");
             }
         });
     }
@@ -1270,6 +1388,10 @@ public class MainActivity extends AppCompatActivity {
         
         currentCompanionId = companionId;
         currentCompanionName = companionName;
+        if (chatScope != null) {
+            chatScope.cancel();
+        }
+        chatScope = activityScope.child();
         
         // Create chat layout with proper Android system bar spacing
         LinearLayout chatLayout = new LinearLayout(this);
@@ -1296,22 +1418,17 @@ public class MainActivity extends AppCompatActivity {
             currentCompanionId = -1;
             currentCompanionName = "";
             
-            // Clear chat state
-            if (chatMessages != null) {
-                chatMessages.removeAllViews();
-                chatMessages = null;
-            }
-            if (chatScrollView != null) {
-                chatScrollView.removeAllViews();
-                chatScrollView = null;
-            }
+            // Clear chat state and drop transcript work nobody will see
+            chatTranscript = null;
+            transcriptAdapter = null;
+            chatScope.cancel();
+            chatScope = null;
             
             // Force refresh diamond count
             fetchDiamondCount();
             
             // CRITICAL FIX: Recreate complete interface from scratch
-            setContentView(null); // Clear everything
-            createInteractiveInterface(); // Rebuild home screen
+            createInteractiveInterface(); // Reattach the cached home screen
             Log.d(TAG, "Successfully returned to home screen");
         });
         
@@ -1324,7 +1441,7 @@ public class MainActivity extends AppCompatActivity {
         headerTitle.setLayoutParams(headerParams);
         
         diamondCounter = new TextView(this);
-        diamondCounter.setText("💎 " + diamondCount);
+        diamondCounter.setText("💎 " + diamondLedger.available());
         diamondCounter.setTextColor(0xFFFFFFFF);
         diamondCounter.setTextSize(16);
         
@@ -1335,17 +1452,20 @@ public class MainActivity extends AppCompatActivity {
         headerLayout.addView(headerTitle);
         headerLayout.addView(diamondCounter);
         
-        // Chat messages area
-        chatScrollView = new ScrollView(this);
-        chatScrollView.setBackgroundColor(0x88FFFFFF);
-        chatScrollView.setPadding(10, 10, 10, 10);
-        
-        chatMessages = new LinearLayout(this);
-        chatMessages.setOrientation(LinearLayout.VERTICAL);
-        chatScrollView.addView(chatMessages);
-        
-        // Welcome message
-        addMessage("Hello! I'm " + companionName + ". How can I make your day better?", false);
+        // Chat messages area: a recycling list, so only the rows on screen have views
+        chatTranscript = new RecyclerView(this);
+        chatTranscript.setBackgroundColor(0x88FFFFFF);
+        chatTranscript.setPadding(10, 10, 10, 10);
+        chatTranscript.setHasFixedSize(true); // Sized by the layout weight, not by its content
+        chatTranscript.setLayoutManager(new LinearLayoutManager(this));
+        chatTranscript.getRecycledViewPool().setMaxRecycledViews(ChatTranscriptAdapter.TYPE_USER, 12);
+        chatTranscript.getRecycledViewPool().setMaxRecycledViews(ChatTranscriptAdapter.TYPE_COMPANION, 12);
+        transcriptAdapter = new ChatTranscriptAdapter(() -> loadHistoryPage(companionId, historyCursor));
+        chatTranscript.setAdapter(transcriptAdapter);
+        
+        // Earlier conversation comes from the local store; new conversations get a welcome message
+        streamingMessageId = -1;
+        loadHistoryPage(companionId, ChatHistoryStore.LATEST);
         
         // Input area
         LinearLayout inputLayout = new LinearLayout(this);
@@ -1381,10 +1501,10 @@ public class MainActivity extends AppCompatActivity {
         // Layout setup
         LinearLayout.LayoutParams scrollParams = new LinearLayout.LayoutParams(
             LinearLayout.LayoutParams.MATCH_PARENT, 0, 1);
-        chatScrollView.setLayoutParams(scrollParams);
+        chatTranscript.setLayoutParams(scrollParams);
         
         chatLayout.addView(headerLayout);
-        chatLayout.addView(chatScrollView);
+        chatLayout.addView(chatTranscript);
         chatLayout.addView(inputLayout);
         
         setContentView(chatLayout);
@@ -1392,69 +1512,107 @@ public class MainActivity extends AppCompatActivity {
         Log.d(TAG, "Chat interface created for: " + companionName);
     }
     
-    private void addMessage(String message, boolean isUser) {
-        TextView messageView = new TextView(this);
-        messageView.setText(message);
-        messageView.setTextSize(16);
-        messageView.setPadding(15, 10, 15, 10);
-        
-        LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(
-            LinearLayout.LayoutParams.WRAP_CONTENT,
-            LinearLayout.LayoutParams.WRAP_CONTENT
-        );
-        params.setMargins(10, 5, 10, 5);
+    // Inserts one page of stored messages above the current transcript
+    private void loadHistoryPage(int companionId, long cursor) {
+        RequestScope scope = chatScope;
+        scope.execute(foregroundExecutor, () -> {
+            ChatHistoryStore.Page page;
+            try {
+                page = chatHistory.page(companionId, cursor, HISTORY_PAGE_SIZE);
+            } catch (IOException e) {
+                Log.e(TAG, "CHAT HISTORY - Could not read transcript: " + e.getMessage());
+                return;
+            }
+            scope.post(() -> {
+                if (!isChatShowing(companionId)) {
+                    return;
+                }
+                historyCursor = page.nextCursor;
+                if (page.messages.isEmpty() && cursor == ChatHistoryStore.LATEST) {
+                    ChatHistoryStore.Message welcome = new ChatHistoryStore.Message(System.currentTimeMillis(), false,
+                        "Hello! I'm " + currentCompanionName + ". How can I make your day better?");
+                    transcriptAdapter.prependHistory(Collections.singletonList(welcome), false);
+                    return;
+                }
+                transcriptAdapter.prependHistory(page.messages, page.hasOlder());
+                if (cursor == ChatHistoryStore.LATEST) {
+                    transcriptUpdates.invalidate();
+                }
+            });
+        });
+    }
+    
+    private long addMessage(String message, boolean isUser) {
+        long id = transcriptAdapter.addMessage(message, isUser);
         
-        if (isUser) {
-            messageView.setBackgroundColor(0xFFE91E63);
-            messageView.setTextColor(0xFFFFFFFF);
-            params.gravity = Gravity.END;
+        // Scroll to bottom, once per frame however many rows arrive in it
+        transcriptUpdates.invalidate();
+        return id;
+    }
+    
+    private void scrollTranscriptToBottom() {
+        if (chatTranscript != null) {
+            chatTranscript.scrollToPosition(transcriptAdapter.getItemCount() - 1);
+        }
+    }
+    
+    private void appendStreamingChunk(String chunk) {
+        if (transcriptAdapter == null) {
+            return;
+        }
+        if (streamingMessageId == -1) {
+            // First token: swap the typing indicator for the live reply bubble
+            removeTypingIndicator();
+            streamingMessageId = addMessage(chunk, false);
         } else {
-            messageView.setBackgroundColor(0xFFFFFFFF);
-            messageView.setTextColor(0xFF333333);
-            params.gravity = Gravity.START;
+            transcriptAdapter.appendText(streamingMessageId, chunk);
+            transcriptUpdates.invalidate();
         }
-        
-        messageView.setLayoutParams(params);
-        chatMessages.addView(messageView);
-        
-        // Scroll to bottom
-        chatScrollView.post(() -> chatScrollView.fullScroll(View.FOCUS_DOWN));
+    }
+    
+    private void finishStreamingReply(int companionId) {
+        if (isChatShowing(companionId) && streamingMessageId == -1) {
+            removeTypingIndicator();
+            addMessage("❌ No response received from AI", false);
+        }
+        streamingMessageId = -1;
+    }
+    
+    // Worker thread: reconciles the ledger with the outcome of one delivery, then refreshes the counters
+    private void settleDelivery(int responseCode, Integer serverDiamonds) {
+        if (responseCode == 200) {
+            diamondLedger.settle(serverDiamonds);
+        } else {
+            diamondLedger.refund(serverDiamonds);
+        }
+        if (serverDiamonds != null) {
+            balanceRepository.put(serverDiamonds);
+            activityScope.post(this::updateDiamondDisplay);
+            return;
+        }
+        Log.e(TAG, "Error parsing diamond count: missing remainingDiamonds");
+        // Fallback: fetch diamond count from server
+        balanceRepository.invalidate();
+        activityScope.post(() -> {
+            updateDiamondDisplay();
+            fetchDiamondCount();
+        });
     }
     
     private void addTypingIndicator() {
-        TextView typingView = new TextView(this);
-        typingView.setText("💖 " + currentCompanionName + " is typing...");
-        typingView.setTextSize(14);
-        typingView.setTextColor(0xFF666666);
-        typingView.setPadding(15, 10, 15, 10);
-        typingView.setTag("typing");
-        
-        LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(
-            LinearLayout.LayoutParams.WRAP_CONTENT,
-            LinearLayout.LayoutParams.WRAP_CONTENT
-        );
-        params.setMargins(10, 5, 10, 5);
-        params.gravity = Gravity.START;
-        typingView.setLayoutParams(params);
-        
-        chatMessages.addView(typingView);
-        chatScrollView.post(() -> chatScrollView.fullScroll(View.FOCUS_DOWN));
+        transcriptAdapter.showTyping("💖 " + currentCompanionName + " is typing...");
+        transcriptUpdates.invalidate();
     }
     
     private void removeTypingIndicator() {
-        for (int i = chatMessages.getChildCount() - 1; i >= 0; i--) {
-            View child = chatMessages.getChildAt(i);
-            if ("typing".equals(child.getTag())) {
-                chatMessages.removeView(child);
-                break;
-            }
-        }
+        transcriptAdapter.hideTyping();
     }
     
     private void updateDiamondDisplay() {
-        Log.d(TAG, "Updating diamond display to: " + diamondCount);
+        int diamonds = diamondLedger.available();
+        recorder.record(DIAMONDS_UPDATED, diamonds, diamondLedger.pending());
         if (diamondCounter != null) {
-            diamondCounter.setText("💎 " + diamondCount);
+            diamondCounter.setText("💎 " + diamonds);
         }
         
         // Also update main interface diamond counter if it exists
@@ -1468,7 +1626,7 @@ public class MainActivity extends AppCompatActivity {
                         if (subChild instanceof TextView) {
                             TextView textView = (TextView) subChild;
                             if (textView.getText().toString().startsWith("💎")) {
-                                textView.setText("💎 " + diamondCount);
+                                textView.setText("💎 " + diamonds);
                                 break;
                             }
                         }
@@ -1479,324 +1637,390 @@ public class MainActivity extends AppCompatActivity {
     }
     
     private void sendChatMessage(String message) {
-        Log.d(TAG, "ANDROID CHAT START - Companion ID: " + currentCompanionId + ", Message: " + message.substring(0, Math.min(20, message.length())) + "...");
-        Log.d(TAG, "ANDROID CHAT START - Device fingerprint: " + deviceFingerprint.substring(0, Math.min(10, deviceFingerprint.length())) + "...");
-        Log.d(TAG, "ANDROID CHAT START - Server URL: " + SERVER_URL);
+        recorder.record(CHAT_SEND, currentCompanionId, message.length());
         
         addMessage(message, true);
         addTypingIndicator();
-        
-        executor.execute(() -> {
+        diamondLedger.debit();
+        updateDiamondDisplay();
+        
+        int companionId = currentCompanionId;
+        chatHistory.append(companionId, currentCompanionName, true, message);
+        // The send itself is not scoped to the chat: the message is durable and its reply goes to history
+        interactiveExecutor.execute(() -> {
+            // Written to disk before any network attempt so the message survives a failed send or process death
             try {
-                // Session is already established in initializeDeviceSession()
-                if (guestSessionId == null || guestSessionId.isEmpty()) {
-                    Log.e(TAG, "ANDROID CHAT - No session available! Initialization may have failed.");
-                    mainHandler.post(() -> {
+                chatOutbox.append(companionId, message);
+            } catch (IOException e) {
+                Log.e(TAG, "ANDROID CHAT - Could not queue message: " + e.getMessage());
+                diamondLedger.release();
+                activityScope.post(this::updateDiamondDisplay);
+                transcriptUpdates.post(() -> {
+                    if (isChatShowing(companionId)) {
                         removeTypingIndicator();
-                        addMessage("❌ Connection error. Please restart the app.", false);
-                    });
-                    return;
-                }
-                
-                // CRITICAL FIX: Use guest chat API that has REAL AI responses
-                URL url = new URL(SERVER_URL + "/api/guest/chat");
-                Log.d(TAG, "ANDROID CHAT - Connecting to: " + url.toString());
-                
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("POST");
-                connection.setRequestProperty("Content-Type", "application/json");
-                connection.setRequestProperty("User-Agent", "RedVelvet-Android/1.0");
-                connection.setRequestProperty("X-Device-Fingerprint", deviceFingerprint);
-                connection.setRequestProperty("X-Platform", "android");
-                // CRITICAL: Add session cookie for guest API authentication
-                if (sessionCookie != null && !sessionCookie.isEmpty()) {
-                    connection.setRequestProperty("Cookie", sessionCookie);
-                    Log.d(TAG, "ANDROID CHAT - Using session cookie: " + sessionCookie.substring(0, Math.min(20, sessionCookie.length())) + "...");
-                } else {
-                    Log.e(TAG, "ANDROID CHAT - NO SESSION COOKIE! This will fail.");
-                }
-                connection.setConnectTimeout(10000); // 10 second timeout
-                connection.setReadTimeout(15000); // 15 second timeout
-                connection.setDoOutput(true);
-                
-                String jsonPayload = String.format(
-                    "{\"companionId\": %d, \"message\": \"%s\"}",
-                    currentCompanionId, message.replace("\"", "\\\"")
-                );
-                
-                Log.d(TAG, "ANDROID CHAT - Sending request: " + jsonPayload);
-                
-                try (OutputStream os = connection.getOutputStream()) {
-                    byte[] input = jsonPayload.getBytes(StandardCharsets.UTF_8);
-                    os.write(input, 0, input.length);
+                        addMessage("❌ Could not save message. Please try again.", false);
+                    }
+                });
+                return;
+            }
+            drainOutbox();
+        });
+    }
+    
+    // Sends queued messages oldest-first on the pooled keep-alive connection; stops at the first network failure
+    private void drainOutbox() {
+        if (!outboxDraining.compareAndSet(false, true)) {
+            return; // The running drain re-reads the outbox and picks up new entries
+        }
+        boolean reachable = true;
+        try {
+            List<ChatOutbox.Entry> pending = chatOutbox.pending();
+            while (reachable && !pending.isEmpty()) {
+                recorder.record(OUTBOX_DRAIN, pending.size());
+                for (ChatOutbox.Entry entry : pending) {
+                    if (!deliverQueuedMessage(entry)) {
+                        reachable = false;
+                        break;
+                    }
                 }
-                
-                int responseCode = connection.getResponseCode();
-                Log.d(TAG, "Android chat API response code: " + responseCode);
-                
-                if (responseCode == 200) {
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                    StringBuilder response = new StringBuilder();
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        response.append(line);
+                pending = chatOutbox.pending();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "OUTBOX - Could not read queued messages: " + e.getMessage());
+            reachable = false;
+        } finally {
+            if (reachable) {
+                outboxRetryMillis = OUTBOX_RETRY_MIN_MS;
+            } else {
+                scheduleOutboxRetry();
+            }
+            outboxDraining.set(false);
+        }
+        // An entry appended after the last read but before the flag cleared would otherwise wait for the next send
+        try {
+            if (reachable && !chatOutbox.isEmpty()) {
+                drainOutbox();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "OUTBOX - Could not read queued messages: " + e.getMessage());
+        }
+    }
+    
+    // Caller holds outboxDraining. Offline, the next validated network drains instead.
+    private void scheduleOutboxRetry() {
+        if (!connectivity.isOnline() || !outboxRetryScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = outboxRetryMillis;
+        outboxRetryMillis = Math.min(OUTBOX_RETRY_MAX_MS, delay * 2);
+        activityScope.postDelayed(() -> {
+            outboxRetryScheduled.set(false);
+            activityScope.execute(interactiveExecutor, this::drainOutbox);
+        }, delay);
+    }
+    
+    // Returns false if the message could not reach the server or got no definite answer, and should stay queued
+    private boolean deliverQueuedMessage(ChatOutbox.Entry entry) {
+        int companionId = entry.companionId;
+        
+        // Session is established in initializeDeviceSession(); the startup pipeline drains again once it is
+        if (!sessionReady) {
+            return keepQueued(entry);
+        }
+        
+        boolean delivering = false;
+        try {
+            // CRITICAL FIX: Use guest chat API that has REAL AI responses
+            // CRITICAL: The client adds the session cookie for guest API authentication
+            recorder.record(CHAT_DELIVER, entry.id, companionId);
+            if (!apiClient.hasSessionCookie()) {
+                recorder.record(NO_SESSION_COOKIE);
+            }
+            
+            // Ask for a streamed reply; servers without SSE support answer with one CBOR or JSON body
+            StringBuilder streamedReply = new StringBuilder();
+            Integer[] streamedDiamonds = new Integer[1];
+            diamondLedger.delivering();
+            delivering = true;
+            // A retry after a lost reply carries the same key, so the server answers it without charging again.
+            // Ids restart after the outbox is compacted; the enqueue time keeps keys apart.
+            Map<String, String> headers = Collections.singletonMap(GuestApiClient.IDEMPOTENCY_KEY,
+                entry.id + "-" + entry.createdAtMillis);
+            GuestApiClient.Response response = apiClient.postStreaming("/api/guest/chat",
+                out -> GuestApiJson.writeChatRequest(out, companionId, entry.message),
+                GuestApiClient.Timeout.CHAT, headers, (event, data) -> {
+                    if ("done".equals(event)) {
+                        streamedDiamonds[0] = parseRemainingDiamonds(data);
+                    } else if ("message".equals(event)) {
+                        streamedReply.append(data);
+                        // Chunks can arrive many times a frame; they are applied together
+                        transcriptUpdates.post(() -> {
+                            if (isChatShowing(companionId)) {
+                                appendStreamingChunk(data);
+                            }
+                        });
                     }
-                    reader.close();
-                    
-                    String responseText = response.toString();
-                    Log.d(TAG, "ANDROID CHAT SUCCESS - Full response: " + responseText);
-                    Log.d(TAG, "ANDROID CHAT SUCCESS - Response length: " + responseText.length());
+                });
+            int responseCode = response.code;
+            if (responseCode >= 500 || responseCode == 408 || responseCode == 429) {
+                // A proxy error, an overloaded server or a failed generation decides nothing; the key makes the retry safe
+                recorder.record(CHAT_FAILED, responseCode);
+                delivering = false;
+                diamondLedger.deliveryFailed();
+                return keepQueued(entry);
+            }
+            
+            // Every answer carries the balance somewhere: the done event, the reply body, or a refusal
+            GuestApiJson.ChatReply reply = responseCode == 200 && !response.streamed ? parseChatReply(response) : null;
+            Integer remainingDiamonds = response.streamed ? streamedDiamonds[0]
+                : reply != null ? reply.remainingDiamonds
+                : responseCode != 200 ? parseRemainingDiamonds(response) : null;
+            delivering = false;
+            settleDelivery(responseCode, remainingDiamonds);
+            
+            // A success or a definite refusal: retrying would not change the outcome
+            chatOutbox.markSent(entry.id);
+            
+            if (responseCode == 200 && response.streamed) {
+                recorder.record(CHAT_REPLY, responseCode, streamedReply.length());
+                if (streamedReply.length() > 0) {
+                    chatHistory.append(companionId, null, false, streamedReply.toString());
+                }
+                transcriptUpdates.post(() -> finishStreamingReply(companionId));
+            } else if (responseCode == 200) {
+                // Parse AI response; the diamond count was settled above
+                if (reply != null && reply.response != null) {
+                    String aiResponse = reply.response;
+                    recorder.record(CHAT_REPLY, responseCode, aiResponse.length());
                     
-                    // Parse AI response and updated diamond count
-                    if (responseText.contains("\"response\":")) {
-                        String aiResponse = extractJsonValue(responseText, "response");
-                        String diamondsStr = extractJsonValue(responseText, "remainingDiamonds");
-                        
-                        Log.d(TAG, "Received AI response: " + aiResponse.substring(0, Math.min(50, aiResponse.length())) + "...");
-                        Log.d(TAG, "Updated diamond count: " + diamondsStr);
-                        
-                        mainHandler.post(() -> {
+                    // Recorded even when the chat is closed, so replies to drained messages are not lost
+                    chatHistory.append(companionId, null, false, aiResponse);
+                    transcriptUpdates.post(() -> {
+                        if (isChatShowing(companionId)) {
                             removeTypingIndicator();
                             addMessage(aiResponse, false);
-                            
-                            // Update diamond count from server response
-                            try {
-                                int serverDiamonds = Integer.parseInt(diamondsStr);
-                                diamondCount = serverDiamonds;
-                                updateDiamondDisplay();
-                                Log.d(TAG, "Updated diamond count after message: " + diamondCount);
-                            } catch (NumberFormatException e) {
-                                Log.e(TAG, "Error parsing diamond count: " + diamondsStr);
-                                // Fallback: fetch diamond count from server
-                                fetchDiamondCount();
-                            }
-                        });
-                    } else {
-                        Log.e(TAG, "No response field found in: " + responseText);
-                        mainHandler.post(() -> {
+                        }
+                    });
+                } else {
+                    recorder.record(CHAT_FAILED, responseCode);
+                    transcriptUpdates.post(() -> {
+                        if (isChatShowing(companionId)) {
                             removeTypingIndicator();
                             addMessage("❌ No response received from AI", false);
-                        });
-                    }
-                } else {
-                    Log.e(TAG, "ANDROID CHAT FAILED - Response code: " + responseCode);
-                    Log.e(TAG, "ANDROID CHAT FAILED - Server URL: " + SERVER_URL + "/api/guest/chat");
-                    
-                    // Read error response
-                    BufferedReader errorReader = new BufferedReader(new InputStreamReader(connection.getErrorStream()));
-                    StringBuilder errorResponse = new StringBuilder();
-                    String errorLine;
-                    while ((errorLine = errorReader.readLine()) != null) {
-                        errorResponse.append(errorLine);
-                    }
-                    errorReader.close();
-                    
-                    Log.e(TAG, "Error response: " + errorResponse.toString());
-                    
-                    mainHandler.post(() -> {
-                        removeTypingIndicator();
-                        if (responseCode == 402) {
-                            addMessage("❌ Not enough diamonds! Please purchase more diamonds to continue.", false);
-                        } else {
-                            addMessage("❌ Failed to send message. Please try again.", false);
                         }
                     });
                 }
+            } else {
+                recorder.record(CHAT_FAILED, responseCode);
                 
-                connection.disconnect();
-                
-            } catch (Exception e) {
-                Log.e(TAG, "ANDROID CHAT EXCEPTION: " + e.getMessage());
-                Log.e(TAG, "ANDROID CHAT EXCEPTION: " + e.getClass().getSimpleName());
-                e.printStackTrace();
-                mainHandler.post(() -> {
+                transcriptUpdates.post(() -> {
+                    if (!isChatShowing(companionId)) {
+                        return;
+                    }
                     removeTypingIndicator();
-                    addMessage("❌ Network error. Please check your connection.", false);
+                    if (responseCode == 402) {
+                        addMessage("❌ Not enough diamonds! Please purchase more diamonds to continue.", false);
+                    } else {
+                        addMessage("❌ Failed to send message. Please try again.", false);
+                    }
                 });
             }
+            return true;
+            
+        } catch (IOException e) {
+            Log.e(TAG, "ANDROID CHAT - " + e.getClass().getSimpleName() + ": " + e.getMessage());
+            if (delivering) {
+                diamondLedger.deliveryFailed();
+            }
+            return keepQueued(entry);
+        }
+    }
+    
+    // The message stays in the outbox for the next drain
+    private boolean keepQueued(ChatOutbox.Entry entry) {
+        recorder.record(CHAT_QUEUED, entry.id);
+        int companionId = entry.companionId;
+        transcriptUpdates.post(() -> {
+            // The retry brings the whole reply again, so a partly streamed one is taken down
+            if (streamingMessageId != -1 && transcriptAdapter != null) {
+                transcriptAdapter.removeMessage(streamingMessageId);
+            }
+            streamingMessageId = -1;
+            // Once per message, however many retries it takes
+            if (isChatShowing(companionId) && queuedNoticeEntry != entry.id) {
+                queuedNoticeEntry = entry.id;
+                removeTypingIndicator();
+                addMessage("📤 Message saved. It will be sent as soon as the server can be reached.", false);
+            }
         });
+        return false;
+    }
+    
+    // Main thread only: whether replies for this companion have a visible transcript to land in
+    private boolean isChatShowing(int companionId) {
+        return transcriptAdapter != null && currentCompanionId == companionId;
     }
     
     // REMOVED: Duplicate guest session method - using unified session in initializeDeviceSession() instead
     
+    // Messages still queued from before this launch were debited in a process that is gone
+    private void restoreQueuedDebits(long launchedAtMillis) throws IOException {
+        int queued = 0;
+        for (ChatOutbox.Entry entry : chatOutbox.pending()) {
+            if (entry.createdAtMillis < launchedAtMillis) {
+                queued++;
+            }
+        }
+        if (queued > 0) {
+            diamondLedger.restore(queued);
+            activityScope.post(this::updateDiamondDisplay);
+        }
+    }
+    
+    // Fallback for while the push channel is down; with it up the ledger is already current
     private void fetchDiamondCount() {
-        executor.execute(() -> {
-            try {
-                // FIXED: Use guest API instead of mobile API for real AI
-                URL url = new URL(SERVER_URL + "/api/guest/diamonds");
-                Log.d(TAG, "DIAMOND FETCH - Connecting to: " + url.toString());
-                
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("GET");
-                connection.setRequestProperty("User-Agent", "RedVelvet-Android/1.0");
-                connection.setRequestProperty("X-Device-Fingerprint", deviceFingerprint);
-                connection.setRequestProperty("X-Platform", "android");
-                // CRITICAL: Add session cookie for guest API authentication  
-                if (sessionCookie != null && !sessionCookie.isEmpty()) {
-                    connection.setRequestProperty("Cookie", sessionCookie);
-                    Log.d(TAG, "DIAMOND FETCH - Using session cookie: " + sessionCookie.substring(0, Math.min(20, sessionCookie.length())) + "...");
-                } else {
-                    Log.e(TAG, "DIAMOND FETCH - NO SESSION COOKIE! This will fail.");
-                }
-                connection.setConnectTimeout(10000);
-                connection.setReadTimeout(10000);
-                
-                int responseCode = connection.getResponseCode();
-                Log.d(TAG, "Diamond fetch response code: " + responseCode + " for device: " + deviceFingerprint.substring(0, 8) + "...");
-                
-                if (responseCode == 200) {
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                    StringBuilder response = new StringBuilder();
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        response.append(line);
-                    }
-                    reader.close();
-                    
-                    String responseText = response.toString();
-                    Log.d(TAG, "Diamond fetch response: " + responseText);
-                    String diamondsStr = extractJsonValue(responseText, "diamonds");
-                    
-                    try {
-                        int serverDiamonds = Integer.parseInt(diamondsStr);
-                        mainHandler.post(() -> {
-                            diamondCount = serverDiamonds;
-                            updateDiamondDisplay();
-                            Log.d(TAG, "Synced diamond count from server: " + diamondCount + " for device: " + deviceFingerprint.substring(0, 8) + "...");
-                        });
-                    } catch (NumberFormatException e) {
-                        Log.e(TAG, "Error parsing diamond count: " + diamondsStr);
-                    }
-                } else {
-                    Log.e(TAG, "DIAMOND FETCH FAILED - Response code: " + responseCode);
-                    Log.e(TAG, "DIAMOND FETCH FAILED - URL was: " + url.toString());
-                    
-                    // Read error response
-                    try {
-                        BufferedReader errorReader = new BufferedReader(new InputStreamReader(connection.getErrorStream()));
-                        StringBuilder errorResponse = new StringBuilder();
-                        String errorLine;
-                        while ((errorLine = errorReader.readLine()) != null) {
-                            errorResponse.append(errorLine);
-                        }
-                        errorReader.close();
-                        Log.e(TAG, "DIAMOND FETCH ERROR: " + errorResponse.toString());
-                    } catch (Exception ignored) {}
-                }
-                
-                connection.disconnect();
-            } catch (Exception e) {
-                Log.e(TAG, "DIAMOND FETCH EXCEPTION: " + e.getMessage());
-                Log.e(TAG, "DIAMOND FETCH EXCEPTION: " + e.getClass().getSimpleName());
-                e.printStackTrace();
+        if (serverEvents.isConnected()) {
+            updateDiamondDisplay();
+            return;
+        }
+        balanceRepository.get(new DiamondBalanceRepository.Callback() {
+            @Override
+            public void onBalance(int diamonds) {
+                activityScope.post(() -> updateDiamondDisplay());
+            }
+            
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "DIAMOND FETCH - " + e.getClass().getSimpleName() + ": " + e.getMessage());
+                recorder.record(BALANCE_FAILED);
                 
                 // Update UI to show connection failed
-                mainHandler.post(() -> {
-                    updateDiamondDisplay();
-                    Log.e(TAG, "DIAMOND FETCH FAILED - Network connection problem!");
-                });
+                activityScope.post(() -> updateDiamondDisplay());
             }
         });
     }
     
-    private void testNetworkConnectivity() {
-        Log.d(TAG, "ANDROID NETWORK TEST - Starting connectivity test...");
-        executor.execute(() -> {
-            try {
-                URL testUrl = new URL(SERVER_URL + "/api/guest/diamonds");
-                Log.d(TAG, "ANDROID NETWORK TEST - Testing URL: " + testUrl.toString());
-                
-                HttpURLConnection connection = (HttpURLConnection) testUrl.openConnection();
-                connection.setRequestMethod("GET");
-                connection.setRequestProperty("User-Agent", "RedVelvet-Android/1.0");
-                connection.setRequestProperty("X-Device-Fingerprint", "test");
-                // CRITICAL: Add session cookie for guest API network test
-                if (sessionCookie != null && !sessionCookie.isEmpty()) {
-                    connection.setRequestProperty("Cookie", sessionCookie);
-                    Log.d(TAG, "NETWORK TEST - Using session cookie: " + sessionCookie.substring(0, Math.min(20, sessionCookie.length())) + "...");
-                }
-                connection.setConnectTimeout(5000);
-                connection.setReadTimeout(5000);
-                
-                int responseCode = connection.getResponseCode();
-                Log.d(TAG, "ANDROID NETWORK TEST - Response code: " + responseCode);
-                
-                if (responseCode == 200) {
-                    Log.d(TAG, "ANDROID NETWORK TEST - SUCCESS: Server reachable!");
-                    
-                    // Read actual response
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                    StringBuilder response = new StringBuilder();
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        response.append(line);
+    // Runs on the event channel's thread
+    private class ServerEventListener implements EventChannel.Listener {
+        @Override
+        public void onEvent(String event, String data) {
+            switch (event) {
+                case "balance":
+                    Integer diamonds = parseIntField(data, "diamonds");
+                    if (diamonds != null) {
+                        balanceRepository.put(diamonds);
+                        diamondLedger.observe(diamondLedger.stamp(), diamonds);
+                        activityScope.post(() -> updateDiamondDisplay());
                     }
-                    reader.close();
-                    Log.d(TAG, "ANDROID NETWORK TEST - Response: " + response.toString());
-                    
-                } else {
-                    Log.e(TAG, "ANDROID NETWORK TEST - FAILED: Response code " + responseCode);
-                    
-                    // Read error response
-                    try {
-                        BufferedReader errorReader = new BufferedReader(new InputStreamReader(connection.getErrorStream()));
-                        StringBuilder errorResponse = new StringBuilder();
-                        String errorLine;
-                        while ((errorLine = errorReader.readLine()) != null) {
-                            errorResponse.append(errorLine);
+                    break;
+                case "purchase":
+                    Integer added = parseIntField(data, "added");
+                    if (added != null) {
+                        updateStatus("💎 Purchase confirmed: +" + added + " diamonds");
+                    }
+                    break; // The new total follows as a balance event
+                case "session-expired":
+                    recorder.record(SESSION_EXPIRED);
+                    // The cookie stays valid; the server rebuilds guest state on the next session call
+                    sessionReady = false;
+                    foregroundExecutor.execute(() -> {
+                        try {
+                            initializeDeviceSession();
+                        } catch (IOException e) {
+                            Log.e(TAG, "SESSION - Could not renew expired session: " + e.getMessage());
                         }
-                        errorReader.close();
-                        Log.e(TAG, "ANDROID NETWORK TEST - Error response: " + errorResponse.toString());
-                    } catch (Exception ignored) {}
-                }
-                
-                connection.disconnect();
-                
-            } catch (Exception e) {
-                Log.e(TAG, "ANDROID NETWORK TEST - EXCEPTION: " + e.getMessage());
-                Log.e(TAG, "ANDROID NETWORK TEST - Exception type: " + e.getClass().getSimpleName());
-                e.printStackTrace();
+                    });
+                    break;
+                default:
+                    break;
             }
-        });
+        }
+        
+        @Override
+        public void onConnectionChanged(boolean connected) {
+            recorder.record(PUSH_STATE, connected ? 1 : 0);
+        }
+    }
+    
+    // Loader behind balanceRepository; runs on a worker, at most one at a time, and reconciles the ledger
+    private int loadDiamondCount() throws IOException {
+        // FIXED: Use guest API instead of mobile API for real AI
+        // CRITICAL: The client adds the session cookie for guest API authentication
+        if (!apiClient.hasSessionCookie()) {
+            recorder.record(NO_SESSION_COOKIE);
+        }
+        
+        long sequence = diamondLedger.stamp();
+        GuestApiClient.Response response = apiClient.getNegotiated("/api/guest/diamonds", GuestApiClient.Timeout.BALANCE);
+        int responseCode = response.code;
+        recorder.record(BALANCE_RESPONSE, responseCode, response.isBinary() ? 1 : 0);
+        
+        if (responseCode != 200) {
+            throw new IOException("Diamond fetch failed with code " + responseCode);
+        }
+        
+        Integer diamonds = apiClient.metrics().parse("/api/guest/diamonds",
+            () -> GuestApiJson.parseIntField(response.reader(), "diamonds"));
+        if (diamonds == null) {
+            throw new IOException("Diamond response has no diamonds field");
+        }
+        diamondLedger.observe(sequence, diamonds);
+        return diamonds;
+    }
+    
+    // Connectivity thread: a validated network resumes everything that was waiting for one
+    private void onConnectivityChanged(boolean online, boolean validated) {
+        recorder.record(NETWORK_STATE, validated ? 2 : online ? 1 : 0, connectivity.transport().ordinal());
+        if (!online) {
+            updateStatus("📴 Offline - messages will be sent when you're back online");
+            return;
+        }
+        if (!validated) {
+            return;
+        }
+        serverEvents.reconnectNow();
+        // Launched offline: the session stage failed and skipped everything after it, so run them now.
+        // The push channel it starts brings the balance; a fetch before then would carry no cookie.
+        StartupPipeline pipeline = startup; // Null if the network came up before onCreate built it
+        if (pipeline != null && pipeline.retry("session", interactiveExecutor)) {
+            updateStatus("🔄 Back online - connecting...");
+            return;
+        }
+        if (sessionReady) {
+            updateStatus("✅ Back online");
+            interactiveExecutor.execute(this::drainOutbox);
+        }
+        activityScope.post(this::fetchDiamondCount); // Only fetches if the push channel is still down
     }
 
-    private String extractJsonValue(String jsonString, String key) {
+    private GuestApiJson.ChatReply parseChatReply(GuestApiClient.Response response) {
         try {
-            String searchKey = "\"" + key + "\"";
-            int keyIndex = jsonString.indexOf(searchKey);
-            if (keyIndex == -1) return "";
-            
-            int colonIndex = jsonString.indexOf(":", keyIndex);
-            if (colonIndex == -1) return "";
-            
-            int valueStart = colonIndex + 1;
-            while (valueStart < jsonString.length() && 
-                   (jsonString.charAt(valueStart) == ' ' || jsonString.charAt(valueStart) == '\t')) {
-                valueStart++;
-            }
-            
-            if (valueStart >= jsonString.length()) return "";
-            
-            char firstChar = jsonString.charAt(valueStart);
-            if (firstChar == '"') {
-                // String value
-                int valueEnd = jsonString.indexOf('"', valueStart + 1);
-                if (valueEnd == -1) return "";
-                return jsonString.substring(valueStart + 1, valueEnd);
-            } else {
-                // Number or boolean value
-                int valueEnd = valueStart;
-                while (valueEnd < jsonString.length() && 
-                       jsonString.charAt(valueEnd) != ',' && 
-                       jsonString.charAt(valueEnd) != '}' && 
-                       jsonString.charAt(valueEnd) != ']') {
-                    valueEnd++;
-                }
-                return jsonString.substring(valueStart, valueEnd).trim();
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error extracting JSON value for key: " + key);
-            return "";
+            return apiClient.metrics().parse("/api/guest/chat", () -> GuestApiJson.parseChatReply(response.reader()));
+        } catch (IOException e) {
+            Log.e(TAG, "Error parsing chat response: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // Refusals such as insufficient diamonds carry the balance the server holds
+    private Integer parseRemainingDiamonds(GuestApiClient.Response response) {
+        try {
+            return GuestApiJson.parseIntField(response.reader(), "remainingDiamonds");
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+    private Integer parseRemainingDiamonds(String json) {
+        return parseIntField(json, "remainingDiamonds");
+    }
+    
+    private Integer parseIntField(String json, String field) {
+        try {
+            return GuestApiJson.parseIntField(json, field);
+        } catch (IOException e) {
+            Log.e(TAG, "Error parsing " + field + ": " + e.getMessage());
+            return null;
         }
     }
     
@@ -1812,17 +2036,14 @@ public class MainActivity extends AppCompatActivity {
             currentCompanionName = "";
             
             // Clear all chat state
-            if (chatMessages != null) {
-                chatMessages.removeAllViews();
-                chatMessages = null;
-            }
-            if (chatScrollView != null) {
-                chatScrollView.removeAllViews(); 
-                chatScrollView = null;
+            chatTranscript = null;
+            transcriptAdapter = null;
+            if (chatScope != null) {
+                chatScope.cancel();
+                chatScope = null;
             }
             
-            // Force complete interface rebuild to home screen
-            setContentView(null);
+            // Reattach the cached home screen
             createInteractiveInterface();
             Log.d(TAG, "System back: Successfully returned to home");
         } else {
@@ -1831,11 +2052,43 @@ public class MainActivity extends AppCompatActivity {
         }
     }
     
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Written here rather than queued: the process may be killed any time after onStop
+        try {
+            chatHistory.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "CHAT HISTORY - Could not write transcript: " + e.getMessage());
+        }
+        // Deadlines learned this run start the next launch; the write is skipped when nothing changed
+        String timings = apiClient.timeouts().toJson();
+        if (!"{}".equals(timings)) { // Nothing measured yet: keep what an earlier launch learned
+            try {
+                sessionStore.saveTimeouts(timings);
+            } catch (IOException e) {
+                Log.e(TAG, "SESSION - Could not store timings: " + e.getMessage());
+            }
+        }
+    }
+    
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (executor != null) {
-            executor.shutdown();
+        if (connectivity != null) {
+            connectivity.stop();
+        }
+        if (serverEvents != null) {
+            serverEvents.close();
+        }
+        if (activityScope != null) {
+            activityScope.cancel(); // Aborts open sockets and drops pending UI callbacks
+        }
+        if (transcriptUpdates != null) {
+            transcriptUpdates.cancel();
+        }
+        if (scheduler != null) {
+            scheduler.shutdown(); // Queued write-behind still runs; the workers exit once it has
         }
     }
 }
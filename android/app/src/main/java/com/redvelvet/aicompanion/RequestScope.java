@@ -0,0 +1,86 @@
+package com.redvelvet.aicompanion;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.redvelvet.aicompanion.protocol.CancellationToken;
+import com.redvelvet.aicompanion.protocol.GuestApiClient;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Work owned by the Activity or by one screen.
+ *
+ * Requests go through {@link #client()}, tasks through {@link #execute} and UI
+ * updates through {@link #post}. {@link #cancel} aborts the scope's open
+ * sockets, turns its queued tasks into no-ops and removes its pending
+ * callbacks, so nothing started for a screen outlives it. A child scope is
+ * cancelled with its parent.
+ */
+public class RequestScope {
+    private final GuestApiClient client;
+    private final Handler mainHandler;
+    private final CancellationToken token;
+
+    public RequestScope(GuestApiClient client, Handler mainHandler) {
+        this(client, mainHandler, new CancellationToken());
+    }
+
+    private RequestScope(GuestApiClient client, Handler mainHandler, CancellationToken token) {
+        this.client = client.scoped(token);
+        this.mainHandler = mainHandler;
+        this.token = token;
+    }
+
+    public RequestScope child() {
+        return new RequestScope(client, mainHandler, token.child());
+    }
+
+    /** Shares the session of the client the scope was made from; its calls fail once the scope is cancelled. */
+    public GuestApiClient client() {
+        return client;
+    }
+
+    public boolean isActive() {
+        return !token.isCancelled();
+    }
+
+    /** Runs the task on the given executor unless the scope is cancelled before it starts. */
+    public void execute(Executor executor, Runnable task) {
+        executor.execute(() -> {
+            if (isActive()) {
+                task.run();
+            }
+        });
+    }
+
+    /** Posts to the main thread; dropped if the scope is cancelled before it runs. */
+    public void post(Runnable action) {
+        if (!isActive()) {
+            return;
+        }
+        // The scope itself is the callback token, so cancel() can remove exactly its own callbacks
+        mainHandler.postAtTime(() -> {
+            if (isActive()) {
+                action.run();
+            }
+        }, this, SystemClock.uptimeMillis());
+    }
+
+    /** Like {@link #post}, after the given delay. */
+    public void postDelayed(Runnable action, long delayMillis) {
+        if (!isActive()) {
+            return;
+        }
+        mainHandler.postAtTime(() -> {
+            if (isActive()) {
+                action.run();
+            }
+        }, this, SystemClock.uptimeMillis() + delayMillis);
+    }
+
+    public void cancel() {
+        token.cancel();
+        mainHandler.removeCallbacksAndMessages(this);
+    }
+}
@@ -0,0 +1,126 @@
+package com.redvelvet.aicompanion;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Device fingerprint, guest session cookie and learned request timings, kept on
+ * disk between launches.
+ *
+ * A launch with a stored cookie uses it straight away instead of negotiating a
+ * session first; the server is only asked for a new one when it refuses or
+ * replaces the cookie. The fingerprint is derived once per install, and the
+ * timings let the first requests of a launch use deadlines fitted to the last
+ * known network. Reads and writes are blocking; call them off the main thread.
+ */
+public class SessionStore {
+    private static final int VERSION = 2; // 1 had no timings
+
+    private final File file;
+    private boolean loaded;
+    private String fingerprint = "";
+    private String cookie = "";
+    private String sessionId = "";
+    private String timeouts = "";
+
+    public SessionStore(File file) {
+        this.file = file;
+    }
+
+    public synchronized String fingerprint() {
+        load();
+        return fingerprint;
+    }
+
+    /** The stored session cookie, or empty if there is none. */
+    public synchronized String cookie() {
+        load();
+        return cookie;
+    }
+
+    public synchronized String sessionId() {
+        load();
+        return sessionId;
+    }
+
+    /** Saved {@link com.redvelvet.aicompanion.protocol.TimeoutEstimator} state, or empty. */
+    public synchronized String timeouts() {
+        load();
+        return timeouts;
+    }
+
+    public synchronized void saveTimeouts(String json) throws IOException {
+        load();
+        if (!json.equals(timeouts)) {
+            timeouts = json;
+            write();
+        }
+    }
+
+    public synchronized void saveFingerprint(String newFingerprint) throws IOException {
+        load();
+        fingerprint = newFingerprint;
+        write();
+    }
+
+    /** Records the current session; a null or empty cookie forgets it. */
+    public synchronized void saveSession(String newCookie, String newSessionId) throws IOException {
+        load();
+        cookie = newCookie == null ? "" : newCookie;
+        sessionId = newSessionId == null ? "" : newSessionId;
+        write();
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                return;
+            }
+            String storedFingerprint = in.readUTF();
+            String storedCookie = in.readUTF();
+            String storedSessionId = in.readUTF();
+            String storedTimeouts = version >= 2 ? in.readUTF() : "";
+            fingerprint = storedFingerprint;
+            cookie = storedCookie;
+            sessionId = storedSessionId;
+            timeouts = storedTimeouts;
+        } catch (IOException e) {
+            // Unreadable: start over with a fresh session, as on first launch
+        }
+    }
+
+    // Written to a temp file and renamed so a crash never leaves half a record
+    private void write() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(VERSION);
+            out.writeUTF(fingerprint);
+            out.writeUTF(cookie);
+            out.writeUTF(sessionId);
+            out.writeUTF(timeouts);
+            out.flush();
+            stream.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+}
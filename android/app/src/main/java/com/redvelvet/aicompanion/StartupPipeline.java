@@ -0,0 +1,252 @@
+package com.redvelvet.aicompanion;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs startup work as a small dependency graph.
+ *
+ * A stage is submitted to the executor as soon as every stage it depends on has
+ * succeeded, so independent stages still run in parallel. If a stage fails, all
+ * stages downstream of it are skipped rather than run without their inputs.
+ * Start offset and duration are recorded for every stage. A failed stage can be
+ * run again with {@link #retry}, e.g. once a network comes up; if it succeeds,
+ * the stages skipped because of it run as well.
+ */
+public class StartupPipeline {
+
+    public interface Stage {
+        void run() throws Exception;
+    }
+
+    public interface Listener {
+        void onFinished(List<StageResult> results);
+    }
+
+    public enum Status { SUCCEEDED, FAILED, SKIPPED }
+
+    public static final class StageResult {
+        public final String name;
+        public final Status status;
+        public final long startedAtMillis; // Offset from pipeline start
+        public final long durationMillis;
+        public final Exception error;
+
+        StageResult(String name, Status status, long startedAtMillis, long durationMillis, Exception error) {
+            this.name = name;
+            this.status = status;
+            this.startedAtMillis = startedAtMillis;
+            this.durationMillis = durationMillis;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + status + " +" + startedAtMillis + "ms (" + durationMillis + "ms)";
+        }
+    }
+
+    private static final class Node {
+        final String name;
+        final Stage stage;
+        final Executor executor;
+        final List<Node> dependents = new ArrayList<>();
+        final List<Node> dependencies = new ArrayList<>();
+        int remaining;
+        boolean blocked;
+        Status status; // Null until finished, and while a retry runs
+
+        Node(String name, Stage stage, Executor executor) {
+            this.name = name;
+            this.stage = stage;
+            this.executor = executor;
+        }
+    }
+
+    private final Executor executor;
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private final List<StageResult> results = new ArrayList<>();
+    private Listener listener;
+    private long startNanos;
+    private boolean started;
+
+    public StartupPipeline(Executor executor) {
+        this.executor = executor;
+    }
+
+    /** Adds a stage; dependencies must already have been added, which keeps the graph acyclic. */
+    public StartupPipeline add(String name, Stage stage, String... dependsOn) {
+        return add(name, executor, stage, dependsOn);
+    }
+
+    /** Adds a stage that runs on its own executor, e.g. a lower-priority lane for diagnostics. */
+    public synchronized StartupPipeline add(String name, Executor stageExecutor, Stage stage, String... dependsOn) {
+        if (started) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        if (nodes.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate stage: " + name);
+        }
+        Node node = new Node(name, stage, stageExecutor);
+        for (String dependency : dependsOn) {
+            Node parent = nodes.get(dependency);
+            if (parent == null) {
+                throw new IllegalArgumentException("Unknown dependency " + dependency + " for " + name);
+            }
+            parent.dependents.add(node);
+            node.dependencies.add(parent);
+            node.remaining++;
+        }
+        nodes.put(name, node);
+        return this;
+    }
+
+    public void start(Listener listener) {
+        List<Node> ready = new ArrayList<>();
+        synchronized (this) {
+            if (started) {
+                throw new IllegalStateException("Pipeline already started");
+            }
+            started = true;
+            this.listener = listener;
+            startNanos = System.nanoTime();
+            for (Node node : nodes.values()) {
+                if (node.remaining == 0) {
+                    ready.add(node);
+                }
+            }
+        }
+        submitAll(ready);
+        if (nodes.isEmpty()) {
+            listener.onFinished(Collections.emptyList());
+        }
+    }
+
+    /**
+     * Runs a failed stage again on the given executor; on success, every stage that
+     * was skipped only because of it runs on its own executor. Returns false, and
+     * does nothing, unless the stage has finished and failed. Retries are not
+     * reported to the listener.
+     */
+    public boolean retry(String name, Executor retryExecutor) {
+        Node node;
+        synchronized (this) {
+            node = nodes.get(name);
+            if (node == null || node.status != Status.FAILED) {
+                return false;
+            }
+            node.status = null;
+        }
+        retryExecutor.execute(() -> rerunStage(node));
+        return true;
+    }
+
+    private void submitAll(List<Node> ready) {
+        for (Node node : ready) {
+            node.executor.execute(() -> runStage(node));
+        }
+    }
+
+    private void runStage(Node node) {
+        long begin = System.nanoTime();
+        Exception error = null;
+        try {
+            node.stage.run();
+        } catch (Exception e) {
+            error = e;
+        }
+        long end = System.nanoTime();
+
+        List<Node> ready = new ArrayList<>();
+        List<StageResult> finished = null;
+        synchronized (this) {
+            Status status = error == null ? Status.SUCCEEDED : Status.FAILED;
+            record(node, new StageResult(node.name, status, millisSinceStart(begin),
+                TimeUnit.NANOSECONDS.toMillis(end - begin), error), ready);
+            if (results.size() == nodes.size()) {
+                finished = new ArrayList<>(results);
+            }
+        }
+        submitAll(ready);
+        if (finished != null) {
+            listener.onFinished(finished);
+        }
+    }
+
+    private void rerunStage(Node node) {
+        boolean succeeded;
+        try {
+            node.stage.run();
+            succeeded = true;
+        } catch (Exception e) {
+            succeeded = false;
+        }
+        List<Node> ready = new ArrayList<>();
+        synchronized (this) {
+            node.status = succeeded ? Status.SUCCEEDED : Status.FAILED;
+            if (succeeded) {
+                for (Node dependent : node.dependents) {
+                    if (dependent.status == Status.SKIPPED && allSucceeded(dependent)) {
+                        dependent.status = null;
+                        ready.add(dependent);
+                    } else if (dependent.status == null && dependent.remaining > 0) {
+                        // Still waiting on its first run: only a failure elsewhere blocks it now
+                        dependent.blocked = anyFailed(dependent);
+                    }
+                }
+            }
+        }
+        for (Node dependent : ready) {
+            dependent.executor.execute(() -> rerunStage(dependent));
+        }
+    }
+
+    // Caller holds the lock
+    private static boolean allSucceeded(Node node) {
+        for (Node dependency : node.dependencies) {
+            if (dependency.status != Status.SUCCEEDED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Caller holds the lock
+    private static boolean anyFailed(Node node) {
+        for (Node dependency : node.dependencies) {
+            if (dependency.status == Status.FAILED || dependency.status == Status.SKIPPED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Caller holds the lock
+    private void record(Node node, StageResult result, List<Node> ready) {
+        node.status = result.status;
+        results.add(result);
+        for (Node dependent : node.dependents) {
+            dependent.remaining--;
+            if (result.status != Status.SUCCEEDED) {
+                dependent.blocked = true;
+            }
+            if (dependent.remaining == 0) {
+                if (dependent.blocked) {
+                    long now = millisSinceStart(System.nanoTime());
+                    record(dependent, new StageResult(dependent.name, Status.SKIPPED, now, 0, null), ready);
+                } else {
+                    ready.add(dependent);
+                }
+            }
+        }
+    }
+
+    private long millisSinceStart(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos - startNanos);
+    }
+}
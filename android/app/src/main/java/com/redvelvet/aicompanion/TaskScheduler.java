@@ -0,0 +1,145 @@
+package com.redvelvet.aicompanion;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Worker pool with priority lanes.
+ *
+ * Idle workers always take from the highest-priority lane that has queued work
+ * and is under its own concurrency limit. Background work is deferred entirely
+ * while anything interactive is running or queued, so a chat send never waits
+ * behind prefetch or diagnostics. Running tasks are never interrupted: blocking
+ * I/O cannot be preempted safely, so deferral happens at dispatch time.
+ *
+ * {@link #shutdown} lets everything already queued finish, including work those
+ * tasks queue in turn, such as a write-behind flush; only then do the workers exit.
+ */
+public class TaskScheduler {
+
+    public enum Lane {
+        INTERACTIVE(2), // The user is waiting on it: chat sends
+        FOREGROUND(2),  // Data for what is on screen
+        BACKGROUND(1);  // Prefetch, write-behind, diagnostics
+
+        final int maxConcurrency;
+
+        Lane(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+        }
+    }
+
+    private final Map<Lane, ArrayDeque<Runnable>> queues = new EnumMap<>(Lane.class);
+    private final Map<Lane, Integer> running = new EnumMap<>(Lane.class);
+    private final Map<Lane, Executor> executors = new EnumMap<>(Lane.class);
+    private final Thread[] workers;
+    private boolean shutdown;
+    private boolean terminated; // Shut down and drained; the workers have exited
+
+    public TaskScheduler(String threadNamePrefix) {
+        int total = 0;
+        for (Lane lane : Lane.values()) {
+            queues.put(lane, new ArrayDeque<>());
+            running.put(lane, 0);
+            executors.put(lane, task -> submit(lane, task));
+            total += lane.maxConcurrency;
+        }
+        // One worker per lane slot, so a lane at its limit never starves another of threads
+        workers = new Thread[total];
+        for (int i = 0; i < total; i++) {
+            workers[i] = new Thread(this::work, threadNamePrefix + "-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /** An Executor that submits to the given lane, for components that take a plain Executor. */
+    public Executor executor(Lane lane) {
+        return executors.get(lane);
+    }
+
+    /** Queues a task; still accepted after {@link #shutdown} until the queued work has drained. */
+    public synchronized void submit(Lane lane, Runnable task) {
+        if (terminated) {
+            throw new RejectedExecutionException("Scheduler is shut down");
+        }
+        queues.get(lane).add(task);
+        notifyAll();
+    }
+
+    /** Lets the workers exit once every queued and running task has finished. */
+    public synchronized void shutdown() {
+        shutdown = true;
+        notifyAll();
+    }
+
+    private void work() {
+        while (true) {
+            Lane lane;
+            Runnable task;
+            synchronized (this) {
+                while (true) {
+                    lane = nextLane();
+                    if (lane != null) {
+                        break;
+                    }
+                    if (shutdown && idle()) {
+                        terminated = true;
+                        notifyAll();
+                        return;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                task = queues.get(lane).poll();
+                running.put(lane, running.get(lane) + 1);
+            }
+            try {
+                task.run();
+            } catch (RejectedExecutionException e) {
+                // Follow-up work queued after the drain finished; losing it must not take the process down
+                Log.w("RedVelvet", "TaskScheduler - Dropped work submitted after shutdown");
+            } catch (RuntimeException e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            } finally {
+                synchronized (this) {
+                    running.put(lane, running.get(lane) - 1);
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    // Caller holds the lock
+    private boolean idle() {
+        for (Lane lane : Lane.values()) {
+            if (running.get(lane) > 0 || !queues.get(lane).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Caller holds the lock
+    private Lane nextLane() {
+        boolean interactiveBusy = running.get(Lane.INTERACTIVE) > 0 || !queues.get(Lane.INTERACTIVE).isEmpty();
+        for (Lane lane : Lane.values()) {
+            if (lane == Lane.BACKGROUND && interactiveBusy) {
+                return null;
+            }
+            if (!queues.get(lane).isEmpty() && running.get(lane) < lane.maxConcurrency) {
+                return lane;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,40 @@
+package com.redvelvet.aicompanion;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AvatarDiskCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void storesBytesPerUrl() throws IOException {
+        AvatarDiskCache cache = new AvatarDiskCache(new File(folder.getRoot(), "avatars"), 1024);
+        assertNull(cache.get("/uploads/companions/a.jpg"));
+        cache.put("/uploads/companions/a.jpg", new byte[] {1, 2, 3});
+        assertArrayEquals(new byte[] {1, 2, 3}, cache.get("/uploads/companions/a.jpg"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedBeyondBudget() throws IOException {
+        File dir = new File(folder.getRoot(), "avatars");
+        AvatarDiskCache cache = new AvatarDiskCache(dir, 250);
+        cache.put("a", new byte[100]);
+        cache.put("b", new byte[100]);
+        new File(dir, AvatarDiskCache.keyFor("a")).setLastModified(System.currentTimeMillis() - 60_000);
+        new File(dir, AvatarDiskCache.keyFor("b")).setLastModified(System.currentTimeMillis() - 30_000);
+        cache.get("a"); // Now the most recently used
+        cache.put("c", new byte[100]);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+}
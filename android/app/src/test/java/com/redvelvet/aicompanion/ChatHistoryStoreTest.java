@@ -0,0 +1,64 @@
+package com.redvelvet.aicompanion;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ChatHistoryStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> texts(ChatHistoryStore.Page page) {
+        List<String> result = new ArrayList<>();
+        for (ChatHistoryStore.Message message : page.messages) {
+            result.add((message.fromUser ? "> " : "< ") + message.text);
+        }
+        return result;
+    }
+
+    @Test
+    public void pagesWalkBackwardsAcrossFlushedAndBufferedMessages() throws IOException {
+        File dir = new File(folder.getRoot(), "history");
+        List<Runnable> queued = new ArrayList<>();
+        ChatHistoryStore store = new ChatHistoryStore(dir, queued::add);
+        for (int i = 0; i < 5; i++) {
+            store.append(1, "Sophia", true, "q" + i);
+        }
+        assertEquals(1, queued.size());
+        store.flush();
+        store.append(1, "Sophia", false, "a4");
+
+        ChatHistoryStore.Page latest = store.page(1, ChatHistoryStore.LATEST, 4);
+        assertEquals(List.of("> q2", "> q3", "> q4", "< a4"), texts(latest));
+        assertTrue(latest.hasOlder());
+        ChatHistoryStore.Page older = store.page(1, latest.nextCursor, 4);
+        assertEquals(List.of("> q0", "> q1"), texts(older));
+        assertFalse(older.hasOlder());
+    }
+
+    @Test
+    public void conversationsReloadFromDiskNewestFirst() throws IOException, InterruptedException {
+        File dir = new File(folder.getRoot(), "history");
+        ChatHistoryStore store = new ChatHistoryStore(dir, Runnable::run);
+        store.append(1, "Sophia", true, "hi");
+        Thread.sleep(2);
+        store.append(2, "Emma", true, "hello");
+        store.append(2, null, false, "hey you");
+
+        ChatHistoryStore reopened = new ChatHistoryStore(dir, Runnable::run);
+        List<ChatHistoryStore.Conversation> conversations = reopened.conversations();
+        assertEquals(2, conversations.size());
+        assertEquals("Emma", conversations.get(0).title);
+        assertEquals("hey you", conversations.get(0).lastMessage.text);
+        assertEquals("Sophia", conversations.get(1).title);
+        assertEquals(List.of("> hello", "< hey you"), texts(reopened.page(2, ChatHistoryStore.LATEST, 10)));
+    }
+}
@@ -0,0 +1,56 @@
+package com.redvelvet.aicompanion;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ChatOutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> messages(ChatOutbox outbox) throws IOException {
+        List<String> result = new ArrayList<>();
+        for (ChatOutbox.Entry entry : outbox.pending()) {
+            result.add(entry.companionId + ":" + entry.message);
+        }
+        return result;
+    }
+
+    @Test
+    public void unsentMessagesSurviveReopenInOrder() throws IOException {
+        File file = new File(folder.getRoot(), "outbox.log");
+        ChatOutbox outbox = new ChatOutbox(file);
+        ChatOutbox.Entry first = outbox.append(1, "hi");
+        outbox.append(2, "hello");
+        outbox.append(1, "still there?");
+        outbox.markSent(first.id);
+
+        ChatOutbox reopened = new ChatOutbox(file);
+        assertEquals(List.of("2:hello", "1:still there?"), messages(reopened));
+        ChatOutbox.Entry next = reopened.append(3, "new");
+        assertTrue(next.id > first.id + 2);
+    }
+
+    @Test
+    public void tornTailRecordIsDropped() throws IOException {
+        File file = new File(folder.getRoot(), "outbox.log");
+        new ChatOutbox(file).append(1, "kept");
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[] {1, 0, 0, 0}); // Enqueue record cut off mid-id
+        }
+
+        ChatOutbox reopened = new ChatOutbox(file);
+        assertEquals(List.of("1:kept"), messages(reopened));
+        reopened.append(1, "after");
+        assertEquals(List.of("1:kept", "1:after"), messages(new ChatOutbox(file)));
+    }
+}
@@ -0,0 +1,67 @@
+package com.redvelvet.aicompanion;
+
+import static org.junit.Assert.*;
+
+import com.redvelvet.aicompanion.protocol.GuestApiClient;
+import com.redvelvet.aicompanion.protocol.GuestApiJson;
+import com.redvelvet.aicompanion.protocol.GuestApiStandInServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompanionCatalogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GuestApiStandInServer server;
+    private GuestApiClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new GuestApiStandInServer();
+        client = new GuestApiClient(server.baseUrl());
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void warmStartRendersFromDiskAndRevalidatesWithA304() throws IOException {
+        File cache = new File(folder.getRoot(), "companions.cache");
+        CompanionCatalog cold = new CompanionCatalog(client, cache);
+        assertNull(cold.loadCached());
+        List<GuestApiJson.Companion> fetched = cold.refresh();
+        assertEquals(1, fetched.size());
+        assertEquals("Sophia", fetched.get(0).name);
+        assertEquals(1, server.requestCount());
+
+        CompanionCatalog warm = new CompanionCatalog(client, cache);
+        List<GuestApiJson.Companion> cached = warm.loadCached();
+        assertEquals("The Passionate Romantic", cached.get(0).tagline);
+        assertEquals(1, server.requestCount());
+        assertNull(warm.refresh());
+        assertEquals(2, server.requestCount());
+    }
+
+    @Test
+    public void changedCatalogReplacesTheCache() throws IOException {
+        File cache = new File(folder.getRoot(), "companions.cache");
+        new CompanionCatalog(client, cache).refresh();
+        server.setCompanions("[{\"id\":7,\"name\":\"James\",\"gender\":\"male\"},{\"id\":8,\"name\":\"Hidden\",\"available\":false}]");
+
+        List<GuestApiJson.Companion> fresh = new CompanionCatalog(client, cache).refresh();
+        assertEquals(1, fresh.size());
+        assertEquals(7, fresh.get(0).id);
+        assertEquals("male", new CompanionCatalog(client, cache).loadCached().get(0).gender);
+    }
+}
@@ -0,0 +1,60 @@
+package com.redvelvet.aicompanion;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class DiamondBalanceRepositoryTest {
+
+    private static class RecordingCallback implements DiamondBalanceRepository.Callback {
+        final List<Integer> balances = new ArrayList<>();
+
+        @Override
+        public void onBalance(int diamonds) {
+            balances.add(diamonds);
+        }
+
+        @Override
+        public void onError(Exception error) {
+            fail("Unexpected error: " + error);
+        }
+    }
+
+    @Test
+    public void concurrentRequestsShareOneFetch() {
+        List<Runnable> queued = new ArrayList<>();
+        Executor executor = queued::add;
+        AtomicInteger fetches = new AtomicInteger();
+        DiamondBalanceRepository repository = new DiamondBalanceRepository(executor, 5000, () -> {
+            fetches.incrementAndGet();
+            return 17;
+        });
+
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+        repository.get(first);
+        repository.get(second);
+        assertEquals(1, queued.size());
+
+        queued.get(0).run();
+        assertEquals(1, fetches.get());
+        assertEquals(List.of(17), first.balances);
+        assertEquals(List.of(17), second.balances);
+    }
+
+    @Test
+    public void freshValueIsServedWithoutFetching() {
+        DiamondBalanceRepository repository = new DiamondBalanceRepository(
+            r -> fail("Should not fetch"), 5000, () -> 0);
+        repository.put(9);
+
+        RecordingCallback callback = new RecordingCallback();
+        repository.get(callback);
+        assertEquals(List.of(9), callback.balances);
+    }
+}
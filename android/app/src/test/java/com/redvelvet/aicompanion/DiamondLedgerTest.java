@@ -0,0 +1,101 @@
+package com.redvelvet.aicompanion;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class DiamondLedgerTest {
+
+    @Test
+    public void debitShowsImmediatelyAndSettlesToServerBalance() {
+        DiamondLedger ledger = new DiamondLedger(0);
+        ledger.observe(ledger.stamp(), 10);
+
+        ledger.debit();
+        assertEquals(9, ledger.available());
+
+        ledger.delivering();
+        ledger.settle(9);
+        assertEquals(9, ledger.available());
+        assertEquals(0, ledger.pending());
+    }
+
+    @Test
+    public void olderResponseArrivingLateIsIgnored() {
+        DiamondLedger ledger = new DiamondLedger(0);
+        long first = ledger.stamp();
+        long second = ledger.stamp();
+
+        assertTrue(ledger.observe(second, 7));
+        assertFalse(ledger.observe(first, 10));
+        assertEquals(7, ledger.available());
+    }
+
+    @Test
+    public void readDuringDeliveryCannotUndoTheDebit() {
+        DiamondLedger ledger = new DiamondLedger(0);
+        ledger.observe(ledger.stamp(), 10);
+        ledger.debit();
+
+        // Issued before the chat request; the server answers it before charging
+        long read = ledger.stamp();
+        ledger.delivering();
+        assertFalse(ledger.observe(read, 10));
+        assertEquals(9, ledger.available());
+
+        ledger.settle(9);
+        assertFalse(ledger.observe(read, 10));
+        assertEquals(9, ledger.available());
+
+        assertTrue(ledger.observe(ledger.stamp(), 9));
+    }
+
+    @Test
+    public void refusedMessageIsRefunded() {
+        DiamondLedger ledger = new DiamondLedger(0);
+        ledger.observe(ledger.stamp(), 1);
+        ledger.debit();
+        ledger.debit();
+        assertEquals(0, ledger.available());
+
+        ledger.delivering();
+        ledger.settle(0);
+        ledger.delivering();
+        ledger.refund(0);
+        assertEquals(0, ledger.available());
+        assertEquals(0, ledger.pending());
+    }
+
+    @Test
+    public void failedDeliveryStaysDebitedAndSettlesWithoutBalance() {
+        DiamondLedger ledger = new DiamondLedger(0);
+        ledger.observe(ledger.stamp(), 5);
+        ledger.restore(2);
+        assertEquals(3, ledger.available());
+
+        ledger.delivering();
+        ledger.deliveryFailed();
+        assertEquals(3, ledger.available());
+        assertTrue(ledger.observe(ledger.stamp(), 5));
+
+        ledger.delivering();
+        ledger.settle(null);
+        assertEquals(3, ledger.available());
+        assertEquals(1, ledger.pending());
+    }
+
+    @Test
+    public void settleWithoutAKnownDebitCannotRaiseTheBalance() {
+        DiamondLedger ledger = new DiamondLedger(0);
+        ledger.observe(ledger.stamp(), 10);
+
+        // A message queued by an earlier run, delivered before its debit was restored
+        ledger.delivering();
+        ledger.settle(9);
+        assertEquals(0, ledger.pending());
+        assertEquals(9, ledger.available());
+
+        ledger.debit();
+        assertEquals(8, ledger.available());
+    }
+}
@@ -0,0 +1,48 @@
+package com.redvelvet.aicompanion;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class FlightRecorderTest {
+    private static final FlightRecorder.Event SENT = FlightRecorder.event(FlightRecorder.Level.INFO, "test.sent", "code", "bytes");
+    private static final FlightRecorder.Event TRACE = FlightRecorder.event(FlightRecorder.Level.DEBUG, "test.trace");
+
+    private static String[] lines(FlightRecorder recorder) throws IOException {
+        StringWriter out = new StringWriter();
+        recorder.dump(out);
+        return out.toString().split("\n");
+    }
+
+    @Test
+    public void eventsBelowTheMinimumLevelAreNotRecorded() throws IOException {
+        FlightRecorder recorder = new FlightRecorder(8, FlightRecorder.Level.INFO);
+        recorder.record(TRACE);
+        recorder.record(SENT, 200, 512);
+
+        String[] lines = lines(recorder);
+        assertEquals(1, lines.length);
+        assertTrue(lines[0], lines[0].endsWith(" I test.sent code=200 bytes=512"));
+
+        recorder.setMinLevel(FlightRecorder.Level.DEBUG);
+        recorder.record(TRACE);
+        assertTrue(lines(recorder)[1].endsWith(" D test.trace"));
+    }
+
+    @Test
+    public void fullBufferKeepsTheNewestEvents() throws IOException {
+        FlightRecorder recorder = new FlightRecorder(3, FlightRecorder.Level.VERBOSE);
+        for (int i = 1; i <= 5; i++) {
+            recorder.record(SENT, i);
+        }
+
+        String[] lines = lines(recorder);
+        assertEquals(4, lines.length);
+        assertEquals("... 2 earlier events overwritten", lines[0]);
+        assertTrue(lines[1].endsWith("code=3 bytes=0"));
+        assertTrue(lines[3].endsWith("code=5 bytes=0"));
+    }
+}
@@ -0,0 +1,49 @@
+package com.redvelvet.aicompanion;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SessionStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sessionSurvivesARestart() throws IOException {
+        File file = new File(folder.getRoot(), "session");
+        SessionStore first = new SessionStore(file);
+        assertEquals("", first.cookie());
+        first.saveFingerprint("fp");
+        first.saveSession("connect.sid=s%3Aabc", "abc");
+        first.saveTimeouts("{\"/api/guest/chat\":{\"ttfb\":[900000,200000]}}");
+
+        SessionStore second = new SessionStore(file);
+        assertEquals("fp", second.fingerprint());
+        assertEquals("connect.sid=s%3Aabc", second.cookie());
+        assertEquals("abc", second.sessionId());
+        assertEquals("{\"/api/guest/chat\":{\"ttfb\":[900000,200000]}}", second.timeouts());
+
+        second.saveSession(null, null);
+        SessionStore third = new SessionStore(file);
+        assertEquals("", third.cookie());
+        assertEquals("fp", third.fingerprint());
+    }
+
+    @Test
+    public void unreadableFileStartsFresh() throws IOException {
+        File file = new File(folder.getRoot(), "session");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] {0, 0, 0, 1, 0});
+        }
+        SessionStore store = new SessionStore(file);
+        assertEquals("", store.cookie());
+        assertEquals("", store.fingerprint());
+    }
+}
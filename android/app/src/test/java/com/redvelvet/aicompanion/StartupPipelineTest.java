@@ -0,0 +1,81 @@
+package com.redvelvet.aicompanion;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StartupPipelineTest {
+
+    @Test
+    public void dependentsRunAfterTheirDependencies() {
+        List<String> order = new ArrayList<>();
+        List<StartupPipeline.StageResult> finished = new ArrayList<>();
+
+        new StartupPipeline(Runnable::run)
+            .add("session", () -> order.add("session"))
+            .add("balance", () -> order.add("balance"), "session")
+            .add("status", () -> order.add("status"), "session")
+            .start(finished::addAll);
+
+        assertEquals("session", order.get(0));
+        assertEquals(3, order.size());
+        assertEquals(3, finished.size());
+        for (StartupPipeline.StageResult result : finished) {
+            assertEquals(StartupPipeline.Status.SUCCEEDED, result.status);
+        }
+    }
+
+    @Test
+    public void failedStageSkipsEverythingDownstream() {
+        List<StartupPipeline.StageResult> finished = new ArrayList<>();
+
+        new StartupPipeline(Runnable::run)
+            .add("session", () -> { throw new IOException("offline"); })
+            .add("balance", () -> fail("Must not run without a session"), "session")
+            .add("refresh", () -> fail("Must not run without a balance"), "balance")
+            .start(finished::addAll);
+
+        assertEquals(3, finished.size());
+        assertEquals(StartupPipeline.Status.FAILED, finished.get(0).status);
+        assertEquals(StartupPipeline.Status.SKIPPED, finished.get(1).status);
+        assertEquals(StartupPipeline.Status.SKIPPED, finished.get(2).status);
+    }
+
+    @Test
+    public void retriedStageRunsWhatItsFailureSkipped() {
+        List<String> drained = new ArrayList<>();
+        boolean[] online = {false};
+        List<StartupPipeline.StageResult> finished = new ArrayList<>();
+
+        StartupPipeline pipeline = new StartupPipeline(Runnable::run)
+            .add("identity", () -> { })
+            .add("session", () -> {
+                if (!online[0]) {
+                    throw new IOException("offline");
+                }
+            }, "identity")
+            .add("outbox", () -> drained.add("outbox"), "session")
+            .add("catalog", () -> drained.add("catalog"), "identity");
+        pipeline.start(finished::addAll);
+        assertEquals(StartupPipeline.Status.SKIPPED, finished.get(2).status);
+        assertEquals(List.of("catalog"), drained);
+
+        // Still offline: the stage fails again and can be retried later
+        assertTrue(pipeline.retry("session", Runnable::run));
+        assertEquals(List.of("catalog"), drained);
+
+        online[0] = true;
+        assertTrue(pipeline.retry("session", Runnable::run));
+        assertEquals(List.of("catalog", "outbox"), drained);
+
+        // Only a failed stage is retried, so nothing runs twice
+        assertFalse(pipeline.retry("session", Runnable::run));
+        assertFalse(pipeline.retry("catalog", Runnable::run));
+        assertEquals(List.of("catalog", "outbox"), drained);
+        assertEquals(4, finished.size());
+    }
+}
@@ -0,0 +1,105 @@
+package com.redvelvet.aicompanion;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TaskSchedulerTest {
+
+    private final TaskScheduler scheduler = new TaskScheduler("test");
+
+    @After
+    public void shutDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void backgroundWaitsForInteractiveWork() throws InterruptedException {
+        CountDownLatch sendStarted = new CountDownLatch(1);
+        CountDownLatch releaseSend = new CountDownLatch(1);
+        CountDownLatch backgroundRan = new CountDownLatch(1);
+
+        scheduler.submit(TaskScheduler.Lane.INTERACTIVE, () -> {
+            sendStarted.countDown();
+            await(releaseSend);
+        });
+        assertTrue(sendStarted.await(5, TimeUnit.SECONDS));
+        scheduler.submit(TaskScheduler.Lane.BACKGROUND, backgroundRan::countDown);
+
+        assertFalse(backgroundRan.await(200, TimeUnit.MILLISECONDS));
+        releaseSend.countDown();
+        assertTrue(backgroundRan.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void foregroundIsNotHeldBackByInteractiveWork() throws InterruptedException {
+        CountDownLatch releaseSend = new CountDownLatch(1);
+        CountDownLatch foregroundRan = new CountDownLatch(1);
+
+        scheduler.submit(TaskScheduler.Lane.INTERACTIVE, () -> await(releaseSend));
+        scheduler.submit(TaskScheduler.Lane.FOREGROUND, foregroundRan::countDown);
+
+        assertTrue(foregroundRan.await(5, TimeUnit.SECONDS));
+        releaseSend.countDown();
+    }
+
+    @Test
+    public void laneNeverExceedsItsConcurrencyLimit() throws InterruptedException {
+        int tasks = 10;
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(tasks);
+
+        for (int i = 0; i < tasks; i++) {
+            scheduler.submit(TaskScheduler.Lane.FOREGROUND, () -> {
+                peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+                sleep(20);
+                active.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(TaskScheduler.Lane.FOREGROUND.maxConcurrency, peak.get());
+    }
+
+    @Test
+    public void shutdownLetsQueuedWorkFinish() throws InterruptedException {
+        CountDownLatch releaseSend = new CountDownLatch(1);
+        CountDownLatch flushed = new CountDownLatch(1);
+        CountDownLatch followUp = new CountDownLatch(1);
+
+        scheduler.submit(TaskScheduler.Lane.INTERACTIVE, () -> await(releaseSend));
+        // A write-behind flush, deferred behind the send, that queues more work of its own
+        scheduler.submit(TaskScheduler.Lane.BACKGROUND, () -> {
+            flushed.countDown();
+            scheduler.submit(TaskScheduler.Lane.BACKGROUND, followUp::countDown);
+        });
+        scheduler.shutdown();
+        releaseSend.countDown();
+
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        assertTrue(followUp.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.redvelvet.aicompanion.protocol;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end request handling through GuestApiClient against the in-process
+ * stand-in server: payload encoding, HTTP over a pooled loopback connection,
+ * and response parsing. Run with -prof gc for allocation per chat turn.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChatTurnBenchmark {
+    private GuestApiStandInServer server;
+    private GuestApiClient client;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new GuestApiStandInServer();
+        client = new GuestApiClient(server.baseUrl());
+        client.setDefaultHeader("User-Agent", "RedVelvet-Android/1.0");
+        client.setDefaultHeader("X-Device-Fingerprint", "benchmark");
+        client.setDefaultHeader("X-Platform", "android");
+        client.get("/api/guest/session", GuestApiClient.Timeout.SESSION);
+    }
+
+    @Setup(Level.Iteration)
+    public void refill() {
+        server.setDiamonds(Integer.MAX_VALUE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public GuestApiJson.ChatReply chatTurn() throws IOException {
+        String payload = GuestApiJson.chatRequest(1, "How was your day?");
+        GuestApiClient.Response response = client.postJson("/api/guest/chat", payload, GuestApiClient.Timeout.CHAT);
+        return GuestApiJson.parseChatReply(response.body);
+    }
+
+    @Benchmark
+    public Integer balanceRefresh() throws IOException {
+        GuestApiClient.Response response = client.get("/api/guest/diamonds", GuestApiClient.Timeout.BALANCE);
+        return GuestApiJson.parseIntField(response.body, "diamonds");
+    }
+}
@@ -0,0 +1,100 @@
+package com.redvelvet.aicompanion.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Response parsing and payload building, the CPU work done per chat turn, in JSON and in CBOR. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+    private String sessionBody;
+    private String shortReplyBody;
+    private String longReplyBody;
+    private byte[] longReplyCbor;
+    private String plainMessage;
+    private String escapedMessage;
+
+    @Setup
+    public void setUp() {
+        sessionBody = "{\"sessionId\":\"Yh3kq0w7r1mZxV8d\",\"preferredGender\":\"both\",\"messageDiamonds\":25,"
+            + "\"accessibleCompanionIds\":[1,2,3,4,5],\"hasReceivedWelcomeDiamonds\":true}";
+        shortReplyBody = chatBody(new JsonWriter(), "Hey, what's on your mind?").toString();
+
+        StringBuilder longReply = new StringBuilder();
+        while (longReply.length() < 4096) {
+            longReply.append("I told her \"you're amazing\" ❤️ and she smiled.\nThen we talked for hours. ");
+        }
+        longReplyBody = chatBody(new JsonWriter(), longReply.toString()).toString();
+        longReplyCbor = chatBody(new CborWriter(), longReply.toString()).toByteArray();
+
+        plainMessage = "How was your day? Tell me everything about it";
+        escapedMessage = "She said \"hi\"\nand left \\ again\t❤";
+    }
+
+    private static <W extends ValueWriter> W chatBody(W out, String reply) {
+        out.beginObject()
+            .name("success").value(true)
+            .name("response").value(reply)
+            .name("remainingDiamonds").value(24)
+            .endObject();
+        return out;
+    }
+
+    @Benchmark
+    public GuestApiJson.Session parseSession() throws IOException {
+        return GuestApiJson.parseSession(sessionBody);
+    }
+
+    @Benchmark
+    public GuestApiJson.ChatReply parseShortReply() throws IOException {
+        return GuestApiJson.parseChatReply(shortReplyBody);
+    }
+
+    @Benchmark
+    public GuestApiJson.ChatReply parseLongReply() throws IOException {
+        return GuestApiJson.parseChatReply(longReplyBody);
+    }
+
+    @Benchmark
+    public GuestApiJson.ChatReply parseLongReplyCbor() throws IOException {
+        return GuestApiJson.parseChatReply(new CborReader(new ByteArrayInputStream(longReplyCbor)));
+    }
+
+    @Benchmark
+    public Integer parseBalance() throws IOException {
+        return GuestApiJson.parseIntField("{\"diamonds\":24}", "diamonds");
+    }
+
+    @Benchmark
+    public String buildPlainPayload() {
+        return GuestApiJson.chatRequest(3, plainMessage);
+    }
+
+    @Benchmark
+    public String buildEscapedPayload() {
+        return GuestApiJson.chatRequest(3, escapedMessage);
+    }
+
+    @Benchmark
+    public byte[] buildEscapedPayloadCbor() {
+        CborWriter out = new CborWriter();
+        GuestApiJson.writeChatRequest(out, 3, escapedMessage);
+        return out.toByteArray();
+    }
+}
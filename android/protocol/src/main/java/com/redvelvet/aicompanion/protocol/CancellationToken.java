@@ -0,0 +1,97 @@
+package com.redvelvet.aicompanion.protocol;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cancels every request made through a client bound to it with
+ * {@link GuestApiClient#scoped}.
+ *
+ * Cancelling disconnects the in-flight connections, which aborts their blocking
+ * reads from another thread; requests started afterwards fail before connecting.
+ * The disconnects run on a helper thread, because on some runtimes disconnect
+ * waits for a read in progress to return, so {@link #cancel} never blocks.
+ * Tokens nest: cancelling a token also cancels the children made from it.
+ */
+public final class CancellationToken {
+    private final CancellationToken parent;
+    private final Set<HttpURLConnection> connections = new HashSet<>();
+    private final Set<CancellationToken> children = new HashSet<>();
+    private boolean cancelled;
+
+    public CancellationToken() {
+        this(null);
+    }
+
+    private CancellationToken(CancellationToken parent) {
+        this.parent = parent;
+    }
+
+    /** A token that is cancelled together with this one, or on its own. */
+    public CancellationToken child() {
+        CancellationToken child = new CancellationToken(this);
+        synchronized (this) {
+            if (!cancelled) {
+                children.add(child);
+                return child;
+            }
+        }
+        child.cancel();
+        return child;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void cancel() {
+        List<HttpURLConnection> open;
+        List<CancellationToken> nested;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            open = new ArrayList<>(connections);
+            nested = new ArrayList<>(children);
+            connections.clear();
+            children.clear();
+        }
+        if (!open.isEmpty()) {
+            // The JDK's disconnect takes the stream lock a reader blocked in read() holds until it times out
+            Thread disconnector = new Thread(() -> {
+                for (HttpURLConnection connection : open) {
+                    connection.disconnect();
+                }
+            }, "CancellationToken");
+            disconnector.setDaemon(true);
+            disconnector.start();
+        }
+        for (CancellationToken child : nested) {
+            child.cancel();
+        }
+        if (parent != null) {
+            parent.remove(this);
+        }
+    }
+
+    // False if already cancelled, in which case the caller must not connect
+    synchronized boolean register(HttpURLConnection connection) {
+        if (cancelled) {
+            return false;
+        }
+        connections.add(connection);
+        return true;
+    }
+
+    synchronized void unregister(HttpURLConnection connection) {
+        connections.remove(connection);
+    }
+
+    private synchronized void remove(CancellationToken child) {
+        children.remove(child);
+    }
+}
@@ -0,0 +1,399 @@
+package com.redvelvet.aicompanion.protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Pull parser for CBOR (RFC 8949) read straight from a stream.
+ *
+ * Covers the JSON data model: maps with text keys, arrays, text strings,
+ * integers, booleans and null, in definite or indefinite length. Floats and
+ * tags are accepted and skipped where the caller does not ask for them. Text
+ * is decoded from one reusable byte buffer, so a reply costs a single String.
+ */
+public final class CborReader implements ValueReader {
+    public static final String CONTENT_TYPE = "application/cbor";
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_TAG = 6;
+    private static final int MAJOR_SIMPLE = 7;
+    private static final int INDEFINITE = 31;
+    private static final int BREAK = 0xFF;
+
+    private final InputStream in;
+    private int peeked = -1; // Initial byte of the next item once read, else -1
+    private byte[] buffer = new byte[256];
+    // Per open container: items left (keys and values both count), or -1 until a break byte
+    private long[] remaining = new long[16];
+    private boolean[] isMap = new boolean[16];
+    private boolean[] awaitingName = new boolean[16]; // Maps alternate key, value, key, ...
+    private int depth;
+
+    public CborReader(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public Token peek() throws IOException {
+        if (depth > 0 && remaining[depth - 1] == 0) {
+            return isMap[depth - 1] ? Token.END_OBJECT : Token.END_ARRAY;
+        }
+        int initial = initialByte(depth > 0);
+        if (initial == -1) {
+            return Token.END_DOCUMENT;
+        }
+        if (initial == BREAK) {
+            if (depth == 0 || remaining[depth - 1] != -1) {
+                throw new IOException("Unexpected CBOR break");
+            }
+            return isMap[depth - 1] ? Token.END_OBJECT : Token.END_ARRAY;
+        }
+        if (expectingName()) {
+            return Token.NAME;
+        }
+        switch (initial >>> 5) {
+            case MAJOR_UNSIGNED:
+            case MAJOR_NEGATIVE:
+                return Token.NUMBER;
+            case MAJOR_BYTES:
+            case MAJOR_TEXT:
+                return Token.STRING;
+            case MAJOR_ARRAY:
+                return Token.BEGIN_ARRAY;
+            case MAJOR_MAP:
+                return Token.BEGIN_OBJECT;
+            case MAJOR_TAG:
+                peeked = -1;
+                readArgument(initial); // Tags only annotate; the tagged item stands for itself
+                return peek();
+            default:
+                switch (initial & 0x1F) {
+                    case 20:
+                    case 21:
+                        return Token.BOOLEAN;
+                    case 22:
+                    case 23:
+                        return Token.NULL;
+                    case 25:
+                    case 26:
+                    case 27:
+                        return Token.NUMBER;
+                    default:
+                        throw new IOException("Unsupported CBOR simple value " + (initial & 0x1F));
+                }
+        }
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        open(Token.BEGIN_OBJECT, true);
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        close(Token.END_OBJECT);
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        open(Token.BEGIN_ARRAY, false);
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        close(Token.END_ARRAY);
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        int initial = take();
+        if (initial >>> 5 != MAJOR_TEXT) {
+            throw new IOException("CBOR map keys must be text");
+        }
+        String name = readText(initial);
+        consumed();
+        return name;
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        expect(Token.STRING);
+        String value = readText(take());
+        consumed();
+        return value;
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        boolean value = (take() & 0x1F) == 21;
+        consumed();
+        return value;
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+        take();
+        consumed();
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        expect(Token.NUMBER);
+        int initial = take();
+        long value;
+        switch (initial >>> 5) {
+            case MAJOR_UNSIGNED:
+                value = readArgument(initial);
+                if (value < 0) {
+                    throw new IOException("Number out of range");
+                }
+                break;
+            case MAJOR_NEGATIVE:
+                value = readArgument(initial);
+                if (value < 0) {
+                    throw new IOException("Number out of range");
+                }
+                value = -1 - value;
+                break;
+            default:
+                double real = readFloat(initial);
+                if (real != Math.rint(real) || Math.abs(real) > Long.MAX_VALUE) {
+                    throw new IOException("Expected an integer");
+                }
+                value = (long) real;
+        }
+        consumed();
+        return value;
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IOException("Number out of int range");
+        }
+        return (int) value;
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                endArray();
+                break;
+            case NAME:
+                nextName();
+                break;
+            case STRING:
+                readText(take());
+                consumed();
+                break;
+            case NUMBER:
+                int initial = take();
+                if (initial >>> 5 == MAJOR_SIMPLE) {
+                    readFloat(initial);
+                } else {
+                    readArgument(initial);
+                }
+                consumed();
+                break;
+            case BOOLEAN:
+            case NULL:
+                take();
+                consumed();
+                break;
+            default:
+                throw new IOException("Nothing to skip");
+        }
+    }
+
+    private void open(Token token, boolean map) throws IOException {
+        expect(token);
+        long count = readArgument(take());
+        if (depth == remaining.length) {
+            remaining = Arrays.copyOf(remaining, depth * 2);
+            isMap = Arrays.copyOf(isMap, depth * 2);
+            awaitingName = Arrays.copyOf(awaitingName, depth * 2);
+        }
+        remaining[depth] = count == -1 ? -1 : map ? count * 2 : count;
+        isMap[depth] = map;
+        awaitingName[depth] = map;
+        depth++;
+    }
+
+    private void close(Token token) throws IOException {
+        expect(token);
+        if (remaining[depth - 1] == -1) {
+            take(); // The break byte
+        }
+        depth--;
+        consumed();
+    }
+
+    private void expect(Token token) throws IOException {
+        Token actual = peek();
+        if (actual != token) {
+            throw new IOException("Expected " + token + " but was " + actual);
+        }
+    }
+
+    private boolean expectingName() {
+        return depth > 0 && awaitingName[depth - 1];
+    }
+
+    // Called after each complete item, containers included
+    private void consumed() {
+        if (depth == 0) {
+            return;
+        }
+        if (remaining[depth - 1] > 0) {
+            remaining[depth - 1]--;
+        }
+        if (isMap[depth - 1]) {
+            awaitingName[depth - 1] = !awaitingName[depth - 1];
+        }
+    }
+
+    private int initialByte(boolean required) throws IOException {
+        if (peeked == -1) {
+            peeked = in.read();
+            if (peeked == -1 && required) {
+                throw new EOFException("Truncated CBOR");
+            }
+        }
+        return peeked;
+    }
+
+    private int take() throws IOException {
+        int initial = initialByte(true);
+        peeked = -1;
+        return initial;
+    }
+
+    // The length or value following an initial byte; -1 for indefinite length
+    private long readArgument(int initial) throws IOException {
+        int info = initial & 0x1F;
+        if (info < 24) {
+            return info;
+        }
+        switch (info) {
+            case 24:
+                return readUnsigned(1);
+            case 25:
+                return readUnsigned(2);
+            case 26:
+                return readUnsigned(4);
+            case 27:
+                return readUnsigned(8);
+            case INDEFINITE:
+                return -1;
+            default:
+                throw new IOException("Malformed CBOR argument " + info);
+        }
+    }
+
+    private long readUnsigned(int bytes) throws IOException {
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Truncated CBOR");
+            }
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    private double readFloat(int initial) throws IOException {
+        switch (initial & 0x1F) {
+            case 25:
+                return halfToDouble((int) readUnsigned(2));
+            case 26:
+                return Float.intBitsToFloat((int) readUnsigned(4));
+            case 27:
+                return Double.longBitsToDouble(readUnsigned(8));
+            default:
+                throw new IOException("Expected a number");
+        }
+    }
+
+    private static double halfToDouble(int half) {
+        int exponent = (half >> 10) & 0x1F;
+        int mantissa = half & 0x3FF;
+        double value;
+        if (exponent == 0) {
+            value = mantissa * Math.pow(2, -24);
+        } else if (exponent == 31) {
+            value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+        } else {
+            value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+        }
+        return (half & 0x8000) != 0 ? -value : value;
+    }
+
+    // Text, or a byte string read as UTF-8; indefinite-length strings are joined from their chunks
+    private String readText(int initial) throws IOException {
+        long length = readArgument(initial);
+        if (length != -1) {
+            fill(0, length);
+            return new String(buffer, 0, (int) length, StandardCharsets.UTF_8);
+        }
+        int size = 0;
+        for (int chunk = take(); chunk != BREAK; chunk = take()) {
+            long chunkLength = readArgument(chunk);
+            if (chunkLength == -1 || chunk >>> 5 != initial >>> 5) {
+                throw new IOException("Malformed CBOR string chunk");
+            }
+            fill(size, chunkLength);
+            size += (int) chunkLength;
+        }
+        return new String(buffer, 0, size, StandardCharsets.UTF_8);
+    }
+
+    // Reads length bytes into the buffer at offset, growing it as needed
+    private void fill(int offset, long length) throws IOException {
+        if (offset + length > Integer.MAX_VALUE - 8) {
+            throw new IOException("CBOR string too long");
+        }
+        int end = offset + (int) length;
+        if (end > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(end, buffer.length * 2));
+        }
+        for (int pos = offset; pos < end; ) {
+            int read = in.read(buffer, pos, end - pos);
+            if (read == -1) {
+                throw new EOFException("Truncated CBOR");
+            }
+            pos += read;
+        }
+    }
+}
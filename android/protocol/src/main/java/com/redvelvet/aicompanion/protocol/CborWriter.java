@@ -0,0 +1,117 @@
+package com.redvelvet.aicompanion.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal CBOR (RFC 8949) writer for request payloads, the binary counterpart
+ * of {@link JsonWriter}. Objects and arrays are written with indefinite length
+ * so nothing has to be counted up front; integers use the shortest encoding.
+ */
+public final class CborWriter implements ValueWriter {
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_TEXT = 3;
+
+    private byte[] out = new byte[64];
+    private int size;
+
+    @Override
+    public CborWriter beginObject() {
+        write(0xBF);
+        return this;
+    }
+
+    @Override
+    public CborWriter endObject() {
+        write(0xFF);
+        return this;
+    }
+
+    @Override
+    public CborWriter beginArray() {
+        write(0x9F);
+        return this;
+    }
+
+    @Override
+    public CborWriter endArray() {
+        write(0xFF);
+        return this;
+    }
+
+    @Override
+    public CborWriter name(String name) {
+        return value(name);
+    }
+
+    @Override
+    public CborWriter value(String value) {
+        if (value == null) {
+            write(0xF6);
+            return this;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeHeader(MAJOR_TEXT, utf8.length);
+        ensure(utf8.length);
+        System.arraycopy(utf8, 0, out, size, utf8.length);
+        size += utf8.length;
+        return this;
+    }
+
+    @Override
+    public CborWriter value(long value) {
+        if (value >= 0) {
+            writeHeader(MAJOR_UNSIGNED, value);
+        } else {
+            writeHeader(MAJOR_NEGATIVE, -1 - value);
+        }
+        return this;
+    }
+
+    @Override
+    public CborWriter value(boolean value) {
+        write(value ? 0xF5 : 0xF4);
+        return this;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(out, size);
+    }
+
+    private void writeHeader(int major, long argument) {
+        int type = major << 5;
+        if (argument < 24) {
+            write(type | (int) argument);
+        } else if (argument < 0x100) {
+            write(type | 24);
+            writeBytes(argument, 1);
+        } else if (argument < 0x10000) {
+            write(type | 25);
+            writeBytes(argument, 2);
+        } else if (argument < 0x100000000L) {
+            write(type | 26);
+            writeBytes(argument, 4);
+        } else {
+            write(type | 27);
+            writeBytes(argument, 8);
+        }
+    }
+
+    private void writeBytes(long value, int count) {
+        for (int shift = (count - 1) * 8; shift >= 0; shift -= 8) {
+            write((int) (value >>> shift));
+        }
+    }
+
+    private void write(int b) {
+        ensure(1);
+        out[size++] = (byte) b;
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > out.length) {
+            out = Arrays.copyOf(out, Math.max(size + extra, out.length * 2));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.redvelvet.aicompanion.protocol;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory latency histograms per endpoint and request phase.
+ *
+ * {@link GuestApiClient} records the network phases of every API call; callers
+ * time their own body parsing through {@link #parse}. {@link #snapshot} exports
+ * everything as compact JSON for a debug screen, and {@link #drain} does the
+ * same while starting a new interval, for batched uploads.
+ */
+public final class EndpointMetrics {
+
+    public enum Phase {
+        CONNECT("connect"),       // DNS, TCP and TLS; near zero when a pooled connection is reused
+        FIRST_BYTE("ttfb"),       // Request sent until the status line arrives
+        DOWNLOAD("download"),     // Reading the body, or the whole event stream
+        PARSE("parse");           // Turning the body into objects
+
+        final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    /** A parse step to be timed, e.g. {@code () -> GuestApiJson.parseChatReply(response.reader())}. */
+    public interface Parser<T> {
+        T parse() throws IOException;
+    }
+
+    private Map<String, Map<Phase, LatencyHistogram>> histograms = new TreeMap<>();
+    private long intervalStartMillis = System.currentTimeMillis();
+
+    public void record(String endpoint, Phase phase, long nanos) {
+        histogram(endpoint, phase).record(nanos / 1000);
+    }
+
+    public <T> T parse(String endpoint, Parser<T> parser) throws IOException {
+        long start = System.nanoTime();
+        T result = parser.parse();
+        record(endpoint, Phase.PARSE, System.nanoTime() - start);
+        return result;
+    }
+
+    /** A copy of the current interval's histogram; empty if nothing was recorded. */
+    public LatencyHistogram get(String endpoint, Phase phase) {
+        LatencyHistogram histogram;
+        synchronized (this) {
+            Map<Phase, LatencyHistogram> phases = histograms.get(endpoint);
+            histogram = phases == null ? null : phases.get(phase);
+        }
+        return histogram == null ? new LatencyHistogram() : histogram.copy();
+    }
+
+    /** The current interval as JSON, leaving it running. */
+    public synchronized String snapshot() {
+        return toJson(histograms, intervalStartMillis, System.currentTimeMillis());
+    }
+
+    /** The current interval as JSON, then starts a new one; for periodic uploads. */
+    public String drain() {
+        Map<String, Map<Phase, LatencyHistogram>> finished;
+        long start;
+        long end = System.currentTimeMillis();
+        synchronized (this) {
+            finished = histograms;
+            start = intervalStartMillis;
+            histograms = new TreeMap<>();
+            intervalStartMillis = end;
+        }
+        return toJson(finished, start, end);
+    }
+
+    private synchronized LatencyHistogram histogram(String endpoint, Phase phase) {
+        Map<Phase, LatencyHistogram> phases = histograms.get(endpoint);
+        if (phases == null) {
+            phases = new EnumMap<>(Phase.class);
+            histograms.put(endpoint, phases);
+        }
+        LatencyHistogram histogram = phases.get(phase);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            phases.put(phase, histogram);
+        }
+        return histogram;
+    }
+
+    // Values are microseconds; interval bounds are epoch milliseconds
+    private static String toJson(Map<String, Map<Phase, LatencyHistogram>> histograms, long startMillis, long endMillis) {
+        JsonWriter json = new JsonWriter(new StringBuilder(256))
+            .beginObject()
+            .name("from").value(startMillis)
+            .name("to").value(endMillis)
+            .name("endpoints").beginObject();
+        for (Map.Entry<String, Map<Phase, LatencyHistogram>> endpoint : histograms.entrySet()) {
+            json.name(endpoint.getKey()).beginObject();
+            for (Map.Entry<Phase, LatencyHistogram> phase : endpoint.getValue().entrySet()) {
+                json.name(phase.getKey().key);
+                phase.getValue().writeTo(json);
+            }
+            json.endObject();
+        }
+        return json.endObject().endObject().toString();
+    }
+}
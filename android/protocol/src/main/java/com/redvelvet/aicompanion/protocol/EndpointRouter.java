@@ -0,0 +1,165 @@
+package com.redvelvet.aicompanion.protocol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The server origins a {@link GuestApiClient} may use, and which one to use next.
+ *
+ * Every origin must serve the same backend, so a session cookie from one is
+ * honoured by the others. Health is tracked passively from real requests: a
+ * connection that cannot be made, a timeout before the status line and a 5xx
+ * count as failures, and {@link #FAILURES_TO_EJECT} in a row take the origin
+ * out of rotation for a cooldown that doubles each time it is ejected again.
+ * After the cooldown it is back on probation: a single failure ejects it
+ * again, a success restores it fully.
+ *
+ * Among healthy origins, one that has just failed ranks behind those that have
+ * not, so traffic moves away from an erroring origin before it is ejected. Then
+ * the lowest smoothed handshake time wins, so each user settles on the nearest
+ * origin. Origins not yet measured rank first so that each is tried once; ties
+ * go to configuration order. If every origin is ejected, the one due back
+ * soonest is used rather than failing outright.
+ */
+public final class EndpointRouter {
+    static final int FAILURES_TO_EJECT = 3;
+    static final long MIN_EJECT_MILLIS = 10_000;
+    static final long MAX_EJECT_MILLIS = 300_000;
+
+    private static final class Origin {
+        final String baseUrl;
+        long latencyMicros = -1; // Smoothed handshake time; -1 until measured
+        int failures; // Consecutive
+        int ejections; // Consecutive; reset by a success
+        long ejectedUntilNanos;
+
+        Origin(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+    }
+
+    private final List<Origin> origins = new ArrayList<>();
+
+    /** @param baseUrls origins such as {@code https://host}, in order of preference; at least one */
+    public EndpointRouter(List<String> baseUrls) {
+        for (String baseUrl : baseUrls) {
+            String trimmed = baseUrl.trim();
+            while (trimmed.endsWith("/")) {
+                trimmed = trimmed.substring(0, trimmed.length() - 1);
+            }
+            if (!trimmed.isEmpty()) {
+                origins.add(new Origin(trimmed));
+            }
+        }
+        if (origins.isEmpty()) {
+            throw new IllegalArgumentException("No endpoints in " + baseUrls);
+        }
+    }
+
+    /** A router over a comma-separated list of origins, as kept in build configuration. */
+    public static EndpointRouter parse(String configured) {
+        List<String> baseUrls = new ArrayList<>();
+        Collections.addAll(baseUrls, configured.split(","));
+        return new EndpointRouter(baseUrls);
+    }
+
+    /** The origin the next request should go to. */
+    public String select() {
+        return select(System.nanoTime(), null);
+    }
+
+    /** The best origin other than those already tried for this request, or null if none is healthy. */
+    public String next(List<String> tried) {
+        return select(System.nanoTime(), tried);
+    }
+
+    /**
+     * A request got a non-5xx answer from the origin. {@code handshakeNanos} is the
+     * time to establish a new connection, or a negative value if a pooled one was used.
+     */
+    public synchronized void succeeded(String baseUrl, long handshakeNanos) {
+        Origin origin = find(baseUrl);
+        if (origin == null) {
+            return;
+        }
+        origin.failures = 0;
+        origin.ejections = 0;
+        origin.ejectedUntilNanos = 0;
+        if (handshakeNanos >= 0) {
+            long micros = handshakeNanos / 1000;
+            origin.latencyMicros = origin.latencyMicros < 0 ? micros : (7 * origin.latencyMicros + micros) / 8;
+        }
+    }
+
+    /** A request to the origin could not connect, timed out or got a 5xx. */
+    public void failed(String baseUrl) {
+        failed(baseUrl, System.nanoTime());
+    }
+
+    synchronized void failed(String baseUrl, long nowNanos) {
+        Origin origin = find(baseUrl);
+        if (origin == null) {
+            return;
+        }
+        origin.failures++;
+        // On probation after a cooldown, one failure is enough
+        if (origin.failures >= FAILURES_TO_EJECT || origin.ejections > 0) {
+            long cooldown = Math.min(MAX_EJECT_MILLIS, MIN_EJECT_MILLIS << Math.min(origin.ejections, 5));
+            origin.ejections++;
+            origin.failures = 0;
+            origin.ejectedUntilNanos = nowNanos + cooldown * 1_000_000;
+        }
+    }
+
+    /** Whether the origin is currently in rotation. */
+    public boolean isHealthy(String baseUrl) {
+        return isHealthy(baseUrl, System.nanoTime());
+    }
+
+    synchronized boolean isHealthy(String baseUrl, long nowNanos) {
+        Origin origin = find(baseUrl);
+        return origin != null && healthy(origin, nowNanos);
+    }
+
+    synchronized String select(long nowNanos, List<String> tried) {
+        Origin best = null;
+        for (Origin origin : origins) {
+            if (healthy(origin, nowNanos) && (tried == null || !tried.contains(origin.baseUrl))
+                && (best == null || better(origin, best))) {
+                best = origin;
+            }
+        }
+        if (best != null || tried != null) {
+            return best == null ? null : best.baseUrl;
+        }
+        // All ejected: the least bad choice is the one due back first
+        for (Origin origin : origins) {
+            if (best == null || origin.ejectedUntilNanos - best.ejectedUntilNanos < 0) {
+                best = origin;
+            }
+        }
+        return best.baseUrl;
+    }
+
+    // Fewer recent failures first, then lower latency; unmeasured counts as fastest
+    private static boolean better(Origin origin, Origin than) {
+        if (origin.failures != than.failures) {
+            return origin.failures < than.failures;
+        }
+        return origin.latencyMicros < than.latencyMicros;
+    }
+
+    private static boolean healthy(Origin origin, long nowNanos) {
+        return origin.ejectedUntilNanos == 0 || nowNanos - origin.ejectedUntilNanos >= 0;
+    }
+
+    private Origin find(String baseUrl) {
+        for (Origin origin : origins) {
+            if (origin.baseUrl.equals(baseUrl)) {
+                return origin;
+            }
+        }
+        return null;
+    }
+}
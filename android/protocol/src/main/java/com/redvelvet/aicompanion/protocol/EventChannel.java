@@ -0,0 +1,140 @@
+package com.redvelvet.aicompanion.protocol;
+
+import java.io.IOException;
+
+/**
+ * Keeps one server-sent event stream open for the life of the app, so state the
+ * server owns (balance, purchases, session expiry) arrives as it changes instead
+ * of being polled.
+ *
+ * The stream runs on its own thread and reconnects with exponential backoff.
+ * A server without the endpoint is retried at the slowest rate only. Events and
+ * state changes are delivered on that thread.
+ */
+public final class EventChannel implements AutoCloseable {
+    static final long MIN_RETRY_MILLIS = 1000;
+    static final long MAX_RETRY_MILLIS = 60000;
+
+    public interface Listener {
+        void onEvent(String event, String data);
+
+        /**
+         * Connected once the first event arrives, disconnected when the stream drops.
+         * While disconnected, anything the server pushes is missed and must be pulled.
+         */
+        void onConnectionChanged(boolean connected);
+    }
+
+    private final GuestApiClient client;
+    private final String path;
+    private final Listener listener;
+    private final CancellationToken token = new CancellationToken();
+    private final Object lock = new Object();
+    private Thread thread;
+    private boolean closed;
+    private boolean retryNow;
+    private volatile boolean connected;
+
+    public EventChannel(GuestApiClient client, String path, Listener listener) {
+        this.client = client.scoped(token);
+        this.path = path;
+        this.listener = listener;
+    }
+
+    /** Starts the stream; calling it again while running does nothing. */
+    public void start() {
+        synchronized (lock) {
+            if (thread != null || closed) {
+                return;
+            }
+            thread = new Thread(this::run, "EventChannel");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /** Cuts a pending retry short, e.g. when a network has just come up. */
+    public void reconnectNow() {
+        synchronized (lock) {
+            retryNow = true;
+            lock.notifyAll();
+        }
+    }
+
+    /** Drops the stream and stops reconnecting. */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        token.cancel();
+    }
+
+    private void run() {
+        long retryMillis = MIN_RETRY_MILLIS;
+        while (!isClosed()) {
+            boolean unsupported = false;
+            try {
+                GuestApiClient.Response response = client.subscribe(path, GuestApiClient.Timeout.EVENTS, (event, data) -> {
+                    if (!connected) {
+                        connected = true;
+                        listener.onConnectionChanged(true);
+                    }
+                    listener.onEvent(event, data);
+                });
+                // A plain 200 (e.g. an SPA fallback page) or 404 means the server has no such stream
+                unsupported = !response.streamed && (response.code == 200 || response.code == 404);
+            } catch (IOException e) {
+                // Dropped, timed out or cancelled; the loop decides which
+            }
+            if (connected) {
+                connected = false;
+                listener.onConnectionChanged(false);
+                retryMillis = MIN_RETRY_MILLIS;
+            }
+            if (unsupported) {
+                retryMillis = MAX_RETRY_MILLIS;
+            }
+            if (!sleep(retryMillis)) {
+                return;
+            }
+            retryMillis = retryNow() ? MIN_RETRY_MILLIS : Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+        }
+    }
+
+    private boolean isClosed() {
+        synchronized (lock) {
+            return closed;
+        }
+    }
+
+    private boolean retryNow() {
+        synchronized (lock) {
+            boolean now = retryNow;
+            retryNow = false;
+            return now;
+        }
+    }
+
+    // Returns false if the channel was closed while waiting
+    private boolean sleep(long millis) {
+        long deadline = System.currentTimeMillis() + millis;
+        synchronized (lock) {
+            long left;
+            while (!closed && !retryNow && (left = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    lock.wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return !closed;
+        }
+    }
+}
@@ -0,0 +1,720 @@
+package com.redvelvet.aicompanion.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Shared client for the RedVelvet guest API.
+ *
+ * Every call goes through the platform HttpURLConnection pool: response bodies
+ * are always drained and closed and connections are never disconnect()ed, so the
+ * underlying socket is handed back to the pool and reused by the next request
+ * instead of paying a fresh TCP+TLS handshake per chat turn.
+ *
+ * {@link #scoped} returns a view that shares headers and the session cookie but
+ * ties its requests to a {@link CancellationToken}, so a screen can abort what
+ * it started without affecting anyone else's calls. Every API call records its
+ * phase timings into {@link #metrics()}, and its deadlines come from {@link #timeouts()}.
+ *
+ * Calls that can take a compact body ({@link #getNegotiated}, {@link #postStreaming})
+ * advertise CBOR in their Accept header and JSON stays the fallback. Once the
+ * server has answered in CBOR, request bodies are sent as CBOR too.
+ *
+ * With a {@link SessionHandler} set, a stored cookie can be used without first
+ * negotiating a session: a 401 asks the handler for a new session and the
+ * request is retried once. With a {@link NetworkState} set, calls made while the
+ * device is offline fail at once with {@link OfflineException}.
+ *
+ * Requests go to the origin chosen by the client's {@link EndpointRouter}, which
+ * learns from their outcomes. A request that could not connect is sent to the
+ * next healthy origin; nothing reached the server, so this is safe for any method.
+ *
+ * With an {@link HttpCache} set, {@link #get(String, Timeout)} and
+ * {@link #getNegotiated} answer from it as its Cache-Control rules allow.
+ */
+public class GuestApiClient {
+    /** Request header naming one logical request, so the server can answer a retry without repeating it. */
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final String SESSION_COOKIE_NAME = "connect.sid=";
+    private static final String JSON_TYPE = "application/json";
+    private static final long REUSED_CONNECTION_NANOS = 1_000_000;
+
+    /**
+     * Connect/read deadlines per kind of call, in milliseconds. Adaptive profiles
+     * only apply until {@link TimeoutEstimator} has measured the endpoint, and a
+     * profile for calls that are not safe to repeat never has its read deadline
+     * learned below the static one. {@code streamMillis} is the longest pause
+     * allowed between events once a reply streams.
+     */
+    public enum Timeout {
+        PROBE(5000, 5000),
+        SESSION(5000, 5000),
+        STATUS(5000, 10000),
+        BALANCE(10000, 10000),
+        CATALOG(5000, 10000),
+        IMAGE(5000, 15000),
+        CHAT(10000, 15000, 30000, true, false), // Time to first byte is generation time, which varies widely
+        EVENTS(10000, 60000, 60000, false, true); // Push stream: the server pings every 25s, so a minute of silence means it is gone
+
+        final int connectMillis;
+        final int readMillis;
+        final int streamMillis;
+        final boolean adaptive;
+        final boolean repeatable;
+
+        Timeout(int connectMillis, int readMillis) {
+            this(connectMillis, readMillis, readMillis, true, true);
+        }
+
+        Timeout(int connectMillis, int readMillis, int streamMillis, boolean adaptive, boolean repeatable) {
+            this.connectMillis = connectMillis;
+            this.readMillis = readMillis;
+            this.streamMillis = streamMillis;
+            this.adaptive = adaptive;
+            this.repeatable = repeatable;
+        }
+    }
+
+    /** Status code, headers and fully read body of a finished request. */
+    public static final class Response {
+        public final int code;
+        public final String body; // Empty when the body is CBOR or was streamed
+        public final boolean streamed;
+        private final byte[] binaryBody; // Null unless the server answered in CBOR
+        private final Map<String, List<String>> headers;
+
+        Response(int code, String body, byte[] binaryBody, boolean streamed, Map<String, List<String>> headers) {
+            this.code = code;
+            this.body = body;
+            this.binaryBody = binaryBody;
+            this.streamed = streamed;
+            this.headers = headers;
+        }
+
+        public boolean isBinary() {
+            return binaryBody != null;
+        }
+
+        byte[] binaryBody() {
+            return binaryBody;
+        }
+
+        /** A pull parser over the body in whichever encoding the server chose. */
+        public ValueReader reader() {
+            return binaryBody != null ? new CborReader(new ByteArrayInputStream(binaryBody)) : new JsonReader(body);
+        }
+
+        public boolean isSuccessful() {
+            return code >= 200 && code < 300;
+        }
+
+        /** First value of a response header, matched case-insensitively; null when absent. */
+        public String header(String name) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                    return header.getValue().get(0);
+                }
+            }
+            return null;
+        }
+    }
+
+    /** Receives server-sent events as they arrive, on the calling thread. */
+    public interface StreamListener {
+        void onEvent(String event, String data);
+    }
+
+    /** Persists the session cookie and renews the session when the server refuses it. */
+    public interface SessionHandler {
+        /**
+         * The server set a different session cookie. {@code replaced} is true when it
+         * superseded one we already had, i.e. the server no longer knew the old session.
+         */
+        void onCookieChanged(String cookie, boolean replaced);
+
+        /**
+         * Called on the requesting thread after a 401, at most once at a time across
+         * threads. Returns true if a new session is in place and the request should be retried.
+         */
+        boolean renewSession() throws IOException;
+    }
+
+    /** Whether the device has a usable network; supplied by the platform's connectivity service. */
+    public interface NetworkState {
+        boolean isOnline();
+    }
+
+    /** A request body that can be written in either wire format. */
+    public interface Payload {
+        void writeTo(ValueWriter out);
+    }
+
+    static {
+        // Keep idle connections to the server around between chat turns
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", "5");
+    }
+
+    // Headers and cookie, common to a client and every scoped view of it
+    private static final class Session {
+        final EndpointRouter router;
+        final Map<String, String> defaultHeaders = new LinkedHashMap<>();
+        final EndpointMetrics metrics = new EndpointMetrics();
+        final TimeoutEstimator timeouts = new TimeoutEstimator();
+        final Object renewLock = new Object();
+        volatile String cookie = "";
+        volatile boolean serverSpeaksCbor;
+        volatile SessionHandler handler;
+        volatile NetworkState network;
+        volatile HttpCache cache;
+        final Map<Timeout, Integer> readOverrides = new EnumMap<>(Timeout.class); // Guarded by the session
+        boolean renewing; // Guarded by renewLock; the renewal's own requests must not renew again
+
+        Session(EndpointRouter router) {
+            this.router = router;
+        }
+    }
+
+    // Connecting failed, so the request never left; carries the cause until failover gives up
+    private static final class Unreachable extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        Unreachable(IOException cause) {
+            super(cause);
+        }
+
+        IOException cause() {
+            return (IOException) getCause();
+        }
+    }
+
+    private final Session session;
+    private final CancellationToken token; // Null for an unscoped client
+
+    public GuestApiClient(String baseUrl) {
+        this(new EndpointRouter(Collections.singletonList(baseUrl)));
+    }
+
+    public GuestApiClient(EndpointRouter router) {
+        this(new Session(router), null);
+    }
+
+    private GuestApiClient(Session session, CancellationToken token) {
+        this.session = session;
+        this.token = token;
+    }
+
+    /** A client sharing this one's session whose requests are aborted when the token is cancelled. */
+    public GuestApiClient scoped(CancellationToken token) {
+        return new GuestApiClient(session, token);
+    }
+
+    public void setDefaultHeader(String name, String value) {
+        synchronized (session) {
+            session.defaultHeaders.put(name, value);
+        }
+    }
+
+    /** Latency histograms for this client and all of its scoped views. */
+    public EndpointMetrics metrics() {
+        return session.metrics;
+    }
+
+    /** The origins requests are spread over, with their health and latency. */
+    public EndpointRouter router() {
+        return session.router;
+    }
+
+    /** Per-endpoint deadlines learned from this client's calls; save and restore them across launches. */
+    public TimeoutEstimator timeouts() {
+        return session.timeouts;
+    }
+
+    public String getSessionCookie() {
+        return session.cookie;
+    }
+
+    public boolean hasSessionCookie() {
+        return !session.cookie.isEmpty();
+    }
+
+    public void setSessionCookie(String cookie) {
+        session.cookie = cookie == null ? "" : cookie;
+    }
+
+    public void setSessionHandler(SessionHandler handler) {
+        session.handler = handler;
+    }
+
+    public void setNetworkState(NetworkState network) {
+        session.network = network;
+    }
+
+    public void setCache(HttpCache cache) {
+        session.cache = cache;
+    }
+
+    // Tests shorten a profile's fixed read deadline so a stalled read cannot outlive them
+    void setReadTimeout(Timeout timeout, int millis) {
+        synchronized (session) {
+            session.readOverrides.put(timeout, millis);
+        }
+    }
+
+    public Response get(String path, Timeout timeout) throws IOException {
+        return cachedGet(path, null, timeout);
+    }
+
+    /**
+     * GET with extra request headers, e.g. If-None-Match for a conditional request.
+     * Never answered from the cache: the caller is managing validators itself.
+     */
+    public Response get(String path, Timeout timeout, Map<String, String> headers) throws IOException {
+        return execute("GET", path, null, null, null, timeout, null, headers);
+    }
+
+    /** GET that lets the server answer in CBOR; read the result through {@link Response#reader()}. */
+    public Response getNegotiated(String path, Timeout timeout) throws IOException {
+        return cachedGet(path, CborReader.CONTENT_TYPE + ", " + JSON_TYPE, timeout);
+    }
+
+    public Response postJson(String path, String json, Timeout timeout) throws IOException {
+        return execute("POST", path, json.getBytes(StandardCharsets.UTF_8), JSON_TYPE, null, timeout, null,
+            Collections.emptyMap());
+    }
+
+    /**
+     * Posts with {@code Accept: text/event-stream} and hands each event to the listener
+     * as it is read. Servers that only speak JSON answer with a normal body, which is
+     * returned with {@code streamed == false} so the caller can use the one-shot path.
+     */
+    public Response postJsonStreaming(String path, String json, Timeout timeout, StreamListener listener) throws IOException {
+        return execute("POST", path, json.getBytes(StandardCharsets.UTF_8), JSON_TYPE,
+            SseReader.CONTENT_TYPE + ", " + JSON_TYPE, timeout, listener, Collections.emptyMap());
+    }
+
+    /**
+     * Like {@link #postJsonStreaming}, but also accepts a CBOR reply and sends the payload
+     * as CBOR once the server has answered in it. A server that then rejects the body
+     * with 415 is sent JSON again, and CBOR is not used for requests after that.
+     */
+    public Response postStreaming(String path, Payload payload, Timeout timeout, StreamListener listener) throws IOException {
+        return postStreaming(path, payload, timeout, Collections.emptyMap(), listener);
+    }
+
+    /** Like {@link #postStreaming(String, Payload, Timeout, StreamListener)}, with extra request headers. */
+    public Response postStreaming(String path, Payload payload, Timeout timeout, Map<String, String> headers,
+                                  StreamListener listener) throws IOException {
+        String accept = (listener != null ? SseReader.CONTENT_TYPE + ", " : "") + CborReader.CONTENT_TYPE + ", " + JSON_TYPE;
+        if (session.serverSpeaksCbor) {
+            CborWriter cbor = new CborWriter();
+            payload.writeTo(cbor);
+            Response response = execute("POST", path, cbor.toByteArray(), CborReader.CONTENT_TYPE, accept, timeout,
+                listener, headers);
+            if (response.code != 415) {
+                return response;
+            }
+            session.serverSpeaksCbor = false;
+        }
+        JsonWriter json = new JsonWriter();
+        payload.writeTo(json);
+        return execute("POST", path, json.toString().getBytes(StandardCharsets.UTF_8), JSON_TYPE, accept, timeout,
+            listener, headers);
+    }
+
+    /**
+     * Opens a long-lived text/event-stream and delivers its events until the server
+     * closes it, the read times out, or the client's token is cancelled. Returns
+     * with {@code streamed == false} if the server answered with anything else.
+     */
+    public Response subscribe(String path, Timeout timeout, StreamListener listener) throws IOException {
+        return execute("GET", path, null, null, SseReader.CONTENT_TYPE, timeout, listener, Collections.emptyMap());
+    }
+
+    /**
+     * Fetches a binary resource such as an avatar. {@code path} may also be an absolute
+     * URL (e.g. a CDN); those get no session cookie or device headers.
+     */
+    public byte[] download(String path, Timeout timeout) throws IOException {
+        boolean absolute = path.startsWith("http://") || path.startsWith("https://");
+        checkOnline();
+        // Downloads are keyed by profile: every image has its own path, but they share a host and a size class
+        String endpoint = "download:" + timeout.name().toLowerCase(Locale.ROOT);
+        List<String> tried = new ArrayList<>();
+        String baseUrl = absolute ? null : session.router.select();
+        while (true) {
+            HttpURLConnection connection = (HttpURLConnection) new URL(absolute ? path : baseUrl + path).openConnection();
+            register(connection);
+            try {
+                return download(connection, baseUrl, endpoint, path, timeout);
+            } catch (Unreachable e) {
+                baseUrl = failover(tried, baseUrl);
+                if (baseUrl == null) {
+                    throw cancelledOr(e.cause());
+                }
+            } catch (IOException e) {
+                throw cancelledOr(e);
+            } finally {
+                unregister(connection);
+            }
+        }
+    }
+
+    // A null baseUrl means an absolute URL outside the API: no headers, no routing
+    private byte[] download(HttpURLConnection connection, String baseUrl, String endpoint, String path, Timeout timeout)
+        throws IOException {
+        applyTimeouts(connection, endpoint, timeout, false);
+        if (baseUrl != null) {
+            applyHeaders(connection);
+        }
+        awaitResponse(connection, baseUrl, endpoint, timeout, null);
+        int responseCode = connection.getResponseCode();
+        if (responseCode != 200) {
+            readBytes(responseCode >= 400 ? connection.getErrorStream() : connection.getInputStream());
+            throw new IOException("Download of " + path + " failed with code " + responseCode);
+        }
+        return readBytes(connection.getInputStream());
+    }
+
+    // Fresh: no request. Stale but within stale-while-revalidate: served now, refreshed behind. Otherwise revalidated.
+    private Response cachedGet(String path, String accept, Timeout timeout) throws IOException {
+        HttpCache cache = session.cache;
+        if (cache == null) {
+            return execute("GET", path, null, null, accept, timeout, null, Collections.emptyMap());
+        }
+        HttpCache.Entry entry = cache.get(path, accept);
+        if (entry != null) {
+            long now = cache.now();
+            if (entry.isFresh(now)) {
+                return entry.toResponse();
+            }
+            if (entry.canServeStale(now)) {
+                cache.revalidateInBackground(path, () -> {
+                    try {
+                        revalidate(cache, path, accept, timeout, entry);
+                    } catch (IOException e) {
+                        // The stale copy stays until a read finds it past its window and revalidates in line
+                    }
+                });
+                return entry.toResponse();
+            }
+        }
+        return revalidate(cache, path, accept, timeout, entry);
+    }
+
+    private Response revalidate(HttpCache cache, String path, String accept, Timeout timeout, HttpCache.Entry entry)
+        throws IOException {
+        Map<String, String> conditional = entry == null ? Collections.emptyMap() : entry.conditionalHeaders();
+        Response response = execute("GET", path, null, null, accept, timeout, null, conditional);
+        return cache.update(path, accept, entry, response);
+    }
+
+    private Response execute(String method, String path, byte[] body, String bodyType, String accept, Timeout timeout,
+                             StreamListener listener, Map<String, String> headers) throws IOException {
+        String cookieSent = session.cookie;
+        Response response = executeOnce(method, path, body, bodyType, accept, timeout, listener, headers);
+        if (response.code == 401 && renewSession(cookieSent)) {
+            response = executeOnce(method, path, body, bodyType, accept, timeout, listener, headers);
+        }
+        // A change through another method makes a cached GET of the same path stale (RFC 9111 section 4.4)
+        HttpCache cache = session.cache;
+        if (cache != null && !"GET".equals(method) && response.code < 400) {
+            cache.invalidate(path);
+        }
+        return response;
+    }
+
+    // Single flight: a request that was refused after someone else renewed just retries with the new cookie
+    private boolean renewSession(String cookieSent) throws IOException {
+        SessionHandler handler = session.handler;
+        if (handler == null) {
+            return false;
+        }
+        synchronized (session.renewLock) {
+            if (!session.cookie.equals(cookieSent)) {
+                return true;
+            }
+            if (session.renewing) {
+                return false;
+            }
+            session.renewing = true;
+            try {
+                return handler.renewSession();
+            } finally {
+                session.renewing = false;
+            }
+        }
+    }
+
+    private Response executeOnce(String method, String path, byte[] body, String bodyType, String accept, Timeout timeout,
+                                 StreamListener listener, Map<String, String> headers) throws IOException {
+        checkOnline();
+        List<String> tried = new ArrayList<>();
+        String baseUrl = session.router.select();
+        while (true) {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+            register(connection);
+            try {
+                Response response = execute(connection, baseUrl, endpointOf(path), method, body, bodyType, accept, timeout,
+                    listener, headers);
+                if (token != null && token.isCancelled()) {
+                    throw new InterruptedIOException("Request cancelled");
+                }
+                return response;
+            } catch (Unreachable e) {
+                baseUrl = failover(tried, baseUrl);
+                if (baseUrl == null) {
+                    throw cancelledOr(e.cause());
+                }
+            } catch (IOException e) {
+                throw cancelledOr(e);
+            } finally {
+                unregister(connection);
+            }
+        }
+    }
+
+    // The next origin to try after a failed connect, or null to give up
+    private String failover(List<String> tried, String failed) {
+        if (failed == null || (token != null && token.isCancelled())) {
+            return null;
+        }
+        tried.add(failed);
+        return session.router.next(tried);
+    }
+
+    private Response execute(HttpURLConnection connection, String baseUrl, String endpoint, String method, byte[] body,
+                             String bodyType, String accept, Timeout timeout, StreamListener listener,
+                             Map<String, String> headers) throws IOException {
+        connection.setRequestMethod(method);
+        applyTimeouts(connection, endpoint, timeout, listener != null);
+        applyHeaders(connection);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        if (accept != null) {
+            connection.setRequestProperty("Accept", accept);
+        }
+
+        if (body != null) {
+            connection.setRequestProperty("Content-Type", bodyType);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+        }
+
+        EndpointMetrics metrics = session.metrics;
+        long firstByte = awaitResponse(connection, baseUrl, endpoint, timeout, body);
+        int responseCode = connection.getResponseCode();
+        captureSessionCookie(connection);
+
+        // Drain and close (never disconnect) so the socket goes back to the pool
+        InputStream stream = responseCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        String contentType = connection.getContentType();
+        if (listener != null && responseCode == 200 && contentType != null && contentType.startsWith(SseReader.CONTENT_TYPE)) {
+            try (InputStream in = stream) {
+                // Events already buffered when the scope was cancelled are not delivered
+                SseReader.read(in, token == null ? listener : (event, data) -> {
+                    if (!token.isCancelled()) {
+                        listener.onEvent(event, data);
+                    }
+                });
+            }
+            metrics.record(endpoint, EndpointMetrics.Phase.DOWNLOAD, System.nanoTime() - firstByte);
+            return new Response(responseCode, "", null, true, connection.getHeaderFields());
+        }
+        if (accept != null && contentType != null && contentType.startsWith(CborReader.CONTENT_TYPE)) {
+            byte[] binaryBody = readBytes(stream);
+            metrics.record(endpoint, EndpointMetrics.Phase.DOWNLOAD, System.nanoTime() - firstByte);
+            session.serverSpeaksCbor = true;
+            return new Response(responseCode, "", binaryBody, false, connection.getHeaderFields());
+        }
+        String responseBody = readFully(stream);
+        metrics.record(endpoint, EndpointMetrics.Phase.DOWNLOAD, System.nanoTime() - firstByte);
+        return new Response(responseCode, responseBody, null, false, connection.getHeaderFields());
+    }
+
+    /**
+     * The read deadline bounds every blocking read, the wait for the status line as
+     * well as each wait for the next event, and cannot be changed once connected.
+     * A request that may stream therefore gets the profile's gap between events if
+     * that is longer than its time-to-first-byte deadline.
+     */
+    private void applyTimeouts(HttpURLConnection connection, String endpoint, Timeout timeout, boolean streaming) {
+        Integer readOverride;
+        synchronized (session) {
+            readOverride = session.readOverrides.get(timeout);
+        }
+        int readMillis;
+        if (readOverride != null) {
+            connection.setConnectTimeout(timeout.connectMillis);
+            readMillis = readOverride;
+        } else if (timeout.adaptive) {
+            connection.setConnectTimeout(session.timeouts.connectMillis(endpoint, timeout));
+            readMillis = session.timeouts.readMillis(endpoint, timeout);
+        } else {
+            connection.setConnectTimeout(timeout.connectMillis);
+            readMillis = timeout.readMillis;
+        }
+        connection.setReadTimeout(streaming && readOverride == null ? Math.max(readMillis, timeout.streamMillis) : readMillis);
+    }
+
+    /**
+     * Connects, sends the body if any and waits for the status line, recording both
+     * phases, feeding them to the estimator and reporting the outcome to the router
+     * unless {@code baseUrl} is null. Returns when the status line arrived, in
+     * {@link System#nanoTime()} terms. A failure to connect is thrown as
+     * {@link Unreachable} so the request can be sent elsewhere.
+     */
+    private long awaitResponse(HttpURLConnection connection, String baseUrl, String endpoint, Timeout timeout,
+                               byte[] body) throws IOException {
+        boolean connecting = true;
+        try {
+            // Connecting explicitly separates the handshake from the request itself
+            long start = System.nanoTime();
+            connection.connect();
+            long connected = System.nanoTime();
+            connecting = false;
+            session.metrics.record(endpoint, EndpointMetrics.Phase.CONNECT, connected - start);
+            // A pooled socket connects in microseconds; only real handshakes say anything about the network
+            boolean handshake = connected - start >= REUSED_CONNECTION_NANOS;
+            if (timeout.adaptive && handshake) {
+                session.timeouts.sampleConnect(endpoint, connected - start);
+            }
+            if (body != null) {
+                try (OutputStream os = connection.getOutputStream()) {
+                    os.write(body);
+                }
+            }
+            int responseCode = connection.getResponseCode();
+            long firstByte = System.nanoTime();
+            session.metrics.record(endpoint, EndpointMetrics.Phase.FIRST_BYTE, firstByte - connected);
+            // An event stream's headers come before any of the work, so they say nothing about its duration
+            String contentType = connection.getContentType();
+            boolean streamed = contentType != null && contentType.startsWith(SseReader.CONTENT_TYPE);
+            if (timeout.adaptive && !streamed) {
+                session.timeouts.sampleFirstByte(endpoint, firstByte - connected);
+            }
+            if (baseUrl != null) {
+                if (responseCode >= 500) {
+                    session.router.failed(baseUrl);
+                } else {
+                    session.router.succeeded(baseUrl, handshake ? connected - start : -1);
+                }
+            }
+            return firstByte;
+        } catch (IOException e) {
+            if (e instanceof SocketTimeoutException && timeout.adaptive) {
+                session.timeouts.timedOut(endpoint, connecting);
+            }
+            // Aborted by a cancel, the origin is not to blame
+            if (baseUrl == null || (token != null && token.isCancelled())) {
+                throw e;
+            }
+            session.router.failed(baseUrl);
+            throw connecting ? new Unreachable(e) : e;
+        }
+    }
+
+    // Query strings would split one endpoint across many histograms
+    private static String endpointOf(String path) {
+        int query = path.indexOf('?');
+        return query == -1 ? path : path.substring(0, query);
+    }
+
+    // Offline, a connect attempt would only wait out its deadline
+    private void checkOnline() throws OfflineException {
+        NetworkState network = session.network;
+        if (network != null && !network.isOnline()) {
+            throw new OfflineException();
+        }
+    }
+
+    private void register(HttpURLConnection connection) throws IOException {
+        if (token != null && !token.register(connection)) {
+            throw new InterruptedIOException("Request cancelled");
+        }
+    }
+
+    private void unregister(HttpURLConnection connection) {
+        if (token != null) {
+            token.unregister(connection);
+        }
+    }
+
+    // A failure caused by cancelling is reported as such rather than as a network error
+    private IOException cancelledOr(IOException e) {
+        if (token == null || !token.isCancelled() || e instanceof InterruptedIOException) {
+            return e;
+        }
+        InterruptedIOException cancelled = new InterruptedIOException("Request cancelled");
+        cancelled.initCause(e);
+        return cancelled;
+    }
+
+    private void applyHeaders(HttpURLConnection connection) {
+        synchronized (session) {
+            for (Map.Entry<String, String> header : session.defaultHeaders.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        String cookie = session.cookie;
+        if (!cookie.isEmpty()) {
+            connection.setRequestProperty("Cookie", cookie);
+        }
+    }
+
+    private void captureSessionCookie(HttpURLConnection connection) {
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            if (!"Set-Cookie".equalsIgnoreCase(header.getKey())) {
+                continue;
+            }
+            for (String setCookie : header.getValue()) {
+                if (setCookie != null && setCookie.startsWith(SESSION_COOKIE_NAME)) {
+                    String previous = session.cookie;
+                    String cookie = setCookie.split(";")[0]; // Keep "connect.sid=VALUE"
+                    session.cookie = cookie;
+                    SessionHandler handler = session.handler;
+                    if (handler != null && !cookie.equals(previous)) {
+                        handler.onCookieChanged(cookie, !previous.isEmpty());
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private static String readFully(InputStream stream) throws IOException {
+        return new String(readBytes(stream), StandardCharsets.UTF_8);
+    }
+
+    // Drains and closes the stream so the connection can be reused
+    private static byte[] readBytes(InputStream stream) throws IOException {
+        if (stream == null) {
+            return new byte[0];
+        }
+        try (InputStream in = stream) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
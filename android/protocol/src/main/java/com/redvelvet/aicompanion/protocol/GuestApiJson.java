@@ -0,0 +1,203 @@
+package com.redvelvet.aicompanion.protocol;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Request payloads and response models for the guest API.
+ * Each parse walks the body once and keeps only the fields the app uses; the
+ * {@link ValueReader} overloads take a JSON or CBOR body alike.
+ */
+public final class GuestApiJson {
+
+    /** GET /api/guest/session */
+    public static final class Session {
+        public String sessionId = "";
+        public Integer messageDiamonds;
+        public boolean hasReceivedWelcomeDiamonds;
+    }
+
+    /** POST /api/guest/chat */
+    public static final class ChatReply {
+        public String response;
+        public Integer remainingDiamonds;
+    }
+
+    /** One entry of GET /api/companions */
+    public static final class Companion {
+        public int id;
+        public String name = "";
+        public String description = "";
+        public String tagline = "";
+        public String imageUrl = "";
+        public String gender = "female";
+        public boolean available = true;
+    }
+
+    private GuestApiJson() {}
+
+    public static String chatRequest(int companionId, String message) {
+        JsonWriter json = new JsonWriter();
+        writeChatRequest(json, companionId, message);
+        return json.toString();
+    }
+
+    /** The chat request in any encoding, e.g. a {@link CborWriter} once the server has shown it speaks CBOR. */
+    public static void writeChatRequest(ValueWriter out, int companionId, String message) {
+        out.beginObject()
+            .name("companionId").value(companionId)
+            .name("message").value(message)
+            .endObject();
+    }
+
+    public static Session parseSession(CharSequence json) throws IOException {
+        return parseSession(new JsonReader(json));
+    }
+
+    public static Session parseSession(ValueReader reader) throws IOException {
+        Session session = new Session();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "sessionId":
+                    session.sessionId = nextStringOrNull(reader);
+                    break;
+                case "messageDiamonds":
+                    session.messageDiamonds = nextIntOrNull(reader);
+                    break;
+                case "hasReceivedWelcomeDiamonds":
+                    if (reader.peek() == ValueReader.Token.BOOLEAN) {
+                        session.hasReceivedWelcomeDiamonds = reader.nextBoolean();
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (session.sessionId == null) {
+            session.sessionId = "";
+        }
+        return session;
+    }
+
+    public static ChatReply parseChatReply(CharSequence json) throws IOException {
+        return parseChatReply(new JsonReader(json));
+    }
+
+    public static ChatReply parseChatReply(ValueReader reader) throws IOException {
+        ChatReply reply = new ChatReply();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "response":
+                    reply.response = nextStringOrNull(reader);
+                    break;
+                case "remainingDiamonds":
+                    reply.remainingDiamonds = nextIntOrNull(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return reply;
+    }
+
+    /** Parses the catalog, dropping entries without an id or marked unavailable. */
+    public static List<Companion> parseCompanions(CharSequence json) throws IOException {
+        return parseCompanions(new JsonReader(json));
+    }
+
+    public static List<Companion> parseCompanions(ValueReader reader) throws IOException {
+        List<Companion> companions = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Companion companion = new Companion();
+            boolean hasId = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id":
+                        Integer id = nextIntOrNull(reader);
+                        hasId = id != null;
+                        companion.id = hasId ? id : 0;
+                        break;
+                    case "name":
+                        companion.name = nextStringOrDefault(reader, "");
+                        break;
+                    case "description":
+                        companion.description = nextStringOrDefault(reader, "");
+                        break;
+                    case "tagline":
+                        companion.tagline = nextStringOrDefault(reader, "");
+                        break;
+                    case "imageUrl":
+                        companion.imageUrl = nextStringOrDefault(reader, "");
+                        break;
+                    case "gender":
+                        companion.gender = nextStringOrDefault(reader, "female");
+                        break;
+                    case "available":
+                        if (reader.peek() == ValueReader.Token.BOOLEAN) {
+                            companion.available = reader.nextBoolean();
+                        } else {
+                            reader.skipValue();
+                        }
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (hasId && companion.available) {
+                companions.add(companion);
+            }
+        }
+        reader.endArray();
+        return companions;
+    }
+
+    /** Reads one top-level integer field, e.g. "diamonds" or "remainingDiamonds"; null when absent. */
+    public static Integer parseIntField(CharSequence json, String field) throws IOException {
+        return parseIntField(new JsonReader(json), field);
+    }
+
+    public static Integer parseIntField(ValueReader reader, String field) throws IOException {
+        Integer value = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (field.equals(reader.nextName())) {
+                value = nextIntOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return value;
+    }
+
+    private static String nextStringOrNull(ValueReader reader) throws IOException {
+        if (reader.peek() == ValueReader.Token.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private static String nextStringOrDefault(ValueReader reader, String fallback) throws IOException {
+        String value = nextStringOrNull(reader);
+        return value == null ? fallback : value;
+    }
+
+    private static Integer nextIntOrNull(ValueReader reader) throws IOException {
+        if (reader.peek() == ValueReader.Token.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextInt();
+    }
+}
@@ -0,0 +1,437 @@
+package com.redvelvet.aicompanion.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
+
+/**
+ * Private HTTP cache for GETs made through {@link GuestApiClient}, in memory and
+ * on disk, each bounded by size and evicted least recently used first.
+ *
+ * Responses are stored unless they say {@code no-store}, set a cookie or vary
+ * on everything. {@code max-age} sets how long an entry is fresh; without it, an
+ * entry with a {@code Last-Modified} date stays fresh for a tenth of its age at
+ * the time it was fetched, and otherwise for no time at all. Fresh entries are
+ * served without a request. A stale entry is revalidated with {@code If-None-Match}
+ * or {@code If-Modified-Since}, so an unchanged body costs a 304. Within its
+ * {@code stale-while-revalidate} window the stale entry is served at once and
+ * the revalidation runs on the cache's executor, so a screen renders straight
+ * from cache and the next read sees the refreshed copy.
+ *
+ * Entries are keyed by path: the device has one user, so {@code private} responses
+ * are stored like any other. A successful request of another method to a path
+ * drops its entry. Disk reads and writes happen on the requesting thread.
+ */
+public final class HttpCache {
+    private static final int VERSION = 1;
+    private static final long MAX_HEURISTIC_MILLIS = 24 * 60 * 60 * 1000L;
+    // Kept so a cached answer reads like the original through Response.header
+    private static final List<String> STORED_HEADERS =
+        Arrays.asList("Cache-Control", "Content-Type", "Date", "ETag", "Last-Modified");
+
+    /** One stored response. */
+    static final class Entry {
+        final String accept; // The response is only valid for requests with this Accept header
+        final long fetchedAtMillis;
+        final long freshMillis;
+        final long staleWhileRevalidateMillis;
+        final boolean binary;
+        final byte[] body;
+        final Map<String, String> headers;
+
+        Entry(String accept, long fetchedAtMillis, long freshMillis, long staleWhileRevalidateMillis, boolean binary,
+              byte[] body, Map<String, String> headers) {
+            this.accept = accept;
+            this.fetchedAtMillis = fetchedAtMillis;
+            this.freshMillis = freshMillis;
+            this.staleWhileRevalidateMillis = staleWhileRevalidateMillis;
+            this.binary = binary;
+            this.body = body;
+            this.headers = headers;
+        }
+
+        boolean isFresh(long nowMillis) {
+            return nowMillis - fetchedAtMillis < freshMillis;
+        }
+
+        boolean canServeStale(long nowMillis) {
+            return nowMillis - fetchedAtMillis < freshMillis + staleWhileRevalidateMillis;
+        }
+
+        /** If-None-Match and If-Modified-Since for revalidating this entry; empty if it has no validator. */
+        Map<String, String> conditionalHeaders() {
+            Map<String, String> conditional = new LinkedHashMap<>();
+            String etag = headers.get("ETag");
+            if (etag != null) {
+                conditional.put("If-None-Match", etag);
+            }
+            String lastModified = headers.get("Last-Modified");
+            if (lastModified != null) {
+                conditional.put("If-Modified-Since", lastModified);
+            }
+            return conditional;
+        }
+
+        GuestApiClient.Response toResponse() {
+            Map<String, List<String>> responseHeaders = new LinkedHashMap<>();
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                responseHeaders.put(header.getKey(), Collections.singletonList(header.getValue()));
+            }
+            return binary
+                ? new GuestApiClient.Response(200, "", body, false, responseHeaders)
+                : new GuestApiClient.Response(200, new String(body, StandardCharsets.UTF_8), null, false, responseHeaders);
+        }
+
+        int size() {
+            return body.length + 256;
+        }
+    }
+
+    private final File dir;
+    private final long maxDiskBytes;
+    private final long maxMemoryBytes;
+    private final Executor executor;
+    private final LongSupplier clock;
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> revalidating = new HashSet<>();
+    private long memoryBytes;
+
+    public HttpCache(File dir, long maxDiskBytes, long maxMemoryBytes, Executor executor) {
+        this(dir, maxDiskBytes, maxMemoryBytes, executor, System::currentTimeMillis);
+    }
+
+    HttpCache(File dir, long maxDiskBytes, long maxMemoryBytes, Executor executor, LongSupplier clock) {
+        this.dir = dir;
+        this.maxDiskBytes = maxDiskBytes;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.executor = executor;
+        this.clock = clock;
+    }
+
+    long now() {
+        return clock.getAsLong();
+    }
+
+    /** The stored entry for a request, or null if there is none that matches its Accept header. */
+    synchronized Entry get(String path, String accept) {
+        Entry entry = memory.get(path);
+        if (entry == null) {
+            entry = read(path);
+            if (entry != null) {
+                remember(path, entry);
+            }
+        }
+        return entry != null && equal(entry.accept, accept) ? entry : null;
+    }
+
+    /**
+     * Folds a network answer into the cache and returns what the caller should see:
+     * for a 304 the stored entry, refreshed; for a storable 200 the response itself.
+     */
+    GuestApiClient.Response update(String path, String accept, Entry previous, GuestApiClient.Response response) {
+        if (response.code == 304 && previous != null) {
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            headers.putAll(previous.headers);
+            for (String name : STORED_HEADERS) {
+                String value = response.header(name);
+                if (value != null && !"Content-Type".equals(name)) {
+                    headers.put(name, value);
+                }
+            }
+            Entry refreshed = entryFor(accept, now(), previous.binary, previous.body, headers);
+            synchronized (this) {
+                store(path, refreshed);
+            }
+            return refreshed.toResponse();
+        }
+        if (response.code == 200 && storable(response)) {
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (String name : STORED_HEADERS) {
+                String value = response.header(name);
+                if (value != null) {
+                    headers.put(name, value);
+                }
+            }
+            byte[] body = response.isBinary() ? response.binaryBody() : response.body.getBytes(StandardCharsets.UTF_8);
+            synchronized (this) {
+                store(path, entryFor(accept, now(), response.isBinary(), body, headers));
+            }
+        } else if (response.code == 200 || response.code == 404 || response.code == 410) {
+            // Superseded by something we may not keep
+            invalidate(path);
+        }
+        return response;
+    }
+
+    /** Runs a stale entry's revalidation on the executor, unless one for the path is already running. */
+    void revalidateInBackground(String path, Runnable revalidation) {
+        synchronized (this) {
+            if (!revalidating.add(path)) {
+                return;
+            }
+        }
+        executor.execute(() -> {
+            try {
+                revalidation.run();
+            } finally {
+                synchronized (this) {
+                    revalidating.remove(path);
+                }
+            }
+        });
+    }
+
+    /** Drops the entry for a path, e.g. after it was changed by a POST. */
+    public synchronized void invalidate(String path) {
+        Entry removed = memory.remove(path);
+        if (removed != null) {
+            memoryBytes -= removed.size();
+        }
+        File file = fileFor(path);
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /** Drops every entry, e.g. when the session changes hands. */
+    public synchronized void clear() {
+        memory.clear();
+        memoryBytes = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private static boolean storable(GuestApiClient.Response response) {
+        String cacheControl = response.header("Cache-Control");
+        return !hasDirective(cacheControl, "no-store")
+            && response.header("Set-Cookie") == null
+            && !"*".equals(response.header("Vary"));
+    }
+
+    // Freshness and the stale window per RFC 9111 and RFC 5861, from the stored headers
+    private static Entry entryFor(String accept, long nowMillis, boolean binary, byte[] body, Map<String, String> headers) {
+        String cacheControl = headers.get("Cache-Control");
+        long freshMillis;
+        long maxAge = directive(cacheControl, "max-age");
+        if (hasDirective(cacheControl, "no-cache")) {
+            freshMillis = 0;
+        } else if (maxAge >= 0) {
+            freshMillis = maxAge * 1000;
+        } else {
+            long lastModified = parseDate(headers.get("Last-Modified"));
+            long date = parseDate(headers.get("Date"));
+            long fetched = date > 0 ? date : nowMillis;
+            freshMillis = lastModified > 0 && lastModified < fetched
+                ? Math.min(MAX_HEURISTIC_MILLIS, (fetched - lastModified) / 10)
+                : 0;
+        }
+        long staleWhileRevalidate = hasDirective(cacheControl, "must-revalidate") || hasDirective(cacheControl, "no-cache")
+            ? 0
+            : Math.max(0, directive(cacheControl, "stale-while-revalidate")) * 1000;
+        return new Entry(accept, nowMillis, freshMillis, staleWhileRevalidate, binary, body, headers);
+    }
+
+    // Caller holds the lock
+    private void store(String path, Entry entry) {
+        remember(path, entry);
+        try {
+            write(path, entry);
+        } catch (IOException e) {
+            // The memory copy still serves this launch; the next fetch tries the disk again
+            fileFor(path).delete();
+        }
+    }
+
+    // Caller holds the lock
+    private void remember(String path, Entry entry) {
+        Entry replaced = memory.put(path, entry);
+        if (replaced != null) {
+            memoryBytes -= replaced.size();
+        }
+        memoryBytes += entry.size();
+        Iterator<Entry> eldest = memory.values().iterator();
+        while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+            memoryBytes -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+
+    private Entry read(String path) {
+        File file = fileFor(path);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION || !in.readUTF().equals(path)) {
+                return null;
+            }
+            String accept = in.readBoolean() ? in.readUTF() : null;
+            long fetchedAt = in.readLong();
+            long fresh = in.readLong();
+            long staleWhileRevalidate = in.readLong();
+            boolean binary = in.readBoolean();
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = in.readInt(); i > 0; i--) {
+                headers.put(in.readUTF(), in.readUTF());
+            }
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            file.setLastModified(now());
+            return new Entry(accept, fetchedAt, fresh, staleWhileRevalidate, binary, body, headers);
+        } catch (IOException e) {
+            // Unreadable: treat as a miss, and the next fetch replaces it
+            return null;
+        }
+    }
+
+    // Written to a temp file and renamed so a crash never leaves half an entry
+    private void write(String path, Entry entry) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        File file = fileFor(path);
+        File temp = new File(dir, file.getName() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(VERSION);
+            out.writeUTF(path);
+            out.writeBoolean(entry.accept != null);
+            if (entry.accept != null) {
+                out.writeUTF(entry.accept);
+            }
+            out.writeLong(entry.fetchedAtMillis);
+            out.writeLong(entry.freshMillis);
+            out.writeLong(entry.staleWhileRevalidateMillis);
+            out.writeBoolean(entry.binary);
+            out.writeInt(entry.headers.size());
+            for (Map.Entry<String, String> header : entry.headers.entrySet()) {
+                out.writeUTF(header.getKey());
+                out.writeUTF(header.getValue());
+            }
+            out.writeInt(entry.body.length);
+            out.write(entry.body);
+            out.flush();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+        trimDisk();
+    }
+
+    // Deletes least recently used entries until the directory fits the budget
+    private void trimDisk() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxDiskBytes) {
+            return;
+        }
+        List<File> oldestFirst = new ArrayList<>(Arrays.asList(files));
+        oldestFirst.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : oldestFirst) {
+            if (total <= maxDiskBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private File fileFor(String path) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(path.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return new File(dir, name.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 unavailable", e);
+        }
+    }
+
+    static boolean hasDirective(String cacheControl, String name) {
+        return directive(cacheControl, name) != -2;
+    }
+
+    // Seconds for "name=N", -1 for a bare "name" or an unparsable value, -2 when absent
+    static long directive(String cacheControl, String name) {
+        if (cacheControl == null) {
+            return -2;
+        }
+        for (String part : cacheControl.split(",")) {
+            String directive = part.trim();
+            int equals = directive.indexOf('=');
+            String key = equals == -1 ? directive : directive.substring(0, equals).trim();
+            if (!key.equalsIgnoreCase(name)) {
+                continue;
+            }
+            if (equals == -1) {
+                return -1;
+            }
+            String value = directive.substring(equals + 1).trim();
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            try {
+                return Math.max(0, Long.parseLong(value));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -2;
+    }
+
+    // HTTP-date (RFC 1123) in milliseconds, or 0 when missing or malformed
+    private static long parseDate(String value) {
+        if (value == null) {
+            return 0;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(value).getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
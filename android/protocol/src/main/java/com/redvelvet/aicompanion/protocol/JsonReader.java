@@ -0,0 +1,389 @@
+package com.redvelvet.aicompanion.protocol;
+
+import java.io.IOException;
+
+/**
+ * Single-pass pull parser over an in-memory JSON document.
+ *
+ * Mirrors the shape of android.util.JsonReader but has no platform dependency.
+ * Strings are decoded straight from the input into one reusable buffer, so a
+ * long AI reply costs exactly one String allocation and escapes (including
+ * {@code \\uXXXX} and surrogate pairs) are handled correctly.
+ */
+public final class JsonReader implements ValueReader {
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final CharSequence in;
+    private final int limit;
+    private int pos;
+    private final StringBuilder scratch = new StringBuilder();
+    private int[] scopes = new int[16];
+    private int depth = 1;
+
+    public JsonReader(CharSequence in) {
+        this.in = in;
+        this.limit = in.length();
+        scopes[0] = EMPTY_DOCUMENT;
+    }
+
+    @Override
+    public Token peek() throws IOException {
+        int scope = scopes[depth - 1];
+        int c = skipWhitespace();
+        switch (scope) {
+            case EMPTY_OBJECT:
+                return c == '}' ? Token.END_OBJECT : Token.NAME;
+            case NONEMPTY_OBJECT:
+                return c == '}' ? Token.END_OBJECT : Token.NAME;
+            case EMPTY_ARRAY:
+                if (c == ']') {
+                    return Token.END_ARRAY;
+                }
+                break;
+            case NONEMPTY_ARRAY:
+                if (c == ']') {
+                    return Token.END_ARRAY;
+                }
+                int mark = pos;
+                c = skipSeparator(',');
+                pos = mark; // Peeking must not consume the separator
+                break;
+            case DANGLING_NAME:
+                break;
+            case NONEMPTY_DOCUMENT:
+                if (c == -1) {
+                    return Token.END_DOCUMENT;
+                }
+                throw syntaxError("Trailing data");
+            default:
+                break;
+        }
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+            case 'f':
+                return Token.BOOLEAN;
+            case 'n':
+                return Token.NULL;
+            case -1:
+                throw syntaxError("Unexpected end of input");
+            default:
+                return Token.NUMBER;
+        }
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        expect(beginValue(), '{');
+        push(EMPTY_OBJECT);
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        int scope = scopes[depth - 1];
+        if (scope != EMPTY_OBJECT && scope != NONEMPTY_OBJECT) {
+            throw syntaxError("Not in an object");
+        }
+        expect(skipWhitespace(), '}');
+        depth--;
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        expect(beginValue(), '[');
+        push(EMPTY_ARRAY);
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        int scope = scopes[depth - 1];
+        if (scope != EMPTY_ARRAY && scope != NONEMPTY_ARRAY) {
+            throw syntaxError("Not in an array");
+        }
+        expect(skipWhitespace(), ']');
+        depth--;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        int scope = scopes[depth - 1];
+        int c = skipWhitespace();
+        if (scope == NONEMPTY_OBJECT) {
+            c = skipSeparator(',');
+        } else if (scope != EMPTY_OBJECT) {
+            throw syntaxError("Not expecting a name");
+        }
+        expect(c, '"');
+        String name = readString();
+        expect(skipWhitespace(), ':');
+        scopes[depth - 1] = DANGLING_NAME;
+        return name;
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        int c = beginValue();
+        if (c == '"') {
+            pos++;
+            return readString();
+        }
+        // Numbers and literals read as strings, like android.util.JsonReader
+        int start = pos;
+        skipLiteral();
+        return in.subSequence(start, pos).toString();
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        int c = beginValue();
+        if (c == 't') {
+            expectLiteral("true");
+            return true;
+        }
+        if (c == 'f') {
+            expectLiteral("false");
+            return false;
+        }
+        throw syntaxError("Expected a boolean");
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        beginValue();
+        expectLiteral("null");
+    }
+
+    /** Reads an integral number in place, without materializing its text. */
+    @Override
+    public long nextLong() throws IOException {
+        int c = beginValue();
+        boolean quoted = c == '"';
+        if (quoted) {
+            pos++;
+        }
+        boolean negative = false;
+        if (pos < limit && in.charAt(pos) == '-') {
+            negative = true;
+            pos++;
+        }
+        int digitsStart = pos;
+        long value = 0;
+        while (pos < limit) {
+            char ch = in.charAt(pos);
+            if (ch < '0' || ch > '9') {
+                break;
+            }
+            if (value > (Long.MAX_VALUE - (ch - '0')) / 10) {
+                throw syntaxError("Number out of range");
+            }
+            value = value * 10 + (ch - '0');
+            pos++;
+        }
+        if (pos == digitsStart) {
+            throw syntaxError("Expected a number");
+        }
+        if (pos < limit) {
+            char ch = in.charAt(pos);
+            if (ch == '.' || ch == 'e' || ch == 'E') {
+                throw syntaxError("Expected an integer");
+            }
+        }
+        if (quoted) {
+            expect(pos < limit ? in.charAt(pos) : -1, '"');
+        }
+        return negative ? -value : value;
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw syntaxError("Number out of int range");
+        }
+        return (int) value;
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        int c = beginValue();
+        int nesting = 0;
+        do {
+            if (c == '"') {
+                pos++;
+                skipString();
+            } else if (c == '{' || c == '[') {
+                pos++;
+                nesting++;
+            } else if (c == '}' || c == ']') {
+                pos++;
+                nesting--;
+            } else if (c == ',' || c == ':') {
+                pos++;
+            } else if (c == -1) {
+                throw syntaxError("Unexpected end of input");
+            } else {
+                skipLiteral();
+            }
+            if (nesting > 0) {
+                c = skipWhitespace();
+            }
+        } while (nesting > 0);
+    }
+
+    // Consumes any pending separator and marks the enclosing scope as having a value
+    private int beginValue() throws IOException {
+        int scope = scopes[depth - 1];
+        int c = skipWhitespace();
+        switch (scope) {
+            case DANGLING_NAME:
+                scopes[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            case EMPTY_ARRAY:
+                scopes[depth - 1] = NONEMPTY_ARRAY;
+                break;
+            case NONEMPTY_ARRAY:
+                c = skipSeparator(',');
+                break;
+            case EMPTY_DOCUMENT:
+                scopes[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                throw syntaxError("Not expecting a value");
+        }
+        return c;
+    }
+
+    private String readString() throws IOException {
+        scratch.setLength(0);
+        while (pos < limit) {
+            char c = in.charAt(pos++);
+            if (c == '"') {
+                return scratch.toString();
+            }
+            if (c != '\\') {
+                scratch.append(c);
+                continue;
+            }
+            if (pos >= limit) {
+                break;
+            }
+            char escaped = in.charAt(pos++);
+            switch (escaped) {
+                case 'n': scratch.append('\n'); break;
+                case 't': scratch.append('\t'); break;
+                case 'r': scratch.append('\r'); break;
+                case 'b': scratch.append('\b'); break;
+                case 'f': scratch.append('\f'); break;
+                case 'u': scratch.append(readUnicodeEscape()); break;
+                default: scratch.append(escaped); break; // \" \\ \/
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private void skipString() throws IOException {
+        while (pos < limit) {
+            char c = in.charAt(pos++);
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                pos++;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private char readUnicodeEscape() throws IOException {
+        if (pos + 4 > limit) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(in.charAt(pos++), 16);
+            if (digit < 0) {
+                throw syntaxError("Invalid escape sequence");
+            }
+            value = (value << 4) | digit;
+        }
+        return (char) value;
+    }
+
+    private void skipLiteral() {
+        while (pos < limit) {
+            char c = in.charAt(pos);
+            if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private void expectLiteral(String literal) throws IOException {
+        int length = literal.length();
+        if (pos + length > limit) {
+            throw syntaxError("Expected " + literal);
+        }
+        for (int i = 0; i < length; i++) {
+            if (in.charAt(pos + i) != literal.charAt(i)) {
+                throw syntaxError("Expected " + literal);
+            }
+        }
+        pos += length;
+    }
+
+    private int skipWhitespace() {
+        while (pos < limit) {
+            char c = in.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+            pos++;
+        }
+        return -1;
+    }
+
+    private int skipSeparator(char separator) throws IOException {
+        expect(skipWhitespace(), separator);
+        return skipWhitespace();
+    }
+
+    // Checks the current character and steps past it
+    private void expect(int c, char expected) throws IOException {
+        if (c != expected) {
+            throw syntaxError("Expected '" + expected + "'");
+        }
+        pos++;
+    }
+
+    private void push(int scope) {
+        if (depth == scopes.length) {
+            int[] grown = new int[depth * 2];
+            System.arraycopy(scopes, 0, grown, 0, depth);
+            scopes = grown;
+        }
+        scopes[depth++] = scope;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at position " + pos);
+    }
+}
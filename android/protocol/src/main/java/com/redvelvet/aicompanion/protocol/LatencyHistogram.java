@@ -0,0 +1,123 @@
+package com.redvelvet.aicompanion.protocol;
+
+/**
+ * Fixed-size log-linear histogram of latencies in microseconds, in the style of
+ * HdrHistogram.
+ *
+ * Every power-of-two range is split into 16 equal buckets, so any recorded
+ * value is known to within about 6% no matter its magnitude. The bucket array
+ * is allocated once and recording never allocates. Values above
+ * {@link #MAX_MICROS} (about 19 hours) are clamped.
+ */
+public final class LatencyHistogram {
+    public static final long MAX_MICROS = (1L << 36) - 1;
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = indexFor(MAX_MICROS) + 1;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public synchronized void record(long micros) {
+        long value = Math.max(0, Math.min(micros, MAX_MICROS));
+        counts[indexFor(value)]++;
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    public synchronized long min() {
+        return count == 0 ? 0 : min;
+    }
+
+    public synchronized long max() {
+        return max;
+    }
+
+    /** Upper bound of the bucket holding the given percentile (0-100), never above the largest recorded value. */
+    public synchronized long percentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /** Adds the other histogram's values to this one. */
+    public void add(LatencyHistogram other) {
+        LatencyHistogram copy = other.copy();
+        synchronized (this) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += copy.counts[i];
+            }
+            count += copy.count;
+            if (copy.count > 0) {
+                min = Math.min(min, copy.min);
+                max = Math.max(max, copy.max);
+            }
+        }
+    }
+
+    public synchronized LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        System.arraycopy(counts, 0, copy.counts, 0, BUCKETS);
+        copy.count = count;
+        copy.min = min;
+        copy.max = max;
+        return copy;
+    }
+
+    /**
+     * Writes summary figures plus the non-empty buckets as a flat
+     * [index, count, index, count, ...] array, so a collector can merge
+     * uploads from many devices bucket by bucket.
+     */
+    public synchronized void writeTo(JsonWriter json) {
+        json.beginObject()
+            .name("n").value(count)
+            .name("min").value(min())
+            .name("max").value(max)
+            .name("p50").value(percentile(50))
+            .name("p90").value(percentile(90))
+            .name("p99").value(percentile(99))
+            .name("b").beginArray();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] != 0) {
+                json.value(i).value(counts[i]);
+            }
+        }
+        json.endArray().endObject();
+    }
+
+    static int indexFor(long value) {
+        if (value < SUB_BUCKETS * 2) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+    }
+
+    // Largest value that lands in the bucket
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS * 2) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
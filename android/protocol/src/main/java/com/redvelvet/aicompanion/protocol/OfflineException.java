@@ -0,0 +1,12 @@
+package com.redvelvet.aicompanion.protocol;
+
+import java.io.IOException;
+
+/** Thrown instead of connecting while the device has no usable network. */
+public final class OfflineException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public OfflineException() {
+        super("No network connection");
+    }
+}
@@ -0,0 +1,61 @@
+package com.redvelvet.aicompanion.protocol;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal text/event-stream reader. Dispatches each event as soon as its
+ * terminating blank line arrives instead of waiting for the whole body.
+ */
+final class SseReader {
+    static final String CONTENT_TYPE = "text/event-stream";
+
+    private SseReader() {}
+
+    static void read(InputStream in, GuestApiClient.StreamListener listener) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String event = "message";
+        StringBuilder data = new StringBuilder();
+        boolean hasData = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                if (hasData) {
+                    listener.onEvent(event, data.toString());
+                }
+                event = "message";
+                data.setLength(0);
+                hasData = false;
+                continue;
+            }
+            if (line.charAt(0) == ':') {
+                continue; // Comment / keep-alive ping
+            }
+            int colon = line.indexOf(':');
+            String field = colon == -1 ? line : line.substring(0, colon);
+            String value = "";
+            if (colon != -1) {
+                int valueStart = colon + 1;
+                if (valueStart < line.length() && line.charAt(valueStart) == ' ') {
+                    valueStart++;
+                }
+                value = line.substring(valueStart);
+            }
+            if ("event".equals(field)) {
+                event = value;
+            } else if ("data".equals(field)) {
+                if (hasData) {
+                    data.append('\n');
+                }
+                data.append(value);
+                hasData = true;
+            }
+        }
+        if (hasData) {
+            listener.onEvent(event, data.toString());
+        }
+    }
+}
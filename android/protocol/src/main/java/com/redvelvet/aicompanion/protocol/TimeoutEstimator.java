@@ -0,0 +1,142 @@
+package com.redvelvet.aicompanion.protocol;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Connect and read deadlines per endpoint, derived from measured latency the
+ * way TCP derives its retransmission timeout (RFC 6298).
+ *
+ * Each endpoint keeps a smoothed mean (SRTT) and mean deviation (RTTVAR) of its
+ * connect time and of its time to first byte, which covers server processing.
+ * A deadline is SRTT + 4 * RTTVAR, clamped to a floor and a ceiling; until an
+ * endpoint has been measured, the call's {@link GuestApiClient.Timeout} profile
+ * applies. A profile that is not repeatable keeps its static read deadline as the
+ * floor: a retry of it after a premature timeout would do the work twice. A timeout
+ * doubles that endpoint's deadline until the next successful sample. {@link #toJson} and {@link #restore} carry the estimates across launches.
+ */
+public final class TimeoutEstimator {
+    static final long MIN_CONNECT_MILLIS = 1000;
+    static final long MIN_READ_MILLIS = 2000;
+    static final long MAX_MILLIS = 60000;
+    private static final long GRANULARITY_MICROS = 10000; // Floor for the variance term, as RFC 6298's G
+    private static final int MAX_BACKOFF = 4;
+
+    // One RFC 6298 estimator; all times in microseconds
+    private static final class Estimate {
+        long srtt = -1; // -1 until the first sample
+        long rttvar;
+        int backoff;
+
+        void sample(long micros) {
+            if (srtt < 0) {
+                srtt = micros;
+                rttvar = micros / 2;
+            } else {
+                rttvar = (3 * rttvar + Math.abs(srtt - micros)) / 4;
+                srtt = (7 * srtt + micros) / 8;
+            }
+            backoff = 0;
+        }
+
+        long timeoutMillis(long initialMillis, long minMillis) {
+            long base = srtt < 0
+                ? initialMillis
+                : Math.max(minMillis, (srtt + Math.max(GRANULARITY_MICROS, 4 * rttvar) + 999) / 1000);
+            return Math.min(MAX_MILLIS, base << backoff);
+        }
+    }
+
+    // Per endpoint: [connect, first byte]
+    private final Map<String, Estimate[]> estimates = new TreeMap<>();
+
+    public synchronized int connectMillis(String endpoint, GuestApiClient.Timeout profile) {
+        return (int) estimates(endpoint)[0].timeoutMillis(profile.connectMillis, MIN_CONNECT_MILLIS);
+    }
+
+    public synchronized int readMillis(String endpoint, GuestApiClient.Timeout profile) {
+        long floor = profile.repeatable ? MIN_READ_MILLIS : profile.readMillis;
+        return (int) estimates(endpoint)[1].timeoutMillis(profile.readMillis, floor);
+    }
+
+    public synchronized void sampleConnect(String endpoint, long nanos) {
+        estimates(endpoint)[0].sample(nanos / 1000);
+    }
+
+    public synchronized void sampleFirstByte(String endpoint, long nanos) {
+        estimates(endpoint)[1].sample(nanos / 1000);
+    }
+
+    /** A deadline expired: back off that phase until a sample succeeds. */
+    public synchronized void timedOut(String endpoint, boolean connecting) {
+        Estimate estimate = estimates(endpoint)[connecting ? 0 : 1];
+        estimate.backoff = Math.min(MAX_BACKOFF, estimate.backoff + 1);
+    }
+
+    /** Smoothed estimates as JSON, {"endpoint":{"connect":[srtt,rttvar],"ttfb":[srtt,rttvar]}} in microseconds. */
+    public synchronized String toJson() {
+        JsonWriter json = new JsonWriter().beginObject();
+        for (Map.Entry<String, Estimate[]> entry : estimates.entrySet()) {
+            json.name(entry.getKey()).beginObject();
+            writeEstimate(json, "connect", entry.getValue()[0]);
+            writeEstimate(json, "ttfb", entry.getValue()[1]);
+            json.endObject();
+        }
+        return json.endObject().toString();
+    }
+
+    /** Replaces the estimates with ones saved by {@link #toJson}; backoff starts afresh. */
+    public void restore(String saved) throws IOException {
+        Map<String, Estimate[]> restored = new TreeMap<>();
+        JsonReader in = new JsonReader(saved);
+        in.beginObject();
+        while (in.hasNext()) {
+            Estimate[] pair = {new Estimate(), new Estimate()};
+            restored.put(in.nextName(), pair);
+            in.beginObject();
+            while (in.hasNext()) {
+                String phase = in.nextName();
+                if ("connect".equals(phase)) {
+                    readEstimate(in, pair[0]);
+                } else if ("ttfb".equals(phase)) {
+                    readEstimate(in, pair[1]);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+        }
+        in.endObject();
+        synchronized (this) {
+            estimates.clear();
+            estimates.putAll(restored);
+        }
+    }
+
+    private Estimate[] estimates(String endpoint) {
+        Estimate[] pair = estimates.get(endpoint);
+        if (pair == null) {
+            pair = new Estimate[] {new Estimate(), new Estimate()};
+            estimates.put(endpoint, pair);
+        }
+        return pair;
+    }
+
+    private static void writeEstimate(JsonWriter json, String name, Estimate estimate) {
+        if (estimate.srtt >= 0) {
+            json.name(name).beginArray().value(estimate.srtt).value(estimate.rttvar).endArray();
+        }
+    }
+
+    private static void readEstimate(JsonReader in, Estimate estimate) throws IOException {
+        in.beginArray();
+        long srtt = in.nextLong();
+        long rttvar = in.nextLong();
+        in.endArray();
+        if (srtt >= 0 && rttvar >= 0) {
+            estimate.srtt = srtt;
+            estimate.rttvar = rttvar;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.redvelvet.aicompanion.protocol;
+
+import java.io.IOException;
+
+/**
+ * Pull-parser view of a JSON-shaped document, whatever its encoding, so the
+ * response models in {@link GuestApiJson} are parsed by the same code from
+ * JSON text or CBOR bytes.
+ */
+public interface ValueReader {
+
+    enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT }
+
+    Token peek() throws IOException;
+
+    void beginObject() throws IOException;
+
+    void endObject() throws IOException;
+
+    void beginArray() throws IOException;
+
+    void endArray() throws IOException;
+
+    boolean hasNext() throws IOException;
+
+    String nextName() throws IOException;
+
+    String nextString() throws IOException;
+
+    boolean nextBoolean() throws IOException;
+
+    void nextNull() throws IOException;
+
+    long nextLong() throws IOException;
+
+    int nextInt() throws IOException;
+
+    void skipValue() throws IOException;
+}
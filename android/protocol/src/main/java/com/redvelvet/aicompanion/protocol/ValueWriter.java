@@ -0,0 +1,21 @@
+package com.redvelvet.aicompanion.protocol;
+
+/** Streaming writer for a JSON-shaped document, implemented for JSON text and for CBOR. */
+public interface ValueWriter {
+
+    ValueWriter beginObject();
+
+    ValueWriter endObject();
+
+    ValueWriter beginArray();
+
+    ValueWriter endArray();
+
+    ValueWriter name(String name);
+
+    ValueWriter value(String value);
+
+    ValueWriter value(long value);
+
+    ValueWriter value(boolean value);
+}
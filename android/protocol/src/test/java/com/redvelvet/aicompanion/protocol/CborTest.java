@@ -0,0 +1,70 @@
+package com.redvelvet.aicompanion.protocol;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class CborTest {
+
+    private static CborReader reader(int... bytes) {
+        byte[] data = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            data[i] = (byte) bytes[i];
+        }
+        return new CborReader(new ByteArrayInputStream(data));
+    }
+
+    @Test
+    public void chatRequestRoundTripsThroughCbor() throws Exception {
+        String message = "quote \" emoji 😊 and a long tail " + "x".repeat(300);
+        CborWriter out = new CborWriter();
+        GuestApiJson.writeChatRequest(out, -70000, message);
+
+        CborReader reader = new CborReader(new ByteArrayInputStream(out.toByteArray()));
+        reader.beginObject();
+        assertEquals("companionId", reader.nextName());
+        assertEquals(-70000, reader.nextInt());
+        assertEquals("message", reader.nextName());
+        assertEquals(message, reader.nextString());
+        reader.endObject();
+        assertEquals(ValueReader.Token.END_DOCUMENT, reader.peek());
+    }
+
+    @Test
+    public void definiteLengthReplySkipsUnknownFields() throws Exception {
+        // {"meta": [1.5, h'00', {"a": null}], "response": "hi", "remainingDiamonds": 1000}
+        CborReader reader = reader(
+            0xA3,
+            0x64, 'm', 'e', 't', 'a', 0x83, 0xF9, 0x3E, 0x00, 0x41, 0x00, 0xA1, 0x61, 'a', 0xF6,
+            0x68, 'r', 'e', 's', 'p', 'o', 'n', 's', 'e', 0x62, 'h', 'i',
+            0x71, 'r', 'e', 'm', 'a', 'i', 'n', 'i', 'n', 'g', 'D', 'i', 'a', 'm', 'o', 'n', 'd', 's', 0x19, 0x03, 0xE8);
+
+        GuestApiJson.ChatReply reply = GuestApiJson.parseChatReply(reader);
+
+        assertEquals("hi", reply.response);
+        assertEquals(Integer.valueOf(1000), reply.remainingDiamonds);
+    }
+
+    @Test
+    public void indefiniteLengthTextIsJoined() throws Exception {
+        // {_ "response": (_ "he", "llo"), "remainingDiamonds": null}
+        CborReader reader = reader(
+            0xBF,
+            0x68, 'r', 'e', 's', 'p', 'o', 'n', 's', 'e', 0x7F, 0x62, 'h', 'e', 0x63, 'l', 'l', 'o', 0xFF,
+            0x71, 'r', 'e', 'm', 'a', 'i', 'n', 'i', 'n', 'g', 'D', 'i', 'a', 'm', 'o', 'n', 'd', 's', 0xF6,
+            0xFF);
+
+        GuestApiJson.ChatReply reply = GuestApiJson.parseChatReply(reader);
+
+        assertEquals("hello", reply.response);
+        assertNull(reply.remainingDiamonds);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedInputFails() throws Exception {
+        GuestApiJson.parseIntField(reader(0xA1, 0x68, 'd', 'i', 'a'), "diamonds");
+    }
+}
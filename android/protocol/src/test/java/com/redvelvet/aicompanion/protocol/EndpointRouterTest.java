@@ -0,0 +1,105 @@
+package com.redvelvet.aicompanion.protocol;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class EndpointRouterTest {
+    private static final String NEAR = "https://near.example";
+    private static final String FAR = "https://far.example";
+    private static final long COOLDOWN_NANOS = TimeUnit.MILLISECONDS.toNanos(EndpointRouter.MIN_EJECT_MILLIS);
+
+    @Test
+    public void configurationIsACommaSeparatedList() {
+        EndpointRouter router = EndpointRouter.parse(" https://far.example/, https://near.example ,");
+        assertEquals(FAR, router.select());
+        router.succeeded(FAR, TimeUnit.MILLISECONDS.toNanos(90));
+        assertEquals(NEAR, router.select());
+    }
+
+    @Test
+    public void eachOriginIsTriedThenTheFastestWins() {
+        EndpointRouter router = new EndpointRouter(List.of(FAR, NEAR));
+        assertEquals(FAR, router.select());
+        router.succeeded(FAR, TimeUnit.MILLISECONDS.toNanos(180));
+        assertEquals(NEAR, router.select());
+        router.succeeded(NEAR, TimeUnit.MILLISECONDS.toNanos(25));
+        assertEquals(NEAR, router.select());
+        // Pooled connections say nothing about latency
+        router.succeeded(NEAR, -1);
+        assertEquals(NEAR, router.select());
+    }
+
+    @Test
+    public void repeatedFailuresEjectUntilTheCooldownEnds() {
+        EndpointRouter router = new EndpointRouter(List.of(NEAR, FAR));
+        router.succeeded(NEAR, TimeUnit.MILLISECONDS.toNanos(20));
+        router.succeeded(FAR, TimeUnit.MILLISECONDS.toNanos(150));
+
+        long now = 0;
+        router.failed(NEAR, now);
+        // Still in rotation, but behind an origin that has not failed
+        assertTrue(router.isHealthy(NEAR, now));
+        assertEquals(FAR, router.select(now, null));
+        for (int i = 1; i < EndpointRouter.FAILURES_TO_EJECT; i++) {
+            router.failed(NEAR, now);
+        }
+        assertFalse(router.isHealthy(NEAR, now + COOLDOWN_NANOS - 1));
+        assertTrue(router.isHealthy(NEAR, now + COOLDOWN_NANOS));
+
+        // On probation one failure ejects it again, for twice as long
+        now += COOLDOWN_NANOS;
+        router.failed(NEAR, now);
+        assertFalse(router.isHealthy(NEAR, now + 2 * COOLDOWN_NANOS - 1));
+        assertTrue(router.isHealthy(NEAR, now + 2 * COOLDOWN_NANOS));
+
+        router.succeeded(NEAR, -1);
+        assertEquals(NEAR, router.select(now, null));
+    }
+
+    @Test
+    public void withEveryOriginEjectedTheOneDueBackFirstIsUsed() {
+        EndpointRouter router = new EndpointRouter(List.of(NEAR, FAR));
+        for (int i = 0; i < EndpointRouter.FAILURES_TO_EJECT; i++) {
+            router.failed(NEAR, 0);
+            router.failed(FAR, 1000);
+        }
+        assertEquals(NEAR, router.select(2000, null));
+        assertNull(router.select(2000, List.of(NEAR)));
+    }
+
+    @Test
+    public void unreachableOriginFailsOverWithinTheRequest() throws Exception {
+        String dead;
+        try (GuestApiStandInServer gone = new GuestApiStandInServer()) {
+            dead = gone.baseUrl();
+        }
+        try (GuestApiStandInServer server = new GuestApiStandInServer()) {
+            EndpointRouter router = new EndpointRouter(List.of(dead, server.baseUrl()));
+            GuestApiClient client = new GuestApiClient(router);
+
+            assertEquals(200, client.get("/api/guest/session", GuestApiClient.Timeout.SESSION).code);
+            assertEquals(1, server.requestCount());
+            assertEquals(server.baseUrl(), router.select());
+        }
+    }
+
+    @Test
+    public void erroringOriginLosesTrafficToAHealthyOne() throws Exception {
+        try (GuestApiStandInServer failing = new GuestApiStandInServer();
+             GuestApiStandInServer healthy = new GuestApiStandInServer()) {
+            failing.setFailing(true);
+            GuestApiClient client = new GuestApiClient(new EndpointRouter(List.of(failing.baseUrl(), healthy.baseUrl())));
+
+            // The server may have acted on it, so a 5xx is returned rather than retried
+            assertEquals(503, client.get("/api/guest/session", GuestApiClient.Timeout.SESSION).code);
+            assertEquals(200, client.get("/api/guest/session", GuestApiClient.Timeout.SESSION).code);
+            assertEquals(GuestApiStandInServer.SESSION_COOKIE, client.getSessionCookie());
+            assertEquals(200, client.get("/api/guest/diamonds", GuestApiClient.Timeout.BALANCE).code);
+            assertEquals(1, failing.requestCount());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.redvelvet.aicompanion.protocol;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventChannelTest {
+    private GuestApiStandInServer server;
+    private GuestApiClient client;
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    private EventChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new GuestApiStandInServer();
+        client = new GuestApiClient(server.baseUrl());
+        client.get("/api/guest/session", GuestApiClient.Timeout.SESSION);
+        // Longer than any test runs, short enough that a stream left blocked does not hold up the suite
+        client.setReadTimeout(GuestApiClient.Timeout.EVENTS, 5000);
+        channel = new EventChannel(client, "/api/guest/events", new EventChannel.Listener() {
+            @Override
+            public void onEvent(String event, String data) {
+                received.add(event + ":" + data);
+            }
+
+            @Override
+            public void onConnectionChanged(boolean connected) {
+                received.add(connected ? "connected" : "disconnected");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        channel.close();
+        server.close();
+    }
+
+    @Test
+    public void balanceChangesArriveWithoutPolling() throws Exception {
+        channel.start();
+        assertEquals("connected", next());
+        assertEquals("balance:{\"diamonds\":25}", next());
+
+        client.postJson("/api/guest/chat", GuestApiJson.chatRequest(1, "hi"), GuestApiClient.Timeout.CHAT);
+        assertEquals("balance:{\"diamonds\":24}", next());
+
+        server.pushEvent("session-expired", "{}");
+        assertEquals("session-expired:{}", next());
+        assertTrue(channel.isConnected());
+    }
+
+    @Test
+    public void reconnectsAndCatchesUpAfterDrop() throws Exception {
+        channel.start();
+        assertEquals("connected", next());
+        assertEquals("balance:{\"diamonds\":25}", next());
+
+        server.dropEventStreams();
+        assertEquals("disconnected", next());
+        server.setDiamonds(40); // Changed while nobody was listening
+
+        assertEquals("connected", next());
+        assertEquals("balance:{\"diamonds\":40}", next());
+    }
+
+    @Test
+    public void closeReturnsPromptlyAndStopsTheStream() throws Exception {
+        channel.start();
+        assertEquals("connected", next());
+        assertEquals("balance:{\"diamonds\":25}", next());
+
+        // The stream is idle, so the reader is blocked in a read that close() must not wait out
+        long start = System.nanoTime();
+        channel.close();
+        assertTrue("close() blocked", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+        int requests = server.requestCount();
+        server.pushEvent("balance", "{\"diamonds\":30}");
+        String event;
+        while ((event = received.poll(EventChannel.MIN_RETRY_MILLIS * 2, TimeUnit.MILLISECONDS)) != null) {
+            assertEquals("Delivered after close", "disconnected", event);
+        }
+        assertEquals(requests, server.requestCount());
+    }
+
+    private String next() throws InterruptedException {
+        String event = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull("Timed out waiting for an event", event);
+        return event;
+    }
+}
@@ -0,0 +1,209 @@
+package com.redvelvet.aicompanion.protocol;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GuestApiClientTest {
+    private GuestApiStandInServer server;
+    private GuestApiClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new GuestApiStandInServer();
+        client = new GuestApiClient(server.baseUrl());
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void sessionCookieIsCapturedAndReplayed() throws Exception {
+        assertEquals(400, client.get("/api/guest/diamonds", GuestApiClient.Timeout.BALANCE).code);
+
+        client.get("/api/guest/session", GuestApiClient.Timeout.SESSION);
+        assertEquals(GuestApiStandInServer.SESSION_COOKIE, client.getSessionCookie());
+
+        GuestApiClient.Response response = client.get("/api/guest/diamonds", GuestApiClient.Timeout.BALANCE);
+        assertEquals(200, response.code);
+        assertEquals(Integer.valueOf(25), GuestApiJson.parseIntField(response.body, "diamonds"));
+    }
+
+    @Test
+    public void streamedReplyArrivesAsEvents() throws Exception {
+        server.setStreaming(true);
+        server.setReply("one two three");
+        client.get("/api/guest/session", GuestApiClient.Timeout.SESSION);
+
+        List<String> events = new ArrayList<>();
+        GuestApiClient.Response response = client.postJsonStreaming("/api/guest/chat",
+            GuestApiJson.chatRequest(1, "hi"), GuestApiClient.Timeout.CHAT, (event, data) -> events.add(event + ":" + data));
+
+        assertTrue(response.streamed);
+        assertEquals(List.of("message:one ", "message:two ", "message:three", "done:{\"remainingDiamonds\":24}"), events);
+    }
+
+    @Test
+    public void jsonServerFallsBackToOneShotBody() throws Exception {
+        client.get("/api/guest/session", GuestApiClient.Timeout.SESSION);
+
+        GuestApiClient.Response response = client.postJsonStreaming("/api/guest/chat",
+            GuestApiJson.chatRequest(1, "hi"), GuestApiClient.Timeout.CHAT, (event, data) -> fail("Not streamed"));
+
+        assertFalse(response.streamed);
+        assertEquals("Hey, what's on your mind?", GuestApiJson.parseChatReply(response.body).response);
+    }
+
+    @Test
+    public void cancellingTheScopeStopsTheStreamAndFailsTheCall() throws Exception {
+        server.setStreaming(true);
+        server.setReply("one two three");
+        client.get("/api/guest/session", GuestApiClient.Timeout.SESSION);
+        CancellationToken screen = new CancellationToken().child();
+        GuestApiClient scoped = client.scoped(screen);
+
+        List<String> events = new ArrayList<>();
+        try {
+            scoped.postJsonStreaming("/api/guest/chat", GuestApiJson.chatRequest(1, "hi"), GuestApiClient.Timeout.CHAT,
+                (event, data) -> {
+                    events.add(data);
+                    screen.cancel();
+                });
+            fail("Cancelled call must not return a response");
+        } catch (InterruptedIOException expected) {
+        }
+        assertEquals(List.of("one "), events);
+    }
+
+    @Test
+    public void cancelledScopeNeverConnectsButSharesTheSession() throws Exception {
+        CancellationToken activity = new CancellationToken();
+        GuestApiClient scoped = client.scoped(activity.child());
+        scoped.get("/api/guest/session", GuestApiClient.Timeout.SESSION);
+        assertEquals(GuestApiStandInServer.SESSION_COOKIE, client.getSessionCookie());
+        int requests = server.requestCount();
+
+        activity.cancel();
+        try {
+            scoped.get("/api/guest/diamonds", GuestApiClient.Timeout.BALANCE);
+            fail("Child of a cancelled token must be cancelled");
+        } catch (InterruptedIOException expected) {
+        }
+        assertEquals(requests, server.requestCount());
+        assertEquals(200, client.get("/api/guest/diamonds", GuestApiClient.Timeout.BALANCE).code);
+    }
+
+    @Test
+    public void apiCallsRecordEveryPhase() throws Exception {
+        client.get("/api/guest/session", GuestApiClient.Timeout.SESSION);
+        GuestApiClient.Response response = client.get("/api/guest/diamonds?fresh=1", GuestApiClient.Timeout.BALANCE);
+        client.metrics().parse("/api/guest/diamonds", () -> GuestApiJson.parseIntField(response.body, "diamonds"));
+
+        EndpointMetrics metrics = client.metrics();
+        for (EndpointMetrics.Phase phase : EndpointMetrics.Phase.values()) {
+            assertEquals(phase.name(), 1, metrics.get("/api/guest/diamonds", phase).count());
+        }
+        assertEquals(0, metrics.get("/api/guest/session", EndpointMetrics.Phase.PARSE).count());
+        assertTrue(metrics.drain().contains("\"/api/guest/diamonds\":{\"connect\":{\"n\":1"));
+        assertEquals(0, metrics.get("/api/guest/diamonds", EndpointMetrics.Phase.CONNECT).count());
+    }
+
+    @Test
+    public void cborIsNegotiatedAndJsonStaysTheFallback() throws Exception {
+        client.get("/api/guest/session", GuestApiClient.Timeout.SESSION);
+        GuestApiClient.Payload hi = out -> GuestApiJson.writeChatRequest(out, 1, "hi");
+
+        GuestApiClient.Response json = client.postStreaming("/api/guest/chat", hi, GuestApiClient.Timeout.CHAT, null);
+        assertFalse(json.isBinary());
+        assertEquals("Hey, what's on your mind?", GuestApiJson.parseChatReply(json.reader()).response);
+
+        server.setCbor(true);
+        GuestApiClient.Response balance = client.getNegotiated("/api/guest/diamonds", GuestApiClient.Timeout.BALANCE);
+        assertTrue(balance.isBinary());
+        assertEquals(Integer.valueOf(24), GuestApiJson.parseIntField(balance.reader(), "diamonds"));
+
+        // The server has answered in CBOR, so the next request body is CBOR as well
+        GuestApiClient.Response binary = client.postStreaming("/api/guest/chat", hi, GuestApiClient.Timeout.CHAT, null);
+        assertEquals(CborReader.CONTENT_TYPE, server.lastChatContentType());
+        assertEquals(Integer.valueOf(23), GuestApiJson.parseChatReply(binary.reader()).remainingDiamonds);
+
+        // A server that stops accepting CBOR gets the same request again as JSON
+        server.setCbor(false);
+        GuestApiClient.Response retried = client.postStreaming("/api/guest/chat", hi, GuestApiClient.Timeout.CHAT, null);
+        assertEquals(200, retried.code);
+        assertFalse(retried.isBinary());
+        assertTrue(server.lastChatContentType().startsWith("application/json"));
+    }
+
+    @Test
+    public void retryWithTheSameIdempotencyKeyIsNotChargedAgain() throws Exception {
+        client.get("/api/guest/session", GuestApiClient.Timeout.SESSION);
+        GuestApiClient.Payload hi = out -> GuestApiJson.writeChatRequest(out, 1, "hi");
+        Map<String, String> first = Map.of(GuestApiClient.IDEMPOTENCY_KEY, "1-1000");
+
+        GuestApiClient.Response sent = client.postStreaming("/api/guest/chat", hi, GuestApiClient.Timeout.CHAT, first, null);
+        assertEquals(Integer.valueOf(24), GuestApiJson.parseChatReply(sent.reader()).remainingDiamonds);
+
+        GuestApiClient.Response replayed = client.postStreaming("/api/guest/chat", hi, GuestApiClient.Timeout.CHAT, first, null);
+        GuestApiJson.ChatReply reply = GuestApiJson.parseChatReply(replayed.reader());
+        assertEquals("Hey, what's on your mind?", reply.response);
+        assertEquals(Integer.valueOf(24), reply.remainingDiamonds);
+
+        Map<String, String> second = Map.of(GuestApiClient.IDEMPOTENCY_KEY, "2-2000");
+        GuestApiClient.Response next = client.postStreaming("/api/guest/chat", hi, GuestApiClient.Timeout.CHAT, second, null);
+        assertEquals(Integer.valueOf(23), GuestApiJson.parseChatReply(next.reader()).remainingDiamonds);
+    }
+
+    @Test
+    public void refusedSessionIsRenewedOnceAndTheRequestRetried() throws Exception {
+        List<String> cookies = new ArrayList<>();
+        client.setSessionHandler(new GuestApiClient.SessionHandler() {
+            @Override
+            public void onCookieChanged(String cookie, boolean replaced) {
+                cookies.add(cookie + (replaced ? " (replaced)" : ""));
+            }
+
+            @Override
+            public boolean renewSession() throws IOException {
+                client.setSessionCookie(null);
+                return client.get("/api/guest/session", GuestApiClient.Timeout.SESSION).code == 200;
+            }
+        });
+        client.get("/api/guest/session", GuestApiClient.Timeout.SESSION);
+        assertEquals(List.of(GuestApiStandInServer.SESSION_COOKIE), cookies);
+
+        // A stored cookie goes out as is; only the server refusing it costs a new session
+        server.expireSession();
+        GuestApiClient.Response response = client.getNegotiated("/api/guest/diamonds", GuestApiClient.Timeout.BALANCE);
+        assertEquals(200, response.code);
+        assertEquals(2, server.sessionRequestCount());
+        assertEquals(2, cookies.size());
+        assertNotEquals(GuestApiStandInServer.SESSION_COOKIE, client.getSessionCookie());
+    }
+
+    @Test
+    public void offlineCallsFailWithoutConnecting() throws Exception {
+        boolean[] online = {false};
+        client.setNetworkState(() -> online[0]);
+        try {
+            client.get("/api/guest/session", GuestApiClient.Timeout.SESSION);
+            fail("Expected to fail while offline");
+        } catch (OfflineException expected) {
+            // Thrown before any connection was opened
+        }
+        assertEquals(0, server.requestCount());
+
+        online[0] = true;
+        assertEquals(200, client.get("/api/guest/session", GuestApiClient.Timeout.SESSION).code);
+    }
+}
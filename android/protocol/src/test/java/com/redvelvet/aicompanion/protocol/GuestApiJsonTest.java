@@ -0,0 +1,51 @@
+package com.redvelvet.aicompanion.protocol;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class GuestApiJsonTest {
+
+    @Test
+    public void chatReplyKeepsEscapedQuotesAndUnicode() throws Exception {
+        String body = "{\"success\":true,\"meta\":{\"tags\":[1,\"a\",null]},"
+            + "\"response\":\"She said \\\"hi\\\" \\u2764\\ufe0f \\ud83d\\ude0a\\nbye\",\"remainingDiamonds\":23}";
+
+        GuestApiJson.ChatReply reply = GuestApiJson.parseChatReply(body);
+
+        assertEquals("She said \"hi\" ❤️ 😊\nbye", reply.response);
+        assertEquals(Integer.valueOf(23), reply.remainingDiamonds);
+    }
+
+    @Test
+    public void sessionFieldsAreReadInOnePass() throws Exception {
+        GuestApiJson.Session session = GuestApiJson.parseSession(
+            "{ \"sessionId\": \"abc\", \"preferredGender\": null, \"messageDiamonds\": 25,"
+                + " \"accessibleCompanionIds\": [1, 2], \"hasReceivedWelcomeDiamonds\": true }");
+
+        assertEquals("abc", session.sessionId);
+        assertEquals(Integer.valueOf(25), session.messageDiamonds);
+        assertTrue(session.hasReceivedWelcomeDiamonds);
+    }
+
+    @Test
+    public void chatRequestRoundTrips() throws Exception {
+        String message = "quote \" backslash \\ newline \n tab \t bell \u0007";
+        String payload = GuestApiJson.chatRequest(3, message);
+
+        JsonReader reader = new JsonReader(payload);
+        reader.beginObject();
+        assertEquals("companionId", reader.nextName());
+        assertEquals(3, reader.nextInt());
+        assertEquals("message", reader.nextName());
+        assertEquals(message, reader.nextString());
+        reader.endObject();
+        assertEquals(JsonReader.Token.END_DOCUMENT, reader.peek());
+    }
+
+    @Test
+    public void missingFieldIsNull() throws Exception {
+        assertNull(GuestApiJson.parseIntField("{\"message\":\"Insufficient diamonds\"}", "diamonds"));
+        assertEquals(Integer.valueOf(7), GuestApiJson.parseIntField("{\"diamonds\":7}", "diamonds"));
+    }
+}
@@ -0,0 +1,158 @@
+package com.redvelvet.aicompanion.protocol;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HttpCacheTest {
+    private static final String CATALOG = "/api/companions";
+    private static final String JAMES = "[{\"id\":7,\"name\":\"James\",\"gender\":\"male\"}]";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong clock = new AtomicLong(1_700_000_000_000L);
+    private final Queue<Runnable> background = new ArrayDeque<>();
+    private GuestApiStandInServer server;
+    private GuestApiClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new GuestApiStandInServer();
+        client = new GuestApiClient(server.baseUrl());
+        client.setCache(newCache());
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private HttpCache newCache() {
+        return new HttpCache(new File(folder.getRoot(), "http"), 64 * 1024, 16 * 1024, background::add, clock::get);
+    }
+
+    private void advance(long seconds) {
+        clock.addAndGet(TimeUnit.SECONDS.toMillis(seconds));
+    }
+
+    @Test
+    public void freshResponseIsServedWithoutARequest() throws Exception {
+        server.setCacheControl("public, max-age=300");
+        GuestApiClient.Response first = client.get(CATALOG, GuestApiClient.Timeout.CATALOG);
+        advance(299);
+        GuestApiClient.Response second = client.get(CATALOG, GuestApiClient.Timeout.CATALOG);
+
+        assertEquals(1, server.requestCount());
+        assertEquals(200, second.code);
+        assertEquals(first.body, second.body);
+        assertEquals(first.header("ETag"), second.header("etag"));
+    }
+
+    @Test
+    public void staleEntryIsRevalidated() throws Exception {
+        server.setCacheControl("max-age=60");
+        String original = client.get(CATALOG, GuestApiClient.Timeout.CATALOG).body;
+
+        // Unchanged: a 304 on the wire, the stored body to the caller, fresh again afterwards
+        advance(61);
+        GuestApiClient.Response revalidated = client.get(CATALOG, GuestApiClient.Timeout.CATALOG);
+        assertEquals(2, server.requestCount());
+        assertEquals(200, revalidated.code);
+        assertEquals(original, revalidated.body);
+        client.get(CATALOG, GuestApiClient.Timeout.CATALOG);
+        assertEquals(2, server.requestCount());
+
+        advance(61);
+        server.setCompanions(JAMES);
+        assertEquals(JAMES, client.get(CATALOG, GuestApiClient.Timeout.CATALOG).body);
+    }
+
+    @Test
+    public void staleWhileRevalidateAnswersAtOnceAndRefreshesBehind() throws Exception {
+        server.setCacheControl("max-age=1, stale-while-revalidate=600");
+        String original = client.get(CATALOG, GuestApiClient.Timeout.CATALOG).body;
+        server.setCompanions(JAMES);
+        advance(30);
+
+        assertEquals(original, client.get(CATALOG, GuestApiClient.Timeout.CATALOG).body);
+        assertEquals(original, client.get(CATALOG, GuestApiClient.Timeout.CATALOG).body);
+        assertEquals(1, server.requestCount());
+        // Two stale reads, one refresh
+        assertEquals(1, background.size());
+
+        background.poll().run();
+        assertEquals(2, server.requestCount());
+        assertEquals(JAMES, client.get(CATALOG, GuestApiClient.Timeout.CATALOG).body);
+        assertEquals(2, server.requestCount());
+    }
+
+    @Test
+    public void uncacheableResponsesAlwaysGoToTheServer() throws Exception {
+        server.setCacheControl("no-store");
+        client.get(CATALOG, GuestApiClient.Timeout.CATALOG);
+        client.get(CATALOG, GuestApiClient.Timeout.CATALOG);
+        assertEquals(2, server.requestCount());
+
+        // A response that sets the session cookie is never kept
+        client.get("/api/guest/session", GuestApiClient.Timeout.SESSION);
+        client.get("/api/guest/session", GuestApiClient.Timeout.SESSION);
+        assertEquals(2, server.sessionRequestCount());
+    }
+
+    @Test
+    public void entriesSurviveARestart() throws Exception {
+        server.setCacheControl("max-age=300");
+        client.get(CATALOG, GuestApiClient.Timeout.CATALOG);
+
+        GuestApiClient relaunched = new GuestApiClient(server.baseUrl());
+        relaunched.setCache(newCache());
+        advance(10);
+        assertEquals(200, relaunched.get(CATALOG, GuestApiClient.Timeout.CATALOG).code);
+        assertEquals(1, server.requestCount());
+    }
+
+    @Test
+    public void lastModifiedGivesATenthOfItsAgeAsFreshness() {
+        HttpCache cache = newCache();
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("Date", Collections.singletonList("Sun, 12 Nov 2023 12:00:00 GMT"));
+        headers.put("Last-Modified", Collections.singletonList("Tue, 07 Nov 2023 12:00:00 GMT"));
+        cache.update("/packages", null, null, new GuestApiClient.Response(200, "[]", null, false, headers));
+
+        HttpCache.Entry entry = cache.get("/packages", null);
+        assertTrue(entry.isFresh(clock.get() + TimeUnit.HOURS.toMillis(11)));
+        assertFalse(entry.isFresh(clock.get() + TimeUnit.HOURS.toMillis(13)));
+        assertEquals("Tue, 07 Nov 2023 12:00:00 GMT", entry.conditionalHeaders().get("If-Modified-Since"));
+    }
+
+    @Test
+    public void diskStaysWithinItsBudget() {
+        HttpCache cache = newCache();
+        byte[] body = new byte[20 * 1024];
+        for (int i = 0; i < 8; i++) {
+            cache.update("/blob/" + i, null, null, new GuestApiClient.Response(200,
+                new String(body, StandardCharsets.UTF_8), null, false, Collections.emptyMap()));
+        }
+        long total = 0;
+        for (File file : new File(folder.getRoot(), "http").listFiles()) {
+            total += file.length();
+        }
+        assertTrue(total <= 64 * 1024);
+    }
+}
@@ -0,0 +1,45 @@
+package com.redvelvet.aicompanion.protocol;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void everyValueLandsInABucketWithinSixPercent() {
+        for (long value = 1; value < LatencyHistogram.MAX_MICROS; value = value * 3 / 2 + 1) {
+            long upper = LatencyHistogram.upperBound(LatencyHistogram.indexFor(value));
+            assertTrue(value + " above its bucket", upper >= value);
+            assertTrue(value + " bucket too wide", upper - value <= value / 16);
+        }
+    }
+
+    @Test
+    public void percentilesFollowTheRecordedDistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.count());
+        assertEquals(1000, histogram.min());
+        assertEquals(1_000_000, histogram.max());
+        assertEquals(500_000, histogram.percentile(50), 500_000 / 16);
+        assertEquals(990_000, histogram.percentile(99), 990_000 / 16);
+        assertEquals(1_000_000, histogram.percentile(100));
+    }
+
+    @Test
+    public void snapshotListsOnlyNonEmptyBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3);
+        histogram.record(3);
+        histogram.record(40);
+
+        JsonWriter json = new JsonWriter();
+        histogram.writeTo(json);
+
+        assertEquals("{\"n\":3,\"min\":3,\"max\":40,\"p50\":3,\"p90\":40,\"p99\":40,\"b\":[3,2,36,1]}", json.toString());
+    }
+}
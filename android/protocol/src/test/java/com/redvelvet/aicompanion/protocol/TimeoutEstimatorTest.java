@@ -0,0 +1,103 @@
+package com.redvelvet.aicompanion.protocol;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TimeoutEstimatorTest {
+    private static final String CHAT = "/api/guest/chat";
+    private static final String BALANCE = "/api/guest/diamonds";
+
+    @Test
+    public void unmeasuredEndpointUsesItsProfile() {
+        TimeoutEstimator estimator = new TimeoutEstimator();
+        assertEquals(10000, estimator.connectMillis(CHAT, GuestApiClient.Timeout.CHAT));
+        assertEquals(15000, estimator.readMillis(CHAT, GuestApiClient.Timeout.CHAT));
+    }
+
+    @Test
+    public void deadlineTracksMeanPlusFourDeviations() {
+        TimeoutEstimator estimator = new TimeoutEstimator();
+        // First sample: SRTT = R, RTTVAR = R/2, so the deadline is 3R
+        estimator.sampleFirstByte(BALANCE, TimeUnit.SECONDS.toNanos(3));
+        assertEquals(9000, estimator.readMillis(BALANCE, GuestApiClient.Timeout.BALANCE));
+
+        // A slow link raises the deadline past the static profile...
+        for (int i = 0; i < 20; i++) {
+            estimator.sampleFirstByte(BALANCE, TimeUnit.SECONDS.toNanos(12));
+        }
+        int slow = estimator.readMillis(BALANCE, GuestApiClient.Timeout.BALANCE);
+        assertTrue(slow > 10000);
+        assertTrue(slow <= TimeoutEstimator.MAX_MILLIS);
+
+        // ...and a fast, steady one brings it down to the floor
+        for (int i = 0; i < 60; i++) {
+            estimator.sampleFirstByte(BALANCE, TimeUnit.MILLISECONDS.toNanos(40));
+        }
+        assertEquals(TimeoutEstimator.MIN_READ_MILLIS, estimator.readMillis(BALANCE, GuestApiClient.Timeout.BALANCE));
+    }
+
+    @Test
+    public void chatReadDeadlineNeverDropsBelowItsProfile() {
+        TimeoutEstimator estimator = new TimeoutEstimator();
+        for (int i = 0; i < 60; i++) {
+            estimator.sampleFirstByte(CHAT, TimeUnit.MILLISECONDS.toNanos(40));
+        }
+        assertEquals(15000, estimator.readMillis(CHAT, GuestApiClient.Timeout.CHAT));
+
+        // It may still grow on a slow link
+        for (int i = 0; i < 20; i++) {
+            estimator.sampleFirstByte(CHAT, TimeUnit.SECONDS.toNanos(12));
+        }
+        assertTrue(estimator.readMillis(CHAT, GuestApiClient.Timeout.CHAT) > 15000);
+    }
+
+    @Test
+    public void timeoutsBackOffUntilTheNextSample() {
+        TimeoutEstimator estimator = new TimeoutEstimator();
+        estimator.sampleConnect(CHAT, TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(1500, estimator.connectMillis(CHAT, GuestApiClient.Timeout.CHAT));
+
+        estimator.timedOut(CHAT, true);
+        assertEquals(3000, estimator.connectMillis(CHAT, GuestApiClient.Timeout.CHAT));
+        estimator.timedOut(CHAT, true);
+        assertEquals(6000, estimator.connectMillis(CHAT, GuestApiClient.Timeout.CHAT));
+
+        estimator.sampleConnect(CHAT, TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(1250, estimator.connectMillis(CHAT, GuestApiClient.Timeout.CHAT));
+    }
+
+    @Test
+    public void estimatesSurviveASaveAndRestore() throws Exception {
+        TimeoutEstimator estimator = new TimeoutEstimator();
+        estimator.sampleFirstByte(CHAT, TimeUnit.SECONDS.toNanos(4));
+        estimator.sampleConnect("/api/guest/diamonds", TimeUnit.MILLISECONDS.toNanos(300));
+
+        TimeoutEstimator restored = new TimeoutEstimator();
+        restored.restore(estimator.toJson());
+        assertEquals(estimator.readMillis(CHAT, GuestApiClient.Timeout.CHAT),
+            restored.readMillis(CHAT, GuestApiClient.Timeout.CHAT));
+        assertEquals(estimator.connectMillis("/api/guest/diamonds", GuestApiClient.Timeout.BALANCE),
+            restored.connectMillis("/api/guest/diamonds", GuestApiClient.Timeout.BALANCE));
+        // Phases never measured still fall back to the profile
+        assertEquals(10000, restored.connectMillis(CHAT, GuestApiClient.Timeout.CHAT));
+    }
+
+    @Test
+    public void apiCallsFeedTheEstimator() throws Exception {
+        try (GuestApiStandInServer server = new GuestApiStandInServer()) {
+            GuestApiClient client = new GuestApiClient(server.baseUrl());
+            client.get("/api/guest/session", GuestApiClient.Timeout.SESSION);
+            // Loopback answers in well under a millisecond, so the deadline drops to the floor
+            assertEquals(TimeoutEstimator.MIN_READ_MILLIS,
+                client.timeouts().readMillis("/api/guest/session", GuestApiClient.Timeout.SESSION));
+
+            // Stream headers arrive before the reply is generated, so a streamed chat is not a sample
+            server.setStreaming(true);
+            client.postJsonStreaming(CHAT, GuestApiJson.chatRequest(1, "hi"), GuestApiClient.Timeout.CHAT, (event, data) -> { });
+            assertFalse(client.timeouts().toJson().matches(".*\"" + CHAT + "\":\\{[^}]*ttfb.*"));
+        }
+    }
+}
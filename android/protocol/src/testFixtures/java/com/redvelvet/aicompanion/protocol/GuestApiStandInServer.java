@@ -0,0 +1,365 @@
+package com.redvelvet.aicompanion.protocol;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for the Express guest routes, for tests and benchmarks.
+ *
+ * Serves /api/guest/session (issuing a connect.sid cookie), /api/guest/diamonds
+ * and /api/guest/chat with the same JSON shapes as server/guestRoutes.ts. Chat
+ * replies are also available as a text/event-stream when the client asks for one.
+ * /api/companions carries an ETag and answers a matching If-None-Match with 304,
+ * as Express does for res.json, plus any Cache-Control set with
+ * {@link #setCacheControl}. With {@link #setCbor} on, diamonds and chat answer
+ * in CBOR when the client accepts it, and chat takes CBOR request bodies;
+ * with it off, a CBOR body is refused with 415 like a JSON-only server.
+ * /api/guest/events holds a text/event-stream open, starting with the current
+ * balance; chat debits and {@link #pushEvent} are written to every open stream.
+ * A chat request repeating an Idempotency-Key is answered without a second debit.
+ * After {@link #expireSession}, requests carrying the old cookie get a 401 until
+ * /api/guest/session hands out the new one. With {@link #setFailing} on, every
+ * route answers 503, as an origin whose backend is down would.
+ */
+public class GuestApiStandInServer implements AutoCloseable {
+    public static final String SESSION_COOKIE = "connect.sid=s%3Astand-in-session";
+
+    static {
+        // Without TCP_NODELAY, Nagle plus delayed ACK adds ~40ms to every loopback exchange
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final AtomicInteger diamonds = new AtomicInteger(25);
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger sessionRequests = new AtomicInteger();
+    private volatile String sessionCookie = SESSION_COOKIE;
+    private volatile String reply = "Hey, what's on your mind?";
+    private volatile boolean streaming;
+    private volatile boolean cbor;
+    private volatile boolean failing;
+    private volatile String cacheControl;
+    private volatile String lastChatContentType;
+    private final List<HttpExchange> eventStreams = new ArrayList<>();
+    private final Set<String> chatKeys = ConcurrentHashMap.newKeySet();
+    private volatile String companions =
+        "[{\"id\":1,\"name\":\"Sophia\",\"description\":\"A caring soul with deep brown eyes\","
+        + "\"tagline\":\"The Passionate Romantic\",\"imageUrl\":\"/uploads/companions/sophia.jpg\","
+        + "\"traits\":[\"caring\"],\"available\":true,\"gender\":\"female\"}]";
+
+    public GuestApiStandInServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        route("/api/guest/session", this::handleSession);
+        route("/api/guest/diamonds", this::handleDiamonds);
+        route("/api/guest/chat", this::handleChat);
+        route("/api/guest/events", this::handleEvents);
+        route("/api/companions", this::handleCompanions);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void setReply(String reply) {
+        this.reply = reply;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public void setCbor(boolean cbor) {
+        this.cbor = cbor;
+    }
+
+    public void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+    /** Content-Type of the most recent chat request body. */
+    public String lastChatContentType() {
+        return lastChatContentType;
+    }
+
+    public void setDiamonds(int count) {
+        diamonds.set(count);
+    }
+
+    /** Cache-Control sent with the catalog, or null for none. */
+    public void setCacheControl(String cacheControl) {
+        this.cacheControl = cacheControl;
+    }
+
+    /** Replaces the catalog body; its ETag changes with it. */
+    public void setCompanions(String json) {
+        companions = json;
+    }
+
+    /** Writes one event to every open event stream. */
+    public void pushEvent(String event, String data) {
+        List<HttpExchange> open;
+        synchronized (eventStreams) {
+            open = new ArrayList<>(eventStreams);
+        }
+        for (HttpExchange exchange : open) {
+            try {
+                writeEvent(exchange, event, data);
+            } catch (IOException e) {
+                closeEventStream(exchange);
+            }
+        }
+    }
+
+    /** Ends every open event stream, as a server restart or proxy timeout would. */
+    public void dropEventStreams() {
+        List<HttpExchange> open;
+        synchronized (eventStreams) {
+            open = new ArrayList<>(eventStreams);
+        }
+        for (HttpExchange exchange : open) {
+            closeEventStream(exchange);
+        }
+    }
+
+    /** Forgets the current session, as a server restart or session timeout would. */
+    public void expireSession() {
+        sessionCookie = SESSION_COOKIE + "-" + requests.get();
+    }
+
+    public int sessionRequestCount() {
+        return sessionRequests.get();
+    }
+
+    public int requestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() {
+        dropEventStreams();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void route(String path, HttpHandler handler) {
+        server.createContext(path, exchange -> {
+            if (failing) {
+                requests.incrementAndGet();
+                drain(exchange);
+                sendJson(exchange, 503, "{\"message\":\"Service Unavailable\"}");
+                return;
+            }
+            handler.handle(exchange);
+        });
+    }
+
+    private void handleSession(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        sessionRequests.incrementAndGet();
+        drain(exchange);
+        if (!hasSession(exchange)) {
+            exchange.getResponseHeaders().add("Set-Cookie", sessionCookie + "; Path=/; HttpOnly");
+        }
+        String body = new JsonWriter()
+            .beginObject()
+            .name("sessionId").value("stand-in-session")
+            .name("messageDiamonds").value(diamonds.get())
+            .name("hasReceivedWelcomeDiamonds").value(true)
+            .endObject()
+            .toString();
+        sendJson(exchange, 200, body);
+    }
+
+    private void handleDiamonds(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        drain(exchange);
+        if (!hasSession(exchange)) {
+            refuseSession(exchange);
+            return;
+        }
+        if (wantsCbor(exchange)) {
+            sendCbor(exchange, new CborWriter().beginObject().name("diamonds").value(diamonds.get()).endObject());
+            return;
+        }
+        sendJson(exchange, 200, "{\"diamonds\":" + diamonds.get() + "}");
+    }
+
+    private void handleChat(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        lastChatContentType = contentType;
+        byte[] request;
+        try (InputStream in = exchange.getRequestBody()) {
+            request = in.readAllBytes();
+        }
+        boolean cborRequest = contentType != null && contentType.startsWith(CborReader.CONTENT_TYPE);
+        if (cborRequest && !cbor) {
+            sendJson(exchange, 415, "{\"message\":\"Unsupported Media Type\"}");
+            return;
+        }
+        ValueReader body = cborRequest
+            ? new CborReader(new ByteArrayInputStream(request))
+            : new JsonReader(new String(request, StandardCharsets.UTF_8));
+        if (GuestApiJson.parseIntField(body, "companionId") == null) {
+            sendJson(exchange, 400, "{\"message\":\"companionId is required\"}");
+            return;
+        }
+        if (!hasSession(exchange)) {
+            refuseSession(exchange);
+            return;
+        }
+        String key = exchange.getRequestHeaders().getFirst(GuestApiClient.IDEMPOTENCY_KEY);
+        int remaining;
+        if (key != null && !chatKeys.add(key)) {
+            remaining = diamonds.get();
+        } else {
+            remaining = diamonds.updateAndGet(count -> Math.max(0, count - 1));
+            pushEvent("balance", "{\"diamonds\":" + remaining + "}");
+        }
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        if (streaming && accept != null && accept.contains("text/event-stream")) {
+            sendEventStream(exchange, remaining);
+            return;
+        }
+        if (wantsCbor(exchange)) {
+            sendCbor(exchange, new CborWriter()
+                .beginObject()
+                .name("success").value(true)
+                .name("response").value(reply)
+                .name("remainingDiamonds").value(remaining)
+                .endObject());
+            return;
+        }
+        String response = new JsonWriter()
+            .beginObject()
+            .name("success").value(true)
+            .name("response").value(reply)
+            .name("remainingDiamonds").value(remaining)
+            .endObject()
+            .toString();
+        sendJson(exchange, 200, response);
+    }
+
+    // Left open after the handler returns; written to by pushEvent until dropped
+    private void handleEvents(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        drain(exchange);
+        if (!hasSession(exchange)) {
+            refuseSession(exchange);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0); // Chunked
+        writeEvent(exchange, "balance", "{\"diamonds\":" + diamonds.get() + "}");
+        synchronized (eventStreams) {
+            eventStreams.add(exchange);
+        }
+    }
+
+    private static void writeEvent(HttpExchange exchange, String event, String data) throws IOException {
+        OutputStream out = exchange.getResponseBody();
+        synchronized (exchange) {
+            out.write(("event: " + event + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+
+    private void closeEventStream(HttpExchange exchange) {
+        synchronized (eventStreams) {
+            eventStreams.remove(exchange);
+        }
+        exchange.close();
+    }
+
+    private void handleCompanions(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        drain(exchange);
+        String body = companions;
+        String etag = "W/\"" + Integer.toHexString(body.hashCode()) + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (cacheControl != null) {
+            exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+        }
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        sendJson(exchange, 200, body);
+    }
+
+    private void sendEventStream(HttpExchange exchange, int remaining) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0); // Chunked
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (String word : reply.split("(?<= )")) {
+                out.write(("data: " + word + "\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+            out.write(("event: done\ndata: {\"remainingDiamonds\":" + remaining + "}\n\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private boolean wantsCbor(HttpExchange exchange) {
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        return cbor && accept != null && accept.contains(CborReader.CONTENT_TYPE);
+    }
+
+    private static void sendCbor(HttpExchange exchange, CborWriter body) throws IOException {
+        byte[] bytes = body.toByteArray();
+        exchange.getResponseHeaders().set("Content-Type", CborReader.CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private boolean hasSession(HttpExchange exchange) {
+        String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+        return cookie != null && cookie.equals(sessionCookie);
+    }
+
+    // No cookie at all is a bad request; a cookie for a forgotten session is unauthorized
+    private static void refuseSession(HttpExchange exchange) throws IOException {
+        String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+        if (cookie != null && cookie.startsWith("connect.sid=")) {
+            sendJson(exchange, 401, "{\"message\":\"Session expired\"}");
+        } else {
+            sendJson(exchange, 400, "{\"message\":\"No session available\"}");
+        }
+    }
+
+    private static void drain(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    private static void sendJson(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
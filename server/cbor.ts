@@ -0,0 +1,235 @@
+// Minimal CBOR (RFC 8949) for the JSON data model: maps with text keys, arrays,
+// text and byte strings, numbers, booleans and null. The Android client prefers it
+// to JSON on the guest routes because the same reply is smaller on the wire.
+
+export const CBOR_TYPE = 'application/cbor';
+
+const MAX_DEPTH = 64;
+
+export function encodeCbor(value: unknown): Buffer {
+  const out: Buffer[] = [];
+  write(value, out);
+  return Buffer.concat(out);
+}
+
+export function decodeCbor(data: Buffer): unknown {
+  const reader = { data, offset: 0 };
+  const value = read(reader, 0);
+  if (reader.offset !== data.length) {
+    throw new Error('Trailing bytes after CBOR item');
+  }
+  return value;
+}
+
+function head(major: number, length: number, out: Buffer[]) {
+  if (length < 24) {
+    out.push(Buffer.from([(major << 5) | length]));
+  } else if (length < 0x100) {
+    out.push(Buffer.from([(major << 5) | 24, length]));
+  } else if (length < 0x10000) {
+    const bytes = Buffer.alloc(3);
+    bytes[0] = (major << 5) | 25;
+    bytes.writeUInt16BE(length, 1);
+    out.push(bytes);
+  } else if (length < 0x100000000) {
+    const bytes = Buffer.alloc(5);
+    bytes[0] = (major << 5) | 26;
+    bytes.writeUInt32BE(length, 1);
+    out.push(bytes);
+  } else {
+    const bytes = Buffer.alloc(9);
+    bytes[0] = (major << 5) | 27;
+    bytes.writeBigUInt64BE(BigInt(length), 1);
+    out.push(bytes);
+  }
+}
+
+// Follows JSON.stringify: toJSON is honoured, undefined object members are left out
+function write(value: unknown, out: Buffer[]) {
+  if (value === null || value === undefined) {
+    out.push(Buffer.from([0xf6]));
+  } else if (typeof value === 'boolean') {
+    out.push(Buffer.from([value ? 0xf5 : 0xf4]));
+  } else if (typeof value === 'number') {
+    if (Number.isSafeInteger(value)) {
+      head(value >= 0 ? 0 : 1, value >= 0 ? value : -1 - value, out);
+    } else if (Number.isFinite(value)) {
+      const bytes = Buffer.alloc(9);
+      bytes[0] = 0xfb;
+      bytes.writeDoubleBE(value, 1);
+      out.push(bytes);
+    } else {
+      out.push(Buffer.from([0xf6])); // JSON has no NaN or Infinity either
+    }
+  } else if (typeof value === 'string') {
+    const bytes = Buffer.from(value, 'utf8');
+    head(3, bytes.length, out);
+    out.push(bytes);
+  } else if (Buffer.isBuffer(value)) {
+    head(2, value.length, out);
+    out.push(value);
+  } else if (Array.isArray(value)) {
+    head(4, value.length, out);
+    for (const item of value) {
+      write(item, out);
+    }
+  } else if (typeof value === 'object') {
+    const toJSON = (value as { toJSON?: () => unknown }).toJSON;
+    if (typeof toJSON === 'function') {
+      write(toJSON.call(value), out);
+      return;
+    }
+    const entries = Object.entries(value as Record<string, unknown>)
+      .filter(([, member]) => member !== undefined && typeof member !== 'function');
+    head(5, entries.length, out);
+    for (const [key, member] of entries) {
+      write(key, out);
+      write(member, out);
+    }
+  } else {
+    out.push(Buffer.from([0xf6]));
+  }
+}
+
+interface Reader {
+  data: Buffer;
+  offset: number;
+}
+
+function take(reader: Reader, length: number): Buffer {
+  if (reader.offset + length > reader.data.length) {
+    throw new Error('Truncated CBOR');
+  }
+  const bytes = reader.data.subarray(reader.offset, reader.offset + length);
+  reader.offset += length;
+  return bytes;
+}
+
+function argument(reader: Reader, info: number): number {
+  if (info < 24) {
+    return info;
+  }
+  switch (info) {
+    case 24:
+      return take(reader, 1)[0];
+    case 25:
+      return take(reader, 2).readUInt16BE(0);
+    case 26:
+      return take(reader, 4).readUInt32BE(0);
+    case 27: {
+      const value = take(reader, 8).readBigUInt64BE(0);
+      if (value > BigInt(Number.MAX_SAFE_INTEGER)) {
+        throw new Error('CBOR integer out of range');
+      }
+      return Number(value);
+    }
+    default:
+      throw new Error(`Unsupported CBOR argument ${info}`);
+  }
+}
+
+function atBreak(reader: Reader): boolean {
+  if (reader.offset < reader.data.length && reader.data[reader.offset] === 0xff) {
+    reader.offset++;
+    return true;
+  }
+  return false;
+}
+
+function read(reader: Reader, depth: number): unknown {
+  if (depth > MAX_DEPTH) {
+    throw new Error('CBOR nested too deeply');
+  }
+  const initial = take(reader, 1)[0];
+  const major = initial >> 5;
+  const info = initial & 0x1f;
+
+  if (major === 7) {
+    switch (info) {
+      case 20: return false;
+      case 21: return true;
+      case 22: return null;
+      case 23: return undefined;
+      case 25: return half(take(reader, 2).readUInt16BE(0));
+      case 26: return take(reader, 4).readFloatBE(0);
+      case 27: return take(reader, 8).readDoubleBE(0);
+      default: throw new Error(`Unsupported CBOR simple value ${info}`);
+    }
+  }
+
+  if (info === 31) {
+    switch (major) {
+      case 2:
+      case 3: {
+        const chunks: Buffer[] = [];
+        while (!atBreak(reader)) {
+          const chunk = read(reader, depth + 1);
+          chunks.push(Buffer.isBuffer(chunk) ? chunk : Buffer.from(String(chunk), 'utf8'));
+        }
+        const joined = Buffer.concat(chunks);
+        return major === 2 ? joined : joined.toString('utf8');
+      }
+      case 4: {
+        const items: unknown[] = [];
+        while (!atBreak(reader)) {
+          items.push(read(reader, depth + 1));
+        }
+        return items;
+      }
+      case 5: {
+        const map: Record<string, unknown> = {};
+        while (!atBreak(reader)) {
+          setMember(map, read(reader, depth + 1), read(reader, depth + 1));
+        }
+        return map;
+      }
+      default:
+        throw new Error(`Indefinite length not allowed for major type ${major}`);
+    }
+  }
+
+  const length = argument(reader, info);
+  switch (major) {
+    case 0:
+      return length;
+    case 1:
+      return -1 - length;
+    case 2:
+      return Buffer.from(take(reader, length));
+    case 3:
+      return take(reader, length).toString('utf8');
+    case 4: {
+      const items: unknown[] = [];
+      for (let i = 0; i < length; i++) {
+        items.push(read(reader, depth + 1));
+      }
+      return items;
+    }
+    case 5: {
+      const map: Record<string, unknown> = {};
+      for (let i = 0; i < length; i++) {
+        setMember(map, read(reader, depth + 1), read(reader, depth + 1));
+      }
+      return map;
+    }
+    default:
+      return read(reader, depth + 1); // A tag: the tagged value is used as is
+  }
+}
+
+function setMember(map: Record<string, unknown>, key: unknown, value: unknown) {
+  const name = String(key);
+  // Same as JSON.parse, which never lets a body replace the prototype
+  if (name !== '__proto__') {
+    map[name] = value;
+  }
+}
+
+function half(bits: number): number {
+  const exponent = (bits >> 10) & 0x1f;
+  const mantissa = bits & 0x3ff;
+  const value = exponent === 0 ? mantissa * 2 ** -24
+    : exponent !== 31 ? (mantissa + 1024) * 2 ** (exponent - 25)
+    : mantissa === 0 ? Infinity : NaN;
+  return bits & 0x8000 ? -value : value;
+}
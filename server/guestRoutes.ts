@@ -1,9 +1,28 @@
-import express, { Request, Response } from 'express';
-import { guestService } from './services/guestService';
+import express, { NextFunction, Request, Response } from 'express';
+import { guestService, GuestEvent } from './services/guestService';
 import { companionService } from './services/companionService';
+import { CBOR_TYPE, decodeCbor, encodeCbor } from './cbor';
 
 const router = express.Router();
 
+// The Android client negotiates CBOR: it may send CBOR bodies, and a client that
+// lists it in Accept gets every res.json reply on these routes encoded in it
+router.use(express.raw({ type: CBOR_TYPE, limit: '100kb' }));
+router.use((req: Request, res: Response, next: NextFunction) => {
+  if (req.is(CBOR_TYPE) && Buffer.isBuffer(req.body)) {
+    try {
+      req.body = decodeCbor(req.body);
+    } catch (error) {
+      return res.status(400).json({ message: "Malformed CBOR body" });
+    }
+  }
+  res.vary('Accept');
+  if ((req.get('Accept') || '').includes(CBOR_TYPE)) {
+    res.json = ((body: unknown) => res.type(CBOR_TYPE).send(encodeCbor(body))) as Response['json'];
+  }
+  next();
+});
+
 // Get guest session with device fingerprinting to prevent diamond farming
 router.get('/session', (req: Request, res: Response) => {
   try {
@@ -29,6 +48,8 @@ router.get('/session', (req: Request, res: Response) => {
     
     console.log(`Guest session for ${sessionId} (Device: ${deviceFingerprint || 'auto'}, IP: ${ipAddress}): ${guestSession.messageDiamonds} diamonds`);
     
+    // Per-session: clients may keep it, but must revalidate (the ETag makes that a 304)
+    res.set('Cache-Control', 'private, no-cache');
     res.json({
       sessionId: guestSession.sessionId,
       preferredGender: guestSession.preferredGender,
@@ -116,6 +137,8 @@ router.get('/diamonds', (req: Request, res: Response) => {
     
     const diamondCount = guestService.getDiamondsCount(sessionId);
     
+    // Changes with every message; the app's ledger must never see a stored copy
+    res.set('Cache-Control', 'no-store');
     res.json({ diamonds: diamondCount });
   } catch (error) {
     console.error("Error getting diamond count:", error);
@@ -123,6 +146,46 @@ router.get('/diamonds', (req: Request, res: Response) => {
   }
 });
 
+function openEventStream(res: Response) {
+  res.writeHead(200, {
+    'Content-Type': 'text/event-stream',
+    'Cache-Control': 'no-cache',
+    'Connection': 'keep-alive',
+    'X-Accel-Buffering': 'no'
+  });
+}
+
+// One event; a multi-line text goes out as one data line per line, which the client joins back with \n
+function writeEvent(res: Response, event: string, data: string) {
+  const lines = data.replace(/\r\n?/g, '\n').split('\n').map(line => `data: ${line}`).join('\n');
+  res.write(`event: ${event}\n${lines}\n\n`);
+}
+
+// Push channel: balance changes, purchases and session expiry as server-sent events
+router.get('/events', (req: Request, res: Response) => {
+  const sessionId = req.sessionID;
+  if (!sessionId) {
+    return res.status(400).json({ message: "No session available" });
+  }
+
+  openEventStream(res);
+  const send = (event: GuestEvent) => {
+    const { type, ...data } = event;
+    res.write(`event: ${type}\ndata: ${JSON.stringify(data)}\n\n`);
+  };
+
+  // Current balance first, so a reconnecting client catches up on anything it missed
+  send({ type: 'balance', diamonds: guestService.getDiamondsCount(sessionId) });
+  const unsubscribe = guestService.subscribe(sessionId, send);
+  // Comment lines keep proxies and the client's read timeout from closing an idle stream
+  const keepAlive = setInterval(() => res.write(': ping\n\n'), 25000);
+
+  req.on('close', () => {
+    clearInterval(keepAlive);
+    unsubscribe();
+  });
+});
+
 // Use diamonds (for messaging)
 router.post('/diamonds/use', (req: Request, res: Response) => {
   try {
@@ -174,7 +237,34 @@ router.get('/can-access/:companionId', (req: Request, res: Response) => {
   }
 });
 
-// Chat endpoint for guest users
+// Replies to chat requests that carried an Idempotency-Key, so a client retrying after a
+// lost response gets the same reply instead of a second charge and a second generation.
+// An entry stays once its diamond is taken; a reply of null means the generation failed,
+// and the retry generates again without charging.
+const CHAT_REPLAY_TTL_MS = 24 * 60 * 60 * 1000;
+const CHAT_REPLAY_LIMIT = 10000;
+const chatReplies = new Map<string, { at: number; reply: Promise<string | null> }>();
+
+function rememberChatReply(key: string, reply: Promise<string | null>) {
+  const now = Date.now();
+  // Oldest first in insertion order, so expired entries are at the front
+  for (const [oldKey, entry] of chatReplies) {
+    if (chatReplies.size < CHAT_REPLAY_LIMIT && now - entry.at < CHAT_REPLAY_TTL_MS) {
+      break;
+    }
+    chatReplies.delete(oldKey);
+  }
+  chatReplies.set(key, { at: now, reply });
+}
+
+// Ends a streamed chat reply; the client settles its pending debit on this balance
+function endChatStream(res: Response, remainingDiamonds: number) {
+  writeEvent(res, 'done', JSON.stringify({ remainingDiamonds }));
+  res.end();
+}
+
+// Chat endpoint for guest users. A client that accepts text/event-stream gets the reply as
+// "message" events while it is generated and a closing "done" event; others get JSON.
 router.post('/chat', async (req: Request, res: Response) => {
   try {
     const sessionId = req.sessionID;
@@ -188,41 +278,93 @@ router.post('/chat', async (req: Request, res: Response) => {
       return res.status(400).json({ message: "companionId and message are required" });
     }
 
-    // Check if guest has diamonds
-    const diamondCount = guestService.getDiamondsCount(sessionId);
-    if (diamondCount <= 0) {
-      return res.status(400).json({ 
-        message: "Insufficient diamonds", 
-        remainingDiamonds: 0 
-      });
+    const streaming = (req.get('Accept') || '').includes('text/event-stream');
+    const idempotencyKey = req.get('Idempotency-Key');
+    const replayKey = idempotencyKey ? `${sessionId}:${idempotencyKey}` : null;
+    const previous = replayKey ? chatReplies.get(replayKey) : undefined;
+    if (previous) {
+      // Already charged; wait for the first attempt if it is still generating
+      const text = await previous.reply;
+      if (text !== null && streaming) {
+        openEventStream(res);
+        writeEvent(res, 'message', text);
+        return endChatStream(res, guestService.getDiamondsCount(sessionId));
+      }
+      if (text !== null) {
+        return res.json({
+          success: true,
+          response: text,
+          remainingDiamonds: guestService.getDiamondsCount(sessionId)
+        });
+      }
     }
 
-    // Use a diamond for this message
-    const usageResult = guestService.useDiamonds(sessionId, 1);
-    if (!usageResult.success) {
-      return res.status(400).json({ 
-        message: "Failed to use diamond", 
-        remainingDiamonds: usageResult.remainingDiamonds 
-      });
+    let remainingDiamonds: number | undefined;
+    if (previous) {
+      remainingDiamonds = guestService.getDiamondsCount(sessionId);
+    } else {
+      // Check if guest has diamonds
+      const diamondCount = guestService.getDiamondsCount(sessionId);
+      if (diamondCount <= 0) {
+        return res.status(400).json({ 
+          message: "Insufficient diamonds", 
+          remainingDiamonds: 0 
+        });
+      }
+
+      // Use a diamond for this message
+      const usageResult = guestService.useDiamonds(sessionId, 1);
+      if (!usageResult.success) {
+        return res.status(400).json({ 
+          message: "Failed to use diamond", 
+          remainingDiamonds: usageResult.remainingDiamonds 
+        });
+      }
+      remainingDiamonds = usageResult.remainingDiamonds;
+    }
+
+    let written = '';
+    if (streaming) {
+      openEventStream(res);
     }
 
     // Get AI response
-    const response = await companionService.processMessage({
+    const generation = companionService.processMessage({
       companionId,
       message,
       userId: 0, // Guest user
       sessionId
-    });
+    }, streaming ? text => {
+      writeEvent(res, 'message', text);
+      written += text;
+    } : undefined);
+    if (replayKey) {
+      // Replaces a failed attempt's entry, which is kept until now so the charge is not repeated
+      chatReplies.delete(replayKey);
+      rememberChatReply(replayKey, generation.then(response => response.text, () => null));
+    }
+    const response = await generation;
 
+    if (streaming) {
+      // A fallback reply after a failed generation was never streamed
+      if (response.text.startsWith(written) && response.text.length > written.length) {
+        writeEvent(res, 'message', response.text.slice(written.length));
+      }
+      return endChatStream(res, remainingDiamonds);
+    }
     res.json({
       success: true,
       response: response.text,
-      remainingDiamonds: usageResult.remainingDiamonds
+      remainingDiamonds
     });
 
   } catch (error) {
     console.error("❌ Error in guest chat:", error);
     console.error("❌ Error stack:", error instanceof Error ? error.stack : 'No stack');
+    if (res.headersSent) {
+      // Mid-stream: a cut connection without "done" makes the client keep the message queued
+      return res.destroy();
+    }
     res.status(500).json({ message: "Failed to get chat response" });
   }
 });
@@ -221,6 +221,8 @@ export async function registerRoutes(app: Express): Promise<Server> {
     try {
       // Use in-memory storage instead of direct SQL due to database connection issues
       const companions = await storage.getAllCompanions();
+      // Rarely changes: serve from cache for 5 minutes, then show the stored copy while refreshing
+      res.set('Cache-Control', 'public, max-age=300, stale-while-revalidate=86400');
       res.json(companions);
     } catch (error) {
       console.error("Error fetching companions:", error);
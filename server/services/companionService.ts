@@ -158,9 +158,10 @@ export interface ChatResponse {
 
 export class CompanionService {
   /**
-   * Process a chat message and generate a response
+   * Process a chat message and generate a response. With onText, the reply is also
+   * handed over piece by piece as it is generated; the pieces add up to response.text.
    */
-  async processMessage(req: ChatRequest): Promise<ChatResponse> {
+  async processMessage(req: ChatRequest, onText?: (text: string) => void): Promise<ChatResponse> {
     try {
       let { userId, companionId, message, sessionId, emotion } = req;
       
@@ -194,7 +195,7 @@ export class CompanionService {
       const isGuestUser = Boolean(sessionId && !req.userId);
       
       // Generate response using memory context (no memory for guests)
-      const response = await this.generateResponse(message, companion, settings, emotion, userId, isGuestUser);
+      const response = await this.generateResponse(message, companion, settings, emotion, userId, isGuestUser, onText);
       
       // Memory storage temporarily disabled to ensure clean sessions
       console.log('Memory storage disabled - ensuring clean chat sessions for all users');
@@ -233,7 +234,8 @@ export class CompanionService {
     settings?: CompanionSettings | null,
     emotion?: ChatRequest['emotion'],
     userId?: number,
-    isGuestUser?: boolean
+    isGuestUser?: boolean,
+    onText?: (text: string) => void
   ): Promise<ChatResponse> {
     const response: ChatResponse = {
       text: '',
@@ -256,7 +258,7 @@ export class CompanionService {
       response.memoryContext = memoryContext;
       
       // Generate AI response using Anthropic with user settings
-      const aiResponse = await this.generateAIResponse(message, companion, memories, emotion, settings, userId);
+      const aiResponse = await this.generateAIResponse(message, companion, memories, emotion, settings, userId, onText);
       response.text = aiResponse;
       
       return response;
@@ -277,8 +279,10 @@ export class CompanionService {
     memories: MemoryEntry[],
     emotion?: ChatRequest['emotion'],
     settings?: CompanionSettings | null,
-    userId?: number
+    userId?: number,
+    onText?: (text: string) => void
   ): Promise<string> {
+    const streamed = new CleanedTextStream(onText);
     try {
       // Build conversation history from memories
       let conversationHistory = '';
@@ -428,32 +432,34 @@ Response guidelines:
 - Match their energy and mood
 - Ask follow-up questions naturally when appropriate`;
 
-      const response = await anthropic.messages.create({
+      const request = {
         model: 'claude-sonnet-4-20250514', // the newest Anthropic model is "claude-sonnet-4-20250514" which was released May 14, 2025. Use this by default unless user has already selected claude-3-7-sonnet-20250219
         max_tokens: 80,
         temperature: 0.8,
         system: systemPrompt,
         messages: [
           {
-            role: 'user',
+            role: 'user' as const,
             content: message
           }
         ]
-      });
+      };
 
-      const aiText = response.content[0] && 'text' in response.content[0] ? response.content[0].text : '';
+      let aiText: string;
+      if (onText) {
+        const stream = anthropic.messages.stream(request);
+        stream.on('text', (_delta: string, snapshot: string) => streamed.update(snapshot));
+        const final = await stream.finalMessage();
+        aiText = final.content[0] && 'text' in final.content[0] ? final.content[0].text : '';
+      } else {
+        const response = await anthropic.messages.create(request);
+        aiText = response.content[0] && 'text' in response.content[0] ? response.content[0].text : '';
+      }
       
       // Clean up response to sound more human
-      const cleanedResponse = aiText
-        .replace(/^(As an AI|I'm an AI|As your AI companion|As a|I am a)/i, '')
-        .replace(/I cannot|I can't|I'm not able to|I don't feel comfortable/gi, "I'd rather")
-        .replace(/\*[^*]*\*/g, '') // Remove action text like *smiles*
-        .replace(/I'm here to help|I'm here for you/gi, 'Hey')
-        .replace(/Let me know|Please let me know/gi, 'Tell me')
-        .replace(/I understand|I see|I comprehend/gi, 'Got it')
-        .trim();
+      const cleanedResponse = cleanResponse(aiText);
       
-      return cleanedResponse || "Hey, what's on your mind?";
+      return streamed.finish(cleanedResponse || "Hey, what's on your mind?");
       
     } catch (error: any) {
       console.error('❌ Anthropic API error details:', {
@@ -464,10 +470,13 @@ Response guidelines:
         errorStack: error?.stack || 'No stack trace',
         fullError: error
       });
-      // Fallback to personality-based response
+      // A reply cut off mid-stream stands as sent; otherwise fall back to a personality-based response
+      if (streamed.sent) {
+        return streamed.sent;
+      }
       const personality = companion.personality?.toLowerCase() || 'warm';
       const responses = personalityResponses[personality] || personalityResponses.warm;
-      return responses[Math.floor(Math.random() * responses.length)];
+      return streamed.finish(responses[Math.floor(Math.random() * responses.length)]);
     }
   }
 
@@ -486,5 +495,63 @@ Response guidelines:
   }
 }
 
+// Makes a generated reply sound more human; applied to whole sentences only
+function cleanResponse(text: string): string {
+  return text
+    .replace(/^(As an AI|I'm an AI|As your AI companion|As a|I am a)/i, '')
+    .replace(/I cannot|I can't|I'm not able to|I don't feel comfortable/gi, "I'd rather")
+    .replace(/\*[^*]*\*/g, '') // Remove action text like *smiles*
+    .replace(/I'm here to help|I'm here for you/gi, 'Hey')
+    .replace(/Let me know|Please let me know/gi, 'Tell me')
+    .replace(/I understand|I see|I comprehend/gi, 'Got it')
+    .trim();
+}
+
+/**
+ * Hands a reply over as it is generated, cleaned the same way as the finished one.
+ * The cleanup rewrites phrases, so only complete sentences outside an open *action*
+ * are passed on; whatever is sent is always a prefix of the final text.
+ */
+class CleanedTextStream {
+  sent = '';
+
+  constructor(private readonly onText?: (text: string) => void) {}
+
+  update(snapshot: string) {
+    if (!this.onText) {
+      return;
+    }
+    let end = -1;
+    const boundary = /[.!?](?=\s)/g;
+    let match: RegExpExecArray | null;
+    while ((match = boundary.exec(snapshot)) !== null) {
+      const candidate = match.index + 1;
+      if ((snapshot.slice(0, candidate).match(/\*/g) || []).length % 2 === 0) {
+        end = candidate;
+      }
+    }
+    if (end > 0) {
+      this.advance(cleanResponse(snapshot.slice(0, end)));
+    }
+  }
+
+  // Sends the rest of the final text and returns what the listener has in total
+  finish(text: string): string {
+    if (!this.onText) {
+      return text;
+    }
+    this.advance(text);
+    return this.sent;
+  }
+
+  private advance(cleaned: string) {
+    if (cleaned.length > this.sent.length && cleaned.startsWith(this.sent)) {
+      const piece = cleaned.slice(this.sent.length);
+      this.sent = cleaned;
+      this.onText!(piece);
+    }
+  }
+}
+
 // Create a singleton instance
 export const companionService = new CompanionService();
@@ -1,3 +1,4 @@
+import { EventEmitter } from 'events';
 import { v4 as uuidv4 } from 'uuid';
 import { storage } from '../storage';
 
@@ -28,7 +29,13 @@ interface GuestSession {
   hasReceivedWelcomeDiamonds: boolean;
 }
 
+export type GuestEvent =
+  | { type: 'balance', diamonds: number }
+  | { type: 'purchase', added: number, diamonds: number }
+  | { type: 'session-expired' };
+
 class GuestService {
+  private events = new EventEmitter(); // Per-session change notifications, keyed by sessionId
   private guestSessions: Map<string, GuestSession> = new Map();
   private deviceSessions: Map<string, DeviceSession> = new Map(); // Maps device fingerprint to device session
   private ipToSessionMap: Map<string, string> = new Map(); // Maps IP to current sessionId
@@ -36,9 +43,22 @@ class GuestService {
   private availableMaleCompanionIds: number[] = [];
   
   constructor() {
+    this.events.setMaxListeners(0); // One listener per open event stream
     this.initializeCompanionIds();
   }
   
+  /**
+   * Subscribe to balance, purchase and expiry events for one session; returns the unsubscribe function
+   */
+  subscribe(sessionId: string, listener: (event: GuestEvent) => void): () => void {
+    this.events.on(sessionId, listener);
+    return () => this.events.off(sessionId, listener);
+  }
+  
+  private emit(sessionId: string, event: GuestEvent): void {
+    this.events.emit(sessionId, event);
+  }
+  
   private async initializeCompanionIds() {
     try {
       const companions = await storage.getAllCompanions();
@@ -202,6 +222,7 @@ class GuestService {
     // Deduct diamonds
     session.messageDiamonds -= count;
     this.guestSessions.set(sessionId, session);
+    this.emit(sessionId, { type: 'balance', diamonds: session.messageDiamonds });
     
     return { 
       success: true, 
@@ -304,6 +325,8 @@ class GuestService {
     if (deviceSession) {
       deviceSession.messageDiamonds += count;
     }
+    this.emit(sessionId, { type: 'purchase', added: count, diamonds: session.messageDiamonds });
+    this.emit(sessionId, { type: 'balance', diamonds: session.messageDiamonds });
 
     return { success: true, totalDiamonds: session.messageDiamonds };
   }
@@ -326,6 +349,7 @@ class GuestService {
       this.ipToSessionMap.delete(session.ipAddress);
     }
     this.guestSessions.delete(sessionId);
+    this.emit(sessionId, { type: 'session-expired' });
   }
 }
 